@@ -0,0 +1,201 @@
+package fr.fgroup.chatai.clients;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import fr.fgroup.chatai.resources.RequestResponse;
+import fr.fgroup.chatai.resources.StreamChunkResource;
+import fr.fgroup.chatai.resources.post.ContinueMessageResourcePost;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.codec.EncodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserter;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * OpenAiChatCodec - Reads and writes the JSON of the OpenAI chat completion protocol.
+ *
+ * Request bodies are written field by field with a streaming {@link JsonGenerator} straight
+ * into the outgoing buffer (WebClient) or sink (OkHttp): the conversation is never copied
+ * into an intermediate String, and message contents are plain JSON strings (escaped by the
+ * generator, no URL encoding).
+ *
+ * Responses are parsed from their bytes by {@link ObjectReader}s built once from the
+ * application's ObjectMapper, ignoring unknown properties so new OpenAI fields never break
+ * the parsing.
+ */
+@Component
+public class OpenAiChatCodec {
+
+  private static final MediaType JSON = MediaType.get("application/json");
+
+  /** Rough size of the JSON around each message, used to size the request buffer */
+  private static final int MESSAGE_OVERHEAD = 40;
+
+  private final JsonFactory jsonFactory;
+  private final ObjectReader responseReader;
+  private final ObjectReader chunkReader;
+
+  public OpenAiChatCodec(ObjectMapper objectMapper) {
+    this.jsonFactory = objectMapper.getFactory();
+    ObjectReader reader = objectMapper.reader().without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    this.responseReader = reader.forType(RequestResponse.class);
+    this.chunkReader = reader.forType(StreamChunkResource.class);
+  }
+
+  /**
+   * Body of a non-streamed completion request, written directly into the request buffer.
+   *
+   * @param model the model
+   * @param messages the conversation
+   * @return the body inserter
+   */
+  public BodyInserter<Void, ReactiveHttpOutputMessage> chatRequest(String model,
+                                                                  List<ContinueMessageResourcePost> messages) {
+    return chatRequest(model, messages, null);
+  }
+
+  /**
+   * Body of a non-streamed completion request bounding the answer.
+   *
+   * @param model the model
+   * @param messages the conversation
+   * @param maxTokens the {@code max_tokens} of the answer, or null for the model's default
+   * @return the body inserter
+   */
+  public BodyInserter<Void, ReactiveHttpOutputMessage> chatRequest(String model,
+                                                                  List<ContinueMessageResourcePost> messages,
+                                                                  Integer maxTokens) {
+    return (message, context) -> {
+      DataBuffer buffer = message.bufferFactory().allocateBuffer(estimateSize(messages));
+      try (OutputStream out = buffer.asOutputStream()) {
+        write(out, model, messages, false, maxTokens);
+      } catch (IOException e) {
+        DataBufferUtils.release(buffer);
+        return Mono.error(new EncodingException("Failed to write the completion request", e));
+      }
+      return message.writeWith(Mono.just(buffer));
+    };
+  }
+
+  /**
+   * Body of a streamed completion request ({@code stream: true}, usage included), written
+   * directly into the OkHttp sink.
+   *
+   * @param model the model
+   * @param messages the conversation
+   * @return the request body
+   */
+  public RequestBody streamRequest(String model, List<ContinueMessageResourcePost> messages) {
+    return new RequestBody() {
+      @Override
+      public MediaType contentType() {
+        return JSON;
+      }
+
+      @Override
+      public void writeTo(BufferedSink sink) throws IOException {
+        write(sink.outputStream(), model, messages, true, null);
+      }
+    };
+  }
+
+  /**
+   * Canonical key of a completion request: the SHA-256 of its JSON body, computed without
+   * materializing the body.
+   *
+   * @param model the model
+   * @param messages the conversation
+   * @return the hex digest
+   */
+  public String requestKey(String model, List<ContinueMessageResourcePost> messages) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      try (OutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+        write(out, model, messages, false, null);
+      }
+      return String.format("%064x", new BigInteger(1, digest.digest()));
+    } catch (NoSuchAlgorithmException | IOException e) {
+      throw new IllegalStateException("Failed to compute the request key", e);
+    }
+  }
+
+  /**
+   * Parses a completion response.
+   *
+   * @param body the whole response body, released once read
+   * @return the completion
+   * @throws DecodingException if the body is not a valid completion
+   */
+  public RequestResponse readResponse(DataBuffer body) {
+    try (InputStream in = body.asInputStream(true)) {
+      return responseReader.readValue(in);
+    } catch (IOException e) {
+      throw new DecodingException("Failed to parse the completion response", e);
+    }
+  }
+
+  /**
+   * Parses one chunk of a streamed completion.
+   *
+   * @param data the payload of a {@code data:} line
+   * @return the chunk
+   * @throws IOException if the payload is not a valid chunk
+   */
+  public StreamChunkResource readChunk(String data) throws IOException {
+    return chunkReader.readValue(data);
+  }
+
+  private void write(OutputStream out, String model, List<ContinueMessageResourcePost> messages,
+                     boolean stream, Integer maxTokens) throws IOException {
+    try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+      // The caller owns the target: an OkHttp sink must not be closed by the body
+      generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      generator.writeStartObject();
+      generator.writeStringField("model", model);
+      generator.writeArrayFieldStart("messages");
+      for (ContinueMessageResourcePost message : messages) {
+        generator.writeStartObject();
+        generator.writeStringField("role", message.getRole());
+        generator.writeStringField("content", message.getContent());
+        generator.writeEndObject();
+      }
+      generator.writeEndArray();
+      if (maxTokens != null) {
+        generator.writeNumberField("max_tokens", maxTokens);
+      }
+      if (stream) {
+        generator.writeBooleanField("stream", true);
+        generator.writeObjectFieldStart("stream_options");
+        generator.writeBooleanField("include_usage", true);
+        generator.writeEndObject();
+      }
+      generator.writeEndObject();
+    }
+  }
+
+  private static int estimateSize(List<ContinueMessageResourcePost> messages) {
+    int size = 64;
+    for (ContinueMessageResourcePost message : messages) {
+      size += MESSAGE_OVERHEAD + (message.getContent() == null ? 0 : message.getContent().length());
+    }
+    return size;
+  }
+}
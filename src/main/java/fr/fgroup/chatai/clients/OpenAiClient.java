@@ -0,0 +1,184 @@
+package fr.fgroup.chatai.clients;
+
+import fr.fgroup.chatai.configs.UpstreamClientProperties;
+import fr.fgroup.chatai.resources.EmbeddingResponse;
+import fr.fgroup.chatai.resources.RequestResponse;
+import fr.fgroup.chatai.resources.post.ContinueMessageResourcePost;
+import io.netty.channel.ChannelOption;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ClientHttpRequest;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserter;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.client.HttpClientRequest;
+import reactor.netty.resources.ConnectionProvider;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * OpenAiClient - Non-blocking client of the OpenAI chat completion and embedding APIs.
+ *
+ * Calls go through a {@link WebClient} backed by Reactor Netty: a request waiting for
+ * OpenAI holds no thread, only a pooled connection, so thousands of completions can be
+ * in flight on the event loop threads.
+ *
+ * The connection pool is sized from {@link UpstreamClientProperties} (same settings as
+ * the OkHttp client used for streaming), HTTP/2 is negotiated when enabled, and the
+ * per-route timeouts of {@code openai.http.routes} are applied per request.
+ * Pool metrics are published by Reactor Netty under {@code reactor.netty.connection.provider.*}.
+ *
+ * Each attempt goes to the target picked by {@link UpstreamPool} (key, endpoint and API
+ * flavour), whose rate-limit headers and latency are fed back to the pool.
+ *
+ * Every call is protected by {@link UpstreamResilience}: each attempt gets its own call
+ * timeout, 429/5xx answers and I/O errors are retried with backoff, and calls are refused
+ * with {@link fr.fgroup.chatai.exceptions.UpstreamUnavailableException} while the circuit
+ * of their route is open or the bulkhead is full.
+ */
+@Component
+public class OpenAiClient {
+
+  private final UpstreamClientProperties properties;
+  private final OpenAiChatCodec codec;
+  private final UpstreamResilience resilience;
+  private final UpstreamPool pool;
+  private final ConnectionProvider connectionProvider;
+  private final WebClient webClient;
+
+  public OpenAiClient(UpstreamClientProperties properties,
+                      OpenAiChatCodec codec,
+                      UpstreamResilience resilience,
+                      UpstreamPool pool,
+                      WebClient.Builder webClientBuilder) {
+    this.properties = properties;
+    this.codec = codec;
+    this.resilience = resilience;
+    this.pool = pool;
+    this.connectionProvider = ConnectionProvider.builder("openai")
+            .maxConnections(properties.getMaxRequests())
+            .pendingAcquireMaxCount(properties.getMaxPendingRequests())
+            .maxIdleTime(properties.getKeepAlive())
+            .metrics(true)
+            .build();
+    HttpClient httpClient = HttpClient.create(connectionProvider)
+            .protocol(properties.isHttp2()
+                    ? new HttpProtocol[]{HttpProtocol.H2, HttpProtocol.HTTP11}
+                    : new HttpProtocol[]{HttpProtocol.HTTP11})
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) properties.getConnectTimeout().toMillis())
+            .responseTimeout(properties.getReadTimeout());
+    this.webClient = webClientBuilder.clone()
+            .clientConnector(new ReactorClientHttpConnector(httpClient))
+            .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(properties.getMaxResponseBytes()))
+            .build();
+  }
+
+  /**
+   * Sends a chat completion request.
+   *
+   * The body is written by {@link OpenAiChatCodec} straight into the request buffer and the
+   * response is parsed from its bytes.
+   * Non-2xx answers are signalled as
+   * {@link org.springframework.web.reactive.function.client.WebClientResponseException},
+   * I/O failures as {@link org.springframework.web.reactive.function.client.WebClientRequestException}
+   * and unparsable answers, or answers above {@code max-response-bytes}, as {@link DecodingException},
+   * once the retries are exhausted.
+   *
+   * @param model the model
+   * @param messages the conversation
+   * @return a Mono emitting the parsed completion
+   */
+  public Mono<RequestResponse> chatCompletion(String model, List<ContinueMessageResourcePost> messages) {
+    return chatCompletion(model, messages, null);
+  }
+
+  /**
+   * Sends a chat completion request bounding the answer.
+   *
+   * @param model the model
+   * @param messages the conversation
+   * @param maxTokens the {@code max_tokens} of the answer, or null for the model's default
+   * @return a Mono emitting the parsed completion
+   * @see #chatCompletion(String, List)
+   */
+  public Mono<RequestResponse> chatCompletion(String model, List<ContinueMessageResourcePost> messages,
+                                              Integer maxTokens) {
+    return exchange(UpstreamHttpClient.CHAT_COMPLETIONS, model, "/chat/completions",
+            codec.chatRequest(model, messages, maxTokens),
+            response -> DataBufferUtils.join(response.bodyToFlux(DataBuffer.class), properties.getMaxResponseBytes())
+                    .onErrorMap(DataBufferLimitException.class,
+                            e -> new DecodingException("Completion response larger than "
+                                    + properties.getMaxResponseBytes() + " bytes", e))
+                    .map(codec::readResponse));
+  }
+
+  /**
+   * Computes embeddings.
+   *
+   * @param model the embedding model, also named in the body
+   * @param body the JSON request body
+   * @return a Mono emitting the embeddings
+   */
+  public Mono<EmbeddingResponse> embeddings(String model, String body) {
+    return exchange(UpstreamHttpClient.EMBEDDINGS, model, "/embeddings", BodyInserters.fromValue(body),
+            response -> response.bodyToMono(EmbeddingResponse.class));
+  }
+
+  private <T> Mono<T> exchange(String route, String model, String path,
+                               BodyInserter<?, ? super ClientHttpRequest> body,
+                               Function<ClientResponse, Mono<T>> reader) {
+    UpstreamClientProperties.RouteTimeouts timeouts = properties.getRoutes().get(route);
+    return resilience.protect(route, pool.call(model, target -> {
+      long start = System.nanoTime();
+      Mono<T> response = webClient.post()
+              .uri(target.uri(model, path))
+              .header(target.getAuthHeaderName(), target.getAuthHeaderValue())
+              .contentType(MediaType.APPLICATION_JSON)
+              .httpRequest(request -> applyReadTimeout(request, timeouts))
+              .body(body)
+              .exchangeToMono(clientResponse -> {
+                HttpHeaders headers = clientResponse.headers().asHttpHeaders();
+                target.observe(clientResponse.rawStatusCode(), headers::getFirst, System.nanoTime() - start);
+                if (clientResponse.rawStatusCode() >= 400) {
+                  return clientResponse.createException().flatMap(Mono::error);
+                }
+                return reader.apply(clientResponse);
+              });
+      return withCallTimeout(response, timeouts);
+    }));
+  }
+
+  private <T> Mono<T> withCallTimeout(Mono<T> response, UpstreamClientProperties.RouteTimeouts timeouts) {
+    if (timeouts != null && timeouts.getCallTimeout() != null) {
+      return response.timeout(timeouts.getCallTimeout());
+    }
+    return response;
+  }
+
+  private void applyReadTimeout(ClientHttpRequest request, UpstreamClientProperties.RouteTimeouts timeouts) {
+    if (timeouts != null && timeouts.getReadTimeout() != null) {
+      HttpClientRequest nativeRequest = request.getNativeRequest();
+      nativeRequest.responseTimeout(timeouts.getReadTimeout());
+    }
+  }
+
+  /**
+   * Closes the pooled connections on shutdown.
+   */
+  @PreDestroy
+  public void shutdown() {
+    connectionProvider.dispose();
+  }
+}
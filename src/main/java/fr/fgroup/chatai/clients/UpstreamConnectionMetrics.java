@@ -0,0 +1,60 @@
+package fr.fgroup.chatai.clients;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+
+/**
+ * UpstreamConnectionMetrics - OkHttp event listener counting connection level events.
+ *
+ * A single instance is shared by every call of the upstream client. It records:
+ * - TCP connections opened and failed
+ * - TLS handshakes performed
+ * - Connections acquired by calls, split between fresh and reused ones
+ *
+ * A reuse ratio close to 1 means the pool is doing its job; a growing handshake count
+ * under steady traffic means connections are evicted too early.
+ */
+public class UpstreamConnectionMetrics extends EventListener {
+
+  private final Counter connectsOpened;
+  private final Counter connectsFailed;
+  private final Counter handshakes;
+  private final Counter connectionsAcquired;
+
+  public UpstreamConnectionMetrics(MeterRegistry meterRegistry) {
+    this.connectsOpened = meterRegistry.counter("chatai.upstream.connections.opened");
+    this.connectsFailed = meterRegistry.counter("chatai.upstream.connections.failed");
+    this.handshakes = meterRegistry.counter("chatai.upstream.handshakes");
+    this.connectionsAcquired = meterRegistry.counter("chatai.upstream.connections.acquired");
+  }
+
+  @Override
+  public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+    connectsOpened.increment();
+  }
+
+  @Override
+  public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+                            Protocol protocol, IOException ioe) {
+    connectsFailed.increment();
+  }
+
+  @Override
+  public void secureConnectEnd(Call call, Handshake handshake) {
+    handshakes.increment();
+  }
+
+  @Override
+  public void connectionAcquired(Call call, Connection connection) {
+    connectionsAcquired.increment();
+  }
+}
@@ -0,0 +1,178 @@
+package fr.fgroup.chatai.clients;
+
+import fr.fgroup.chatai.configs.HedgingProperties;
+import fr.fgroup.chatai.utils.LatencyReservoir;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * UpstreamHedging - Hedged calls to OpenAI, trimming the latency tail.
+ *
+ * A call that has not answered after the {@code openai.hedging.percentile} of the recent
+ * latencies of its route and model gets a second, identical call; the first answer wins and the
+ * other call is cancelled. The delay is bounded by {@code min-delay} and {@code max-delay},
+ * and nothing is hedged until {@code min-samples} latencies are known.
+ *
+ * Hedges are paid for with a budget: every call saves {@code budget-percent} of a hedge,
+ * up to {@code max-burst} hedges, and a hedge is only sent when a whole one is saved. The
+ * extra upstream traffic thus stays under {@code budget-percent} even when the upstream
+ * slows down as a whole, where hedging everything would only double its load.
+ *
+ * Errors of the first call are returned as is; errors of a hedge are ignored and the first
+ * call is awaited. A first call cancelled by a winning hedge counts its elapsed time as a latency.
+ *
+ * Metrics:
+ * - {@code chatai.hedging.calls{route,model}}: calls eligible to hedging
+ * - {@code chatai.hedging.hedges{route,model}}: hedges sent (hedge rate: hedges / calls)
+ * - {@code chatai.hedging.wins{route,model}}: hedges answering first (win rate: wins / hedges)
+ * - {@code chatai.hedging.skipped{route,model}}: hedges not sent for lack of budget
+ * - {@code chatai.hedging.delay{route,model}}: current hedge delay in milliseconds
+ */
+@Slf4j
+@Component
+public class UpstreamHedging {
+
+  /** Budget units of one hedge; a call saves budgetPercent * 100 units */
+  private static final long HEDGE_COST = 10_000;
+
+  private final HedgingProperties properties;
+  private final MeterRegistry meterRegistry;
+  /** Recent latencies, keyed by route and model */
+  private final Map<List<String>, LatencyReservoir> latencies = new ConcurrentHashMap<>();
+  private final AtomicLong budget = new AtomicLong();
+
+  public UpstreamHedging(HedgingProperties properties, MeterRegistry meterRegistry) {
+    this.properties = properties;
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Hedges a call.
+   *
+   * @param route the upstream route, one of the {@link UpstreamHttpClient} constants
+   * @param model the model called
+   * @param call supplier of the call, invoked once per attempt sent
+   * @param <T> type of the result
+   * @return the first answer
+   */
+  public <T> Mono<T> hedge(String route, String model, Supplier<Mono<T>> call) {
+    if (!properties.isEnabled()) {
+      return call.get();
+    }
+    LatencyReservoir reservoir = reservoir(route, model);
+    Tags tags = Tags.of("route", route, "model", model);
+    meterRegistry.counter("chatai.hedging.calls", tags).increment();
+    save();
+    Mono<T> primary = timed(reservoir, call.get(), true);
+    Duration delay = delay(reservoir);
+    if (delay == null) {
+      return primary;
+    }
+    AtomicBoolean answered = new AtomicBoolean();
+    Mono<T> hedge = Mono.delay(delay)
+            .flatMap(tick -> {
+              if (!spend()) {
+                meterRegistry.counter("chatai.hedging.skipped", tags).increment();
+                return Mono.<T>never();
+              }
+              meterRegistry.counter("chatai.hedging.hedges", tags).increment();
+              log.debug("Hedging {} on {} after {}ms", route, model, delay.toMillis());
+              return timed(reservoir, call.get(), false)
+                      .doOnNext(value -> {
+                        if (answered.compareAndSet(false, true)) {
+                          meterRegistry.counter("chatai.hedging.wins", tags).increment();
+                        }
+                      })
+                      .onErrorResume(e -> {
+                        log.debug("Hedge of {} failed : {}", route, e.toString());
+                        return Mono.never();
+                      });
+            });
+    return Mono.firstWithSignal(primary.doOnNext(value -> answered.compareAndSet(false, true)), hedge);
+  }
+
+  private Duration delay(LatencyReservoir reservoir) {
+    long percentile = reservoir.getPercentileNanos();
+    if (percentile < 0) {
+      return null;
+    }
+    long nanos = Math.min(Math.max(percentile, properties.getMinDelay().toNanos()),
+            properties.getMaxDelay().toNanos());
+    return Duration.ofNanos(nanos);
+  }
+
+  /**
+   * Records the latency of a call.
+   *
+   * Failures say nothing of the latency and are not recorded. A cancelled primary took at least
+   * the time elapsed until its cancel, so that time is recorded as a lower bound: leaving out the
+   * slow primaries beaten by their hedge would bias the percentile, and so the delay, downwards.
+   *
+   * @param reservoir the latencies of the route and model
+   * @param call the call
+   * @param recordCancel whether a cancelled call is recorded
+   * @param <T> type of the result
+   * @return the timed call
+   */
+  private static <T> Mono<T> timed(LatencyReservoir reservoir, Mono<T> call, boolean recordCancel) {
+    return Mono.defer(() -> {
+      long start = System.nanoTime();
+      AtomicBoolean done = new AtomicBoolean();
+      Mono<T> timed = call.doOnNext(value -> {
+        if (done.compareAndSet(false, true)) {
+          reservoir.record(System.nanoTime() - start);
+        }
+      });
+      if (!recordCancel) {
+        return timed;
+      }
+      return timed
+              .doOnError(e -> done.set(true))
+              .doOnCancel(() -> {
+                if (done.compareAndSet(false, true)) {
+                  reservoir.record(System.nanoTime() - start);
+                }
+              });
+    });
+  }
+
+  private void save() {
+    long saving = Math.round(properties.getBudgetPercent() * 100);
+    long cap = properties.getMaxBurst() * HEDGE_COST;
+    budget.getAndUpdate(current -> Math.min(cap, current + saving));
+  }
+
+  private boolean spend() {
+    long current;
+    do {
+      current = budget.get();
+      if (current < HEDGE_COST) {
+        return false;
+      }
+    } while (!budget.compareAndSet(current, current - HEDGE_COST));
+    return true;
+  }
+
+  private LatencyReservoir reservoir(String route, String model) {
+    return latencies.computeIfAbsent(List.of(route, model), key -> {
+      LatencyReservoir reservoir = new LatencyReservoir(properties.getPercentile(),
+              properties.getWindowSize(), properties.getMinSamples());
+      meterRegistry.gauge("chatai.hedging.delay", Tags.of("route", route, "model", model), reservoir, res -> {
+        Duration delay = delay(res);
+        return delay == null ? 0 : delay.toMillis();
+      });
+      return reservoir;
+    });
+  }
+}
@@ -0,0 +1,138 @@
+package fr.fgroup.chatai.clients;
+
+import fr.fgroup.chatai.configs.UpstreamClientProperties;
+import fr.fgroup.chatai.utils.VirtualThreads;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UpstreamHttpClient - Single, pooled HTTP client used for every call to OpenAI.
+ *
+ * Building an {@link OkHttpClient} per request creates a new connection pool and dispatcher
+ * each time, so every request pays for a TCP connect and a TLS handshake. This component
+ * owns one client for the whole application:
+ * - one {@link ConnectionPool} sized from {@link UpstreamClientProperties}
+ * - one {@link Dispatcher} bounding concurrent calls
+ * - HTTP/2 negotiated when available, so concurrent calls share a connection
+ *
+ * Per-route clients returned by {@link #forRoute(String)} are derived with
+ * {@link OkHttpClient#newBuilder()}; they only differ by their timeouts and share the pool,
+ * dispatcher and event listener of the base client.
+ *
+ * Pool usage is published as Micrometer gauges ({@code chatai.upstream.pool.*}) next to the
+ * connection counters of {@link UpstreamConnectionMetrics}.
+ */
+@Slf4j
+@Component
+public class UpstreamHttpClient {
+
+  /** Route of the chat completion endpoint ({@code POST /chat/completions}) */
+  public static final String CHAT_COMPLETIONS = "chat-completions";
+
+  /** Route of the streamed chat completion endpoint ({@code POST /chat/completions, stream: true}) */
+  public static final String CHAT_COMPLETIONS_STREAM = "chat-completions-stream";
+
+  /** Route of the embedding endpoint ({@code POST /embeddings}) */
+  public static final String EMBEDDINGS = "embeddings";
+
+  private final UpstreamClientProperties properties;
+  private final ConnectionPool connectionPool;
+  private final Dispatcher dispatcher;
+  private final OkHttpClient client;
+  private final Map<String, OkHttpClient> routeClients = new ConcurrentHashMap<>();
+
+  public UpstreamHttpClient(UpstreamClientProperties properties, MeterRegistry meterRegistry,
+                            @Value("${chatai.virtual-threads.enabled:false}") boolean virtualThreads) {
+    this.properties = properties;
+    this.connectionPool = new ConnectionPool(properties.getMaxIdleConnections(),
+            properties.getKeepAlive().toMillis(), TimeUnit.MILLISECONDS);
+    // In virtual-thread mode each call blocks its own virtual thread instead of a pooled one
+    this.dispatcher = virtualThreads
+            ? new Dispatcher(VirtualThreads.newVirtualThreadPerTaskExecutor("okhttp-virtual-"))
+            : new Dispatcher();
+    this.dispatcher.setMaxRequests(properties.getMaxRequests());
+    this.dispatcher.setMaxRequestsPerHost(properties.getMaxRequestsPerHost());
+
+    this.client = new OkHttpClient.Builder()
+            .connectionPool(connectionPool)
+            .dispatcher(dispatcher)
+            .protocols(properties.isHttp2()
+                    ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                    : List.of(Protocol.HTTP_1_1))
+            .connectTimeout(properties.getConnectTimeout())
+            .writeTimeout(properties.getWriteTimeout())
+            .readTimeout(properties.getReadTimeout())
+            .eventListener(new UpstreamConnectionMetrics(meterRegistry))
+            .build();
+
+    Gauge.builder("chatai.upstream.pool.connections", connectionPool, ConnectionPool::idleConnectionCount)
+            .tag("state", "idle")
+            .register(meterRegistry);
+    Gauge.builder("chatai.upstream.pool.connections", connectionPool,
+                    pool -> (double) pool.connectionCount() - pool.idleConnectionCount())
+            .tag("state", "active")
+            .register(meterRegistry);
+    Gauge.builder("chatai.upstream.calls", dispatcher, Dispatcher::runningCallsCount)
+            .tag("state", "running")
+            .register(meterRegistry);
+    Gauge.builder("chatai.upstream.calls", dispatcher, Dispatcher::queuedCallsCount)
+            .tag("state", "queued")
+            .register(meterRegistry);
+  }
+
+  /**
+   * Returns the client to use for the given route.
+   *
+   * Routes without overrides get the base client. Derived clients are cached, so the
+   * builder only runs once per route.
+   *
+   * @param route the route name (see the constants of this class)
+   * @return an OkHttpClient sharing the application wide pool and dispatcher
+   */
+  public OkHttpClient forRoute(String route) {
+    UpstreamClientProperties.RouteTimeouts timeouts = properties.getRoutes().get(route);
+    if (timeouts == null) {
+      return client;
+    }
+    return routeClients.computeIfAbsent(route, r -> {
+      OkHttpClient.Builder builder = client.newBuilder();
+      if (timeouts.getConnectTimeout() != null) {
+        builder.connectTimeout(timeouts.getConnectTimeout());
+      }
+      if (timeouts.getWriteTimeout() != null) {
+        builder.writeTimeout(timeouts.getWriteTimeout());
+      }
+      if (timeouts.getReadTimeout() != null) {
+        builder.readTimeout(timeouts.getReadTimeout());
+      }
+      if (timeouts.getCallTimeout() != null) {
+        builder.callTimeout(timeouts.getCallTimeout());
+      }
+      log.info("Upstream route '{}' configured with timeouts {}", r, timeouts);
+      return builder.build();
+    });
+  }
+
+  /**
+   * Releases the pooled connections and the dispatcher threads on shutdown.
+   */
+  @PreDestroy
+  public void shutdown() {
+    dispatcher.executorService().shutdown();
+    connectionPool.evictAll();
+  }
+
+}
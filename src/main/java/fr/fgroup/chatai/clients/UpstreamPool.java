@@ -0,0 +1,224 @@
+package fr.fgroup.chatai.clients;
+
+import fr.fgroup.chatai.configs.UpstreamPoolProperties;
+import fr.fgroup.chatai.configs.UpstreamResilienceProperties;
+import fr.fgroup.chatai.exceptions.UpstreamUnavailableException;
+import fr.fgroup.chatai.utils.CircuitBreaker;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * UpstreamPool - Upstream targets (API keys and endpoints) the calls to OpenAI are spread over.
+ *
+ * Targets are declared under {@code openai.pool.targets}: OpenAI keys, Azure OpenAI
+ * resources or OpenAI-compatible servers. Without any, the pool holds the single target of
+ * {@code openai.url} and {@code openai.api-key}.
+ *
+ * Each call goes to the least loaded target able to take it (see {@link UpstreamTarget#load}):
+ * the one with the fewest calls in flight relative to its latency, weight and remaining
+ * rate limit. Targets cooling down after a 429, at their concurrency limit or with an open
+ * circuit are skipped, so with several keys the throughput grows with the number of keys
+ * instead of stopping at the rate limit of one. Each attempt of a retried call picks its
+ * target again, so a failing target is routed around.
+ *
+ * Metrics, tagged by {@code target}:
+ * - {@code chatai.upstream.target.calls{outcome}}
+ * - {@code chatai.upstream.target.in-flight}
+ * - {@code chatai.upstream.target.latency}: moving average of the time to the response headers, in ms
+ * - {@code chatai.upstream.target.remaining-requests} and {@code remaining-tokens}: last reported by the key
+ */
+@Slf4j
+@Component
+public class UpstreamPool {
+
+  private final List<UpstreamTarget> targets = new ArrayList<>();
+  private final Duration rateLimitCooldown;
+  private final MeterRegistry meterRegistry;
+
+  public UpstreamPool(@Value("${openai.api-key}") String apiKey,
+                      @Value("${openai.url}") String openaiBaseUrl,
+                      UpstreamPoolProperties properties,
+                      UpstreamResilienceProperties resilienceProperties,
+                      MeterRegistry meterRegistry) {
+    this.rateLimitCooldown = properties.getRateLimitCooldown();
+    this.meterRegistry = meterRegistry;
+    List<UpstreamPoolProperties.Target> settings = properties.getTargets();
+    if (settings.isEmpty()) {
+      UpstreamPoolProperties.Target target = new UpstreamPoolProperties.Target();
+      target.setUrl(openaiBaseUrl);
+      target.setApiKey(apiKey);
+      settings = List.of(target);
+    }
+    for (int i = 0; i < settings.size(); i++) {
+      UpstreamPoolProperties.Target target = settings.get(i);
+      if (target.getName() == null) {
+        target.setName("target-" + i);
+      }
+      UpstreamTarget upstreamTarget = new UpstreamTarget(target, breaker(resilienceProperties.getCircuitBreaker()),
+              properties.getLatencySmoothing(), rateLimitCooldown);
+      register(upstreamTarget);
+      targets.add(upstreamTarget);
+    }
+    log.info("Upstream pool of {} target(s) : {}", targets.size(),
+            targets.stream().map(UpstreamTarget::getName).collect(Collectors.toList()));
+  }
+
+  /**
+   * Sends a call to the least loaded target serving the model.
+   *
+   * @param model the model
+   * @param call the call to a target, subscribed once
+   * @param <T> type of the result
+   * @return the call, failing with {@link UpstreamUnavailableException} if no target can take it
+   */
+  public <T> Mono<T> call(String model, Function<UpstreamTarget, Mono<T>> call) {
+    return Mono.defer(() -> {
+      UpstreamTarget target;
+      try {
+        target = acquire(model);
+      } catch (UpstreamUnavailableException e) {
+        return Mono.error(e);
+      }
+      AtomicReference<Throwable> failure = new AtomicReference<>();
+      return call.apply(target)
+              .doOnError(failure::set)
+              .doFinally(signal -> release(target, signal == SignalType.CANCEL ? UpstreamResilience.Outcome.IGNORED
+                      : signal == SignalType.ON_ERROR ? UpstreamResilience.classify(failure.get())
+                      : UpstreamResilience.Outcome.SUCCESS));
+    });
+  }
+
+  /**
+   * Takes a call slot on the least loaded target serving the model.
+   * The slot is given back by the callback returned by {@link #guard}, or by {@link #abandon}.
+   *
+   * @param model the model
+   * @return the target
+   * @throws UpstreamUnavailableException if no target can take the call
+   */
+  public UpstreamTarget acquire(String model) {
+    long now = System.nanoTime();
+    List<UpstreamTarget> candidates = new ArrayList<>(targets.size());
+    double latencies = 0;
+    int known = 0;
+    for (UpstreamTarget target : targets) {
+      if (target.serves(model)) {
+        candidates.add(target);
+        if (target.getLatencyMillis() >= 0) {
+          latencies += target.getLatencyMillis();
+          known++;
+        }
+      }
+    }
+    if (candidates.isEmpty()) {
+      throw new UpstreamUnavailableException("No upstream target serves model " + model, rateLimitCooldown);
+    }
+    // Targets without latency yet are assumed average, so that they get their share right away
+    double defaultLatency = known == 0 ? 1 : latencies / known;
+    candidates.sort(Comparator.comparingDouble(target -> target.load(defaultLatency)));
+    Duration retryAfter = null;
+    for (UpstreamTarget target : candidates) {
+      if (target.tryAcquire(now)) {
+        return target;
+      }
+      Duration unavailableFor = target.unavailableFor(now);
+      if (retryAfter == null || unavailableFor.compareTo(retryAfter) < 0) {
+        retryAfter = unavailableFor;
+      }
+    }
+    meterRegistry.counter("chatai.upstream.target.exhausted").increment();
+    throw new UpstreamUnavailableException("No upstream target available for model " + model,
+            retryAfter.isZero() ? rateLimitCooldown : retryAfter);
+  }
+
+  /**
+   * Wraps the callback of a streamed call sent to a target taken with {@link #acquire}:
+   * the response headers feed the target's state and the slot is given back once the
+   * callback returns.
+   *
+   * @param target the target
+   * @param callback the callback relaying the stream
+   * @return the callback to enqueue
+   */
+  public Callback guard(UpstreamTarget target, Callback callback) {
+    long start = System.nanoTime();
+    return new Callback() {
+      @Override
+      public void onFailure(Call call, IOException e) {
+        try {
+          callback.onFailure(call, e);
+        } finally {
+          release(target, call.isCanceled() ? UpstreamResilience.Outcome.IGNORED : UpstreamResilience.Outcome.FAILURE);
+        }
+      }
+
+      @Override
+      public void onResponse(Call call, Response response) throws IOException {
+        int code = response.code();
+        target.observe(code, response::header, System.nanoTime() - start);
+        try {
+          callback.onResponse(call, response);
+        } finally {
+          release(target, code == 429 || code >= 500
+                  ? UpstreamResilience.Outcome.FAILURE : UpstreamResilience.Outcome.SUCCESS);
+        }
+      }
+    };
+  }
+
+  /**
+   * Gives back the slot of a target whose call was finally not sent.
+   *
+   * @param target the target
+   */
+  public void abandon(UpstreamTarget target) {
+    target.release(UpstreamResilience.Outcome.IGNORED);
+  }
+
+  private void release(UpstreamTarget target, UpstreamResilience.Outcome outcome) {
+    target.release(outcome);
+    meterRegistry.counter("chatai.upstream.target.calls", "target", target.getName(),
+            "outcome", outcome.name().toLowerCase(Locale.ROOT)).increment();
+  }
+
+  private void register(UpstreamTarget target) {
+    Gauge.builder("chatai.upstream.target.in-flight", target, t -> t.getInFlight().get())
+            .tag("target", target.getName())
+            .register(meterRegistry);
+    Gauge.builder("chatai.upstream.target.latency", target, t -> Math.max(0, t.getLatencyMillis()))
+            .tag("target", target.getName())
+            .register(meterRegistry);
+    Gauge.builder("chatai.upstream.target.remaining-requests", target, UpstreamTarget::getRemainingRequests)
+            .tag("target", target.getName())
+            .register(meterRegistry);
+    Gauge.builder("chatai.upstream.target.remaining-tokens", target, UpstreamTarget::getRemainingTokens)
+            .tag("target", target.getName())
+            .register(meterRegistry);
+  }
+
+  private static CircuitBreaker breaker(UpstreamResilienceProperties.CircuitBreaker settings) {
+    if (!settings.isEnabled()) {
+      return null;
+    }
+    return new CircuitBreaker(settings.getFailureRateThreshold(), settings.getSlidingWindowSize(),
+            settings.getMinimumCalls(), settings.getOpenDuration(), settings.getHalfOpenCalls());
+  }
+}
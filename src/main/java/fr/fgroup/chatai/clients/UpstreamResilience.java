@@ -0,0 +1,255 @@
+package fr.fgroup.chatai.clients;
+
+import fr.fgroup.chatai.configs.UpstreamResilienceProperties;
+import fr.fgroup.chatai.exceptions.UpstreamUnavailableException;
+import fr.fgroup.chatai.utils.CircuitBreaker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.util.retry.Retry;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * UpstreamResilience - Retries, circuit breakers and bulkhead of the calls to OpenAI.
+ *
+ * Every attempt of an upstream call goes through:
+ * 1. The bulkhead: at most {@code openai.resilience.bulkhead.max-concurrent-calls} calls in
+ *    flight, further calls are refused at once instead of queueing behind the pool
+ * 2. The circuit breaker of its route: while the upstream is failing, calls are refused at
+ *    once instead of waiting out their timeouts
+ * 3. The call itself; I/O errors, 429 and 5xx answers are retried with an exponential,
+ *    jittered backoff, waiting at least the {@code Retry-After} of the answer
+ *
+ * Refused calls fail with {@link UpstreamUnavailableException}. Client errors (4xx other
+ * than 429) and cancellations are neither retried nor counted as failures.
+ *
+ * Metrics:
+ * - {@code chatai.upstream.circuit.state{route}}: 0 closed, 1 open, 2 half-open
+ * - {@code chatai.upstream.retries{route}}
+ * - {@code chatai.upstream.rejected{route,reason=circuit-open|bulkhead-full}}
+ * - {@code chatai.upstream.in-flight}
+ */
+@Slf4j
+@Component
+public class UpstreamResilience {
+
+  /** Delay suggested to callers refused by the bulkhead */
+  private static final Duration BULKHEAD_RETRY_AFTER = Duration.ofSeconds(1);
+
+  /** Outcome of an upstream call, as seen by the circuit breakers */
+  enum Outcome { SUCCESS, FAILURE, IGNORED }
+
+  private final UpstreamResilienceProperties properties;
+  private final MeterRegistry meterRegistry;
+  private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  public UpstreamResilience(UpstreamResilienceProperties properties, MeterRegistry meterRegistry) {
+    this.properties = properties;
+    this.meterRegistry = meterRegistry;
+    meterRegistry.gauge("chatai.upstream.in-flight", inFlight);
+  }
+
+  /**
+   * Protects a call made through the reactive client.
+   *
+   * @param route the upstream route, one of the {@link UpstreamHttpClient} constants
+   * @param call the call, subscribed once per attempt
+   * @param <T> type of the result
+   * @return the protected call
+   */
+  public <T> Mono<T> protect(String route, Mono<T> call) {
+    Mono<T> attempt = Mono.defer(() -> attempt(route, call));
+    if (properties.getRetry().getMaxAttempts() <= 1) {
+      return attempt;
+    }
+    return attempt.retryWhen(Retry.from(signals -> signals.concatMap(signal -> retryDelay(route, signal))));
+  }
+
+  /**
+   * Protects a streamed call made through OkHttp. The stream is not retried: its fragments
+   * may already have been relayed to the client.
+   *
+   * @param route the upstream route
+   * @param callback the callback relaying the stream
+   * @return the callback to enqueue, recording the outcome and freeing the bulkhead slot once done
+   * @throws UpstreamUnavailableException if the call is refused
+   */
+  public Callback guard(String route, Callback callback) {
+    CircuitBreaker breaker = acquire(route);
+    return new Callback() {
+      @Override
+      public void onFailure(Call call, IOException e) {
+        try {
+          callback.onFailure(call, e);
+        } finally {
+          release(breaker, call.isCanceled() ? Outcome.IGNORED : Outcome.FAILURE);
+        }
+      }
+
+      @Override
+      public void onResponse(Call call, Response response) throws IOException {
+        int code = response.code();
+        try {
+          callback.onResponse(call, response);
+        } finally {
+          release(breaker, code == 429 || code >= 500 ? Outcome.FAILURE : Outcome.SUCCESS);
+        }
+      }
+    };
+  }
+
+  private <T> Mono<T> attempt(String route, Mono<T> call) {
+    CircuitBreaker breaker;
+    try {
+      breaker = acquire(route);
+    } catch (UpstreamUnavailableException e) {
+      return Mono.error(e);
+    }
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    return call
+            .doOnError(failure::set)
+            .doFinally(signal -> release(breaker, signal == SignalType.CANCEL ? Outcome.IGNORED
+                    : signal == SignalType.ON_ERROR ? classify(failure.get()) : Outcome.SUCCESS));
+  }
+
+  /**
+   * Takes a bulkhead slot and the permission of the route's circuit breaker.
+   *
+   * @return the circuit breaker of the route, null if disabled
+   * @throws UpstreamUnavailableException if the call is refused
+   */
+  private CircuitBreaker acquire(String route) {
+    int maxConcurrentCalls = properties.getBulkhead().getMaxConcurrentCalls();
+    if (inFlight.incrementAndGet() > maxConcurrentCalls && maxConcurrentCalls > 0) {
+      inFlight.decrementAndGet();
+      meterRegistry.counter("chatai.upstream.rejected", "route", route, "reason", "bulkhead-full").increment();
+      throw new UpstreamUnavailableException("Too many upstream calls in flight", BULKHEAD_RETRY_AFTER);
+    }
+    CircuitBreaker breaker = breaker(route);
+    if (breaker != null && !breaker.tryAcquirePermission()) {
+      inFlight.decrementAndGet();
+      meterRegistry.counter("chatai.upstream.rejected", "route", route, "reason", "circuit-open").increment();
+      throw new UpstreamUnavailableException("Upstream route " + route + " is unavailable",
+              breaker.getRemainingOpenTime());
+    }
+    return breaker;
+  }
+
+  private void release(CircuitBreaker breaker, Outcome outcome) {
+    inFlight.decrementAndGet();
+    if (breaker == null) {
+      return;
+    }
+    switch (outcome) {
+      case SUCCESS:
+        breaker.onSuccess();
+        break;
+      case FAILURE:
+        breaker.onFailure();
+        break;
+      default:
+        breaker.onIgnored();
+    }
+  }
+
+  private Mono<Long> retryDelay(String route, Retry.RetrySignal signal) {
+    Throwable failure = signal.failure();
+    long retries = signal.totalRetries();
+    UpstreamResilienceProperties.Retry retry = properties.getRetry();
+    if (retries + 1 >= retry.getMaxAttempts() || !isRetryable(failure)) {
+      return Mono.error(failure);
+    }
+    Duration delay = backoff(retries);
+    Duration retryAfter = retryAfter(failure);
+    if (retryAfter != null) {
+      if (retryAfter.compareTo(retry.getMaxRetryAfter()) > 0) {
+        return Mono.error(failure);
+      }
+      if (retryAfter.compareTo(delay) > 0) {
+        delay = retryAfter;
+      }
+    }
+    meterRegistry.counter("chatai.upstream.retries", "route", route).increment();
+    log.debug("Retrying {} in {}ms after : {}", route, delay.toMillis(), failure.toString());
+    return Mono.delay(delay);
+  }
+
+  private Duration backoff(long retries) {
+    UpstreamResilienceProperties.Retry retry = properties.getRetry();
+    long backoff = Math.min(retry.getMaxBackoff().toMillis(),
+            retry.getInitialBackoff().toMillis() << Math.min(retries, 20));
+    double jitter = Math.min(Math.max(retry.getJitter(), 0), 1);
+    return Duration.ofMillis((long) (backoff * (1 - jitter * ThreadLocalRandom.current().nextDouble())));
+  }
+
+  private CircuitBreaker breaker(String route) {
+    UpstreamResilienceProperties.CircuitBreaker settings = properties.getCircuitBreaker();
+    if (!settings.isEnabled()) {
+      return null;
+    }
+    return breakers.computeIfAbsent(route, r -> {
+      CircuitBreaker breaker = new CircuitBreaker(settings.getFailureRateThreshold(),
+              settings.getSlidingWindowSize(), settings.getMinimumCalls(), settings.getOpenDuration(),
+              settings.getHalfOpenCalls());
+      meterRegistry.gauge("chatai.upstream.circuit.state", Tags.of("route", r), breaker,
+              b -> b.getState().ordinal());
+      return breaker;
+    });
+  }
+
+  static Outcome classify(Throwable failure) {
+    if (failure instanceof WebClientResponseException) {
+      int status = ((WebClientResponseException) failure).getRawStatusCode();
+      return status == 429 || status >= 500 ? Outcome.FAILURE : Outcome.SUCCESS;
+    }
+    if (failure instanceof WebClientRequestException || failure instanceof TimeoutException
+            || failure instanceof IOException) {
+      return Outcome.FAILURE;
+    }
+    // Unparsable answers and refused calls say nothing about the upstream health
+    return Outcome.IGNORED;
+  }
+
+  private static boolean isRetryable(Throwable failure) {
+    if (failure instanceof WebClientResponseException) {
+      int status = ((WebClientResponseException) failure).getRawStatusCode();
+      return status == 429 || status >= 500;
+    }
+    // The call timeout bounds the whole call: retrying it would exceed the bound
+    return failure instanceof WebClientRequestException;
+  }
+
+  private static Duration retryAfter(Throwable failure) {
+    if (!(failure instanceof WebClientResponseException)) {
+      return null;
+    }
+    String value = ((WebClientResponseException) failure).getHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+    if (value == null) {
+      return null;
+    }
+    try {
+      return Duration.ofSeconds(Long.parseLong(value.trim()));
+    } catch (NumberFormatException e) {
+      // HTTP-date form, not used by OpenAI
+      return null;
+    }
+  }
+}
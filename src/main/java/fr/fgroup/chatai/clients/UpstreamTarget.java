@@ -0,0 +1,284 @@
+package fr.fgroup.chatai.clients;
+
+import fr.fgroup.chatai.configs.UpstreamPoolProperties;
+import fr.fgroup.chatai.utils.CircuitBreaker;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * UpstreamTarget - One upstream of the pool (an API key on an endpoint) and its live state.
+ *
+ * The state is fed by the calls made to the target:
+ * - calls in flight, bounded by {@code max-concurrent-calls}
+ * - moving average of the time to the response headers
+ * - remaining requests and tokens of the key, read from the {@code x-ratelimit-*} headers
+ * - a circuit breaker, and a cooldown after a 429 or once the key has no request left
+ */
+public class UpstreamTarget {
+
+  private static final String AZURE = "azure";
+
+  /** Go-style durations of the rate-limit reset headers, e.g. 20ms, 1s, 6m0s */
+  private static final Pattern DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|h|m|s)");
+
+  /** Headroom under which a nearly exhausted key stops getting proportionally less traffic */
+  private static final double MIN_HEADROOM = 0.05;
+
+  @Getter
+  private final String name;
+  private final boolean azure;
+  private final String baseUrl;
+  private final String apiKey;
+  private final Set<String> models;
+  private final Map<String, String> deployments;
+  private final String apiVersion;
+  private final double weight;
+  private final int maxConcurrentCalls;
+  private final CircuitBreaker breaker;
+  private final double latencySmoothing;
+  private final Duration rateLimitCooldown;
+
+  @Getter
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  /** Moving average of the time to the response headers in milliseconds, -1 until known */
+  @Getter
+  private volatile double latencyMillis = -1;
+
+  /** Rate-limit state of the key, -1 until reported */
+  @Getter
+  private volatile long remainingRequests = -1;
+  private volatile long limitRequests = -1;
+  @Getter
+  private volatile long remainingTokens = -1;
+  private volatile long limitTokens = -1;
+
+  /** System.nanoTime() until which the target is left aside */
+  private volatile long blockedUntil = System.nanoTime();
+
+  /**
+   * @param settings the configured target
+   * @param breaker circuit breaker of the target, null if disabled
+   * @param latencySmoothing weight of the last call in the latency average
+   * @param rateLimitCooldown time the target is left aside after a 429 without reset hint
+   */
+  public UpstreamTarget(UpstreamPoolProperties.Target settings, CircuitBreaker breaker, double latencySmoothing,
+                        Duration rateLimitCooldown) {
+    this.name = settings.getName();
+    this.azure = AZURE.equalsIgnoreCase(settings.getType());
+    this.baseUrl = settings.getUrl().endsWith("/")
+            ? settings.getUrl().substring(0, settings.getUrl().length() - 1)
+            : settings.getUrl();
+    this.apiKey = settings.getApiKey();
+    this.models = new HashSet<>(settings.getModels());
+    this.deployments = new HashMap<>(settings.getDeployments());
+    this.apiVersion = settings.getApiVersion();
+    this.weight = settings.getWeight() > 0 ? settings.getWeight() : 1;
+    this.maxConcurrentCalls = settings.getMaxConcurrentCalls();
+    this.breaker = breaker;
+    this.latencySmoothing = latencySmoothing;
+    this.rateLimitCooldown = rateLimitCooldown;
+  }
+
+  /**
+   * @param model the model
+   * @return true if the target serves the model
+   */
+  public boolean serves(String model) {
+    return azure ? deployments.containsKey(model) : models.isEmpty() || models.contains(model);
+  }
+
+  /**
+   * Builds the URI of an API path for a model: OpenAI-style paths for openai targets,
+   * deployment paths for azure targets.
+   *
+   * @param model the model
+   * @param path the OpenAI API path, e.g. /chat/completions
+   * @return the absolute URI
+   */
+  public String uri(String model, String path) {
+    if (azure) {
+      return baseUrl + "/openai/deployments/" + deployments.get(model) + path + "?api-version=" + apiVersion;
+    }
+    return baseUrl + path;
+  }
+
+  /**
+   * @return the name of the header holding the key
+   */
+  public String getAuthHeaderName() {
+    return azure ? "api-key" : "Authorization";
+  }
+
+  /**
+   * @return the value of the header holding the key
+   */
+  public String getAuthHeaderValue() {
+    return azure ? apiKey : "Bearer " + apiKey;
+  }
+
+  /**
+   * Load of the target, lower is better: calls in flight times latency, divided by the
+   * weight and by the headroom left by the rate limits of the key.
+   *
+   * @param defaultLatency latency assumed while the target's is unknown
+   * @return the load
+   */
+  public double load(double defaultLatency) {
+    double latency = latencyMillis < 0 ? defaultLatency : latencyMillis;
+    double headroom = Math.min(headroom(remainingRequests, limitRequests), headroom(remainingTokens, limitTokens));
+    return (inFlight.get() + 1) * Math.max(latency, 1) / weight / Math.max(headroom, MIN_HEADROOM);
+  }
+
+  /**
+   * @param now System.nanoTime()
+   * @return the time left before the target can be called, zero if it can be called now
+   */
+  public Duration unavailableFor(long now) {
+    long blocked = Math.max(0, blockedUntil - now);
+    Duration open = breaker == null ? Duration.ZERO : breaker.getRemainingOpenTime();
+    return Duration.ofNanos(Math.max(blocked, open.toNanos()));
+  }
+
+  /**
+   * Takes a call slot: the target must not be cooling down, have room for another call
+   * and its circuit must let the call through.
+   *
+   * @param now System.nanoTime()
+   * @return true if the call may be sent, to be followed by {@link #release}
+   */
+  boolean tryAcquire(long now) {
+    if (blockedUntil - now > 0) {
+      return false;
+    }
+    int current;
+    do {
+      current = inFlight.get();
+      if (maxConcurrentCalls > 0 && current >= maxConcurrentCalls) {
+        return false;
+      }
+    } while (!inFlight.compareAndSet(current, current + 1));
+    if (breaker != null && !breaker.tryAcquirePermission()) {
+      inFlight.decrementAndGet();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Gives the call slot back, recording the outcome of the call.
+   *
+   * @param outcome the outcome
+   */
+  void release(UpstreamResilience.Outcome outcome) {
+    inFlight.decrementAndGet();
+    if (breaker == null) {
+      return;
+    }
+    switch (outcome) {
+      case SUCCESS:
+        breaker.onSuccess();
+        break;
+      case FAILURE:
+        breaker.onFailure();
+        break;
+      default:
+        breaker.onIgnored();
+    }
+  }
+
+  /**
+   * Reads the response headers of a call.
+   *
+   * @param status the HTTP status
+   * @param header lookup of a response header by name
+   * @param elapsedNanos time from the call to the response headers
+   */
+  void observe(int status, Function<String, String> header, long elapsedNanos) {
+    Long remaining = parseLong(header.apply("x-ratelimit-remaining-requests"));
+    Long limit = parseLong(header.apply("x-ratelimit-limit-requests"));
+    Long tokens = parseLong(header.apply("x-ratelimit-remaining-tokens"));
+    Long tokenLimit = parseLong(header.apply("x-ratelimit-limit-tokens"));
+    if (remaining != null) {
+      remainingRequests = remaining;
+    }
+    if (limit != null) {
+      limitRequests = limit;
+    }
+    if (tokens != null) {
+      remainingTokens = tokens;
+    }
+    if (tokenLimit != null) {
+      limitTokens = tokenLimit;
+    }
+    if (status == 429 || (remaining != null && remaining == 0)) {
+      Duration cooldown = parseRetryAfter(header.apply("retry-after"));
+      if (cooldown == null) {
+        cooldown = parseDuration(header.apply(status == 429 && tokens != null && tokens == 0
+                ? "x-ratelimit-reset-tokens" : "x-ratelimit-reset-requests"));
+      }
+      blockedUntil = System.nanoTime() + (cooldown != null ? cooldown : rateLimitCooldown).toNanos();
+    }
+    if (status < 300) {
+      double millis = elapsedNanos / 1_000_000.0;
+      double previous = latencyMillis;
+      latencyMillis = previous < 0 ? millis : previous + latencySmoothing * (millis - previous);
+    }
+  }
+
+  private static double headroom(long remaining, long limit) {
+    return remaining < 0 || limit <= 0 ? 1 : (double) remaining / limit;
+  }
+
+  private static Long parseLong(String value) {
+    if (value == null) {
+      return null;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static Duration parseRetryAfter(String value) {
+    Long seconds = parseLong(value);
+    return seconds == null ? null : Duration.ofSeconds(seconds);
+  }
+
+  private static Duration parseDuration(String value) {
+    if (value == null) {
+      return null;
+    }
+    Matcher matcher = DURATION_PART.matcher(value.trim());
+    double millis = 0;
+    boolean found = false;
+    while (matcher.find()) {
+      found = true;
+      double amount = Double.parseDouble(matcher.group(1));
+      switch (matcher.group(2)) {
+        case "h":
+          millis += amount * 3_600_000;
+          break;
+        case "m":
+          millis += amount * 60_000;
+          break;
+        case "s":
+          millis += amount * 1_000;
+          break;
+        default:
+          millis += amount;
+      }
+    }
+    return found ? Duration.ofMillis((long) Math.ceil(millis)) : null;
+  }
+}
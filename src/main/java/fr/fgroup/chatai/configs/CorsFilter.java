@@ -33,7 +33,8 @@ public class CorsFilter implements Filter {
             request.getHeader("Origin"), request.getRequestURI(), request.getRemoteAddr());
     resp.addHeader("Access-Control-Allow-Origin", request.getHeader("origin"));
     resp.addHeader("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS, HEAD");
-    resp.addHeader("Access-Control-Allow-Headers", "Origin, X-Requested-With, Content-Type, Accept, Authorization");
+    resp.addHeader("Access-Control-Allow-Headers", "Origin, X-Requested-With, Content-Type, Accept, Authorization, Cache-Control, X-Model-Tier, X-Request-Timeout");
+    resp.addHeader("Access-Control-Expose-Headers", "X-Conversation-Id, X-Context-Tokens-Saved, Retry-After");
     resp.addHeader("Access-Control-Allow-Credentials", "true");
 
     // Just ACCEPT and REPLY OK if OPTIONS
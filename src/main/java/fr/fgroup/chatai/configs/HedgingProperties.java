@@ -0,0 +1,42 @@
+package fr.fgroup.chatai.configs;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * HedgingProperties - Settings of the hedged calls to OpenAI.
+ *
+ * Bound from the {@code openai.hedging} section of the application configuration and
+ * applied by {@link fr.fgroup.chatai.clients.UpstreamHedging}.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "openai.hedging")
+public class HedgingProperties {
+
+  private boolean enabled = false;
+
+  /** Latency percentile, among the recent calls, after which a hedge is sent */
+  private double percentile = 95;
+
+  /** Lower bound of the hedge delay */
+  private Duration minDelay = Duration.ofMillis(500);
+
+  /** Upper bound of the hedge delay */
+  private Duration maxDelay = Duration.ofSeconds(20);
+
+  /** Number of recent latencies the percentile is computed on */
+  private int windowSize = 1000;
+
+  /** Latencies needed before the first hedge; no call is hedged until then */
+  private int minSamples = 100;
+
+  /** Hedges sent, in percent of the calls: the extra upstream traffic never exceeds it */
+  private double budgetPercent = 5;
+
+  /** Hedges that may be sent in a row when the budget has been saved up */
+  private int maxBurst = 10;
+}
@@ -0,0 +1,106 @@
+package fr.fgroup.chatai.configs;
+
+import fr.fgroup.chatai.entities.base.AbstractBaseEntity;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.metamodel.EntityType;
+import java.util.Map;
+
+/**
+ * IdSequenceMigration - Moves the entity tables from IDENTITY ids to the sequences of
+ * {@link AbstractBaseEntity}.
+ *
+ * Runs at startup, once Hibernate has updated the schema and before any request is served.
+ * For each entity table it:
+ * - creates the {@code <table>_seq} sequence if Hibernate did not
+ * - moves the sequence past the ids already in the table when it is behind them, which is
+ *   the case of the rows inserted with the former IDENTITY columns
+ * - makes the sequence the default of the {@code id} column, for the inserts written in SQL
+ *   (each of them takes a whole block of ids)
+ *
+ * Each table is migrated under a transaction-scoped advisory lock, so instances starting
+ * together do not move a sequence twice. The migration is idempotent; it can be skipped
+ * with {@code chatai.ids.migrate=false} once every environment is migrated.
+ *
+ * Everything inserting rows depends on this bean ({@code @DependsOn(IdSequenceMigration.BEAN)}:
+ * the DAO services and the services writing in SQL), so no row is inserted before the
+ * sequences are past the existing ids.
+ */
+@Slf4j
+@Component(IdSequenceMigration.BEAN)
+public class IdSequenceMigration {
+
+  /** Name of the bean, for {@code @DependsOn} */
+  public static final String BEAN = "idSequenceMigration";
+
+  private static final String LOCK_SQL = "SELECT pg_advisory_xact_lock(hashtext(?))";
+  private static final String CREATE_SQL = "CREATE SEQUENCE IF NOT EXISTS %s INCREMENT BY %d";
+  private static final String STATE_SQL = "SELECT start_value, last_value, increment_by FROM pg_sequences "
+          + "WHERE schemaname = current_schema() AND sequencename = ?";
+  private static final String MAX_ID_SQL = "SELECT COALESCE(MAX(id), 0) FROM %s";
+  private static final String SETVAL_SQL = "SELECT setval(?, ?, false)";
+  private static final String DEFAULT_SQL = "ALTER TABLE %s ALTER COLUMN id SET DEFAULT nextval('%s')";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final TransactionTemplate transactionTemplate;
+  private final EntityManagerFactory entityManagerFactory;
+  private final boolean enabled;
+
+  /**
+   * @param jdbcTemplate template running the migration
+   * @param transactionManager transaction manager of the migration of each table
+   * @param entityManagerFactory entity manager factory, built (and the schema updated) before the migration
+   * @param enabled whether to migrate; the bean exists either way for the beans depending on it
+   */
+  public IdSequenceMigration(JdbcTemplate jdbcTemplate,
+                             PlatformTransactionManager transactionManager,
+                             EntityManagerFactory entityManagerFactory,
+                             @Value("${chatai.ids.migrate:true}") boolean enabled) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.entityManagerFactory = entityManagerFactory;
+    this.enabled = enabled;
+  }
+
+  /**
+   * Migrates the table of every entity extending {@link AbstractBaseEntity}.
+   */
+  @PostConstruct
+  public void migrate() {
+    if (!enabled) {
+      return;
+    }
+    for (EntityType<?> entity : entityManagerFactory.getMetamodel().getEntities()) {
+      if (AbstractBaseEntity.class.isAssignableFrom(entity.getJavaType())) {
+        // Entities are named after their table (@Entity(name = "log_entity"))
+        String table = entity.getName();
+        String sequence = table + AbstractBaseEntity.ID_SEQUENCE_SUFFIX;
+        transactionTemplate.executeWithoutResult(status -> migrate(table, sequence));
+      }
+    }
+  }
+
+  private void migrate(String table, String sequence) {
+    jdbcTemplate.queryForList(LOCK_SQL, sequence);
+    jdbcTemplate.execute(String.format(CREATE_SQL, sequence, AbstractBaseEntity.ID_ALLOCATION_SIZE));
+    Map<String, Object> state = jdbcTemplate.queryForMap(STATE_SQL, sequence);
+    Number lastValue = (Number) state.get("last_value");
+    // First value of the next block the sequence hands out; last_value is null until the first call
+    long next = lastValue == null
+            ? ((Number) state.get("start_value")).longValue()
+            : lastValue.longValue() + ((Number) state.get("increment_by")).longValue();
+    Long maxId = jdbcTemplate.queryForObject(String.format(MAX_ID_SQL, table), Long.class);
+    if (maxId != null && maxId >= next) {
+      jdbcTemplate.queryForObject(SETVAL_SQL, Long.class, sequence, maxId + 1);
+      log.info("Moved sequence {} past the {} ids of {}", sequence, maxId, table);
+    }
+    jdbcTemplate.execute(String.format(DEFAULT_SQL, table, sequence));
+  }
+}
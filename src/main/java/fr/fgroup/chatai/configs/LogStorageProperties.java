@@ -0,0 +1,52 @@
+package fr.fgroup.chatai.configs;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * LogStorageProperties - Partitioning, retention and rollups of the stored logs.
+ *
+ * Bound from the {@code chatai.logs.storage} section of the application configuration and
+ * applied by {@link fr.fgroup.chatai.services.impl.LogPartitionServiceImpl} and
+ * {@link fr.fgroup.chatai.services.impl.LogStatsServiceImpl}.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "chatai.logs.storage")
+public class LogStorageProperties {
+
+  /** Whether {@code log_entity} is partitioned by day and its old partitions dropped */
+  private boolean partitioned = true;
+
+  /** Daily partitions created ahead of the current day */
+  private int daysAhead = 3;
+
+  /** Age after which a partition of logs is dropped */
+  private Duration retention = Duration.ofDays(90);
+
+  /** Delay between two runs of the partition creation and retention */
+  private Duration maintenanceInterval = Duration.ofHours(1);
+
+  private Rollup rollup = new Rollup();
+
+  /**
+   * Hourly counts of the logs.
+   */
+  @Data
+  public static class Rollup {
+    /** Delay between two recomputations of the recent hours */
+    private Duration interval = Duration.ofMinutes(1);
+
+    /** Hours recomputed at startup, to cover the time the application was stopped */
+    private Duration catchUp = Duration.ofDays(1);
+
+    /** Age after which the counts of an hour are deleted */
+    private Duration retention = Duration.ofDays(400);
+
+    /** Widest range a stats query may cover */
+    private Duration maxRange = Duration.ofDays(31);
+  }
+}
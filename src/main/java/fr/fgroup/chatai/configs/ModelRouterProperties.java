@@ -0,0 +1,75 @@
+package fr.fgroup.chatai.configs;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ModelRouterProperties - Rules picking the model of each completion.
+ *
+ * Bound from the {@code chatai.router} section of the application configuration and
+ * applied by {@link fr.fgroup.chatai.services.impl.ModelRouterServiceImpl}.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "chatai.router")
+public class ModelRouterProperties {
+
+  /** When disabled, every completion uses the default model */
+  private boolean enabled = false;
+
+  /** Model of the requests no rule matches */
+  private String defaultModel = "gpt-3.5-turbo";
+
+  /** Known models, keyed by name */
+  private Map<String, Model> models = new HashMap<>();
+
+  /** Rules, evaluated in order; the first matching one gives the models to try */
+  private List<Rule> rules = new ArrayList<>();
+
+  /** Weight of the last call in the moving average of a model's latency */
+  private double latencySmoothing = 0.2;
+
+  /** Age after which a latency is no longer trusted and a slow model is tried first again */
+  private Duration latencyExpiry = Duration.ofMinutes(1);
+
+  /**
+   * A model the router may pick.
+   */
+  @Data
+  public static class Model {
+    /** Context window in tokens, prompt and completion included; 0 if unknown */
+    private int contextWindow = 0;
+
+    /** Latency above which the model is tried after the others of its chain; unset for none */
+    private Duration maxLatency;
+  }
+
+  /**
+   * A routing rule; unset conditions match any request.
+   */
+  @Data
+  public static class Rule {
+    /** Name of the rule in metrics */
+    private String name;
+
+    /** Tier of the request: the {@code X-Model-Tier} header if the user is entitled to it, else the user's default */
+    private String tier;
+
+    private long minPromptTokens = 0;
+
+    private Long maxPromptTokens;
+
+    /** Tokens the user must have left on their quota */
+    private long minRemainingTokens = 0;
+
+    /** Models to try in order, the next ones being used when the previous is overloaded */
+    private List<String> models = new ArrayList<>();
+  }
+}
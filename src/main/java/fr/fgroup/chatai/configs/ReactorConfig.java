@@ -0,0 +1,36 @@
+package fr.fgroup.chatai.configs;
+
+import fr.fgroup.chatai.utils.VirtualThreads;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * ReactorConfig - Schedulers used by the reactive request pipeline.
+ *
+ * The upstream calls run on the Reactor Netty event loops and never block. The remaining
+ * blocking work (JPA lookups and updates) is isolated on a dedicated scheduler so it never
+ * runs on an event loop thread. In virtual-thread mode ({@code chatai.virtual-threads.enabled})
+ * each blocking call gets its own virtual thread instead of a bounded elastic worker.
+ */
+@Configuration
+public class ReactorConfig {
+
+  /**
+   * Scheduler for blocking calls made from reactive pipelines.
+   *
+   * @param virtualThreads whether the virtual-thread mode is enabled
+   * @return the scheduler shared by the application for blocking calls
+   */
+  @Bean
+  public Scheduler blockingScheduler(@Value("${chatai.virtual-threads.enabled:false}") boolean virtualThreads) {
+    if (virtualThreads) {
+      return Schedulers.fromExecutorService(
+              VirtualThreads.newVirtualThreadPerTaskExecutor("blocking-virtual-"), "blocking-virtual");
+    }
+    return Schedulers.boundedElastic();
+  }
+
+}
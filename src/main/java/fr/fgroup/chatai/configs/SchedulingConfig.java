@@ -0,0 +1,13 @@
+package fr.fgroup.chatai.configs;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * SchedulingConfig - Enables the scheduled background tasks of the application
+ * (token ledger flush, ...).
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
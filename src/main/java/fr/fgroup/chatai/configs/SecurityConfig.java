@@ -1,6 +1,7 @@
 package fr.fgroup.chatai.configs;
 
 import fr.fgroup.chatai.filters.JwtAuthenticationFilter;
+import fr.fgroup.chatai.filters.RateLimitFilter;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
@@ -18,6 +19,7 @@ import org.springframework.security.web.firewall.StrictHttpFirewall;
  * 
  * This configuration class sets up:
  * - JWT token validation through JwtAuthenticationFilter
+ * - Per-key rate limiting of the chat requests through RateLimitFilter
  * - CSRF protection (disabled for stateless API)
  * - Session management policy (stateless for REST API)
  * - Authorization rules for endpoints
@@ -37,14 +39,20 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
   /** JWT authentication filter for validating user tokens */
   private final JwtAuthenticationFilter jwtAuthenticationFilter;
 
+  /** Rate limiting filter, run once the key is validated */
+  private final RateLimitFilter rateLimitFilter;
+
   /**
    * Constructor for dependency injection.
    * 
    * @param jwtAuthenticationFilter the JWT filter to validate tokens
+   * @param rateLimitFilter the per-key rate limiting filter
    */
   public SecurityConfig(
-          JwtAuthenticationFilter jwtAuthenticationFilter) {
+          JwtAuthenticationFilter jwtAuthenticationFilter,
+          RateLimitFilter rateLimitFilter) {
     this.jwtAuthenticationFilter = jwtAuthenticationFilter;
+    this.rateLimitFilter = rateLimitFilter;
   }
 
   /**
@@ -53,7 +61,8 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
    * - CSRF protection is disabled (API doesn't require CSRF tokens)
    * - Session creation policy is set to IF_REQUIRED (stateless)
    * - Public endpoints are configured to permit all
-   * - JWT filter is added before UsernamePasswordAuthenticationFilter
+   * - JWT filter is added before UsernamePasswordAuthenticationFilter, the rate limiting
+   *   filter right after it
    * 
    * @param http the HttpSecurity to modify
    * @throws Exception if there's an error during configuration
@@ -69,6 +78,7 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
             .anyRequest().authenticated();
 
     http.addFilterBefore(jwtAuthenticationFilter, UsernamePasswordAuthenticationFilter.class);
+    http.addFilterAfter(rateLimitFilter, JwtAuthenticationFilter.class);
   }
 
   /**
@@ -0,0 +1,73 @@
+package fr.fgroup.chatai.configs;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * UpstreamClientProperties - Tuning of the shared HTTP client used to reach OpenAI.
+ *
+ * Bound from the {@code openai.http} section of the application configuration.
+ * The defaults reproduce the timeouts the service used before the client was shared
+ * (15s connect/write, 30s read). The same settings size both the OkHttp client and the
+ * Reactor Netty client of {@link fr.fgroup.chatai.clients.OpenAiClient}.
+ *
+ * Per-route overrides are declared under {@code openai.http.routes.<route>}, where the
+ * route name is one of the constants exposed by
+ * {@link fr.fgroup.chatai.clients.UpstreamHttpClient}. Unset values fall back to the
+ * global ones.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "openai.http")
+public class UpstreamClientProperties {
+
+  /** Maximum number of idle connections kept in the pool */
+  private int maxIdleConnections = 50;
+
+  /** How long an idle connection is kept alive before being evicted */
+  private Duration keepAlive = Duration.ofMinutes(5);
+
+  /** Maximum number of concurrent calls executed by the dispatcher */
+  private int maxRequests = 256;
+
+  /** Maximum number of concurrent calls to a single host */
+  private int maxRequestsPerHost = 128;
+
+  /** Maximum number of calls waiting for a pooled connection (reactive client) */
+  private int maxPendingRequests = 1024;
+
+  /** Negotiate HTTP/2 (multiplexed streams over one connection) when the server supports it */
+  private boolean http2 = true;
+
+  /** Default connect timeout */
+  private Duration connectTimeout = Duration.ofSeconds(15);
+
+  /** Default write timeout */
+  private Duration writeTimeout = Duration.ofSeconds(15);
+
+  /** Default read timeout */
+  private Duration readTimeout = Duration.ofSeconds(30);
+
+  /** Largest response body buffered from a non-streamed call, in bytes */
+  private int maxResponseBytes = 4 * 1024 * 1024;
+
+  /** Per-route timeout overrides, keyed by route name */
+  private Map<String, RouteTimeouts> routes = new HashMap<>();
+
+  /**
+   * Timeout overrides for a single upstream route. A null value inherits the global one.
+   */
+  @Data
+  public static class RouteTimeouts {
+    private Duration connectTimeout;
+    private Duration writeTimeout;
+    private Duration readTimeout;
+    /** Upper bound for the whole call (connect, write, server processing and read) */
+    private Duration callTimeout;
+  }
+}
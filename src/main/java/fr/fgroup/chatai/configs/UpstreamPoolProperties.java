@@ -0,0 +1,64 @@
+package fr.fgroup.chatai.configs;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * UpstreamPoolProperties - Upstream targets (API keys and endpoints) completions are spread over.
+ *
+ * Bound from the {@code openai.pool} section of the application configuration and used by
+ * {@link fr.fgroup.chatai.clients.UpstreamPool}. Without any target, the pool holds a single
+ * one built from {@code openai.url} and {@code openai.api-key}.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "openai.pool")
+public class UpstreamPoolProperties {
+
+  private List<Target> targets = new ArrayList<>();
+
+  /** Time a target is left aside after a 429 without Retry-After or rate-limit reset header */
+  private Duration rateLimitCooldown = Duration.ofSeconds(1);
+
+  /** Weight of the last call in the moving average of a target's latency */
+  private double latencySmoothing = 0.2;
+
+  /**
+   * An upstream target: an OpenAI key, an Azure OpenAI resource or an OpenAI-compatible server.
+   */
+  @Data
+  public static class Target {
+    /** Name of the target in logs and metrics */
+    private String name;
+
+    /** openai (OpenAI and compatible servers, Bearer key) or azure (deployments, api-key header) */
+    private String type = "openai";
+
+    /** Base URL, e.g. https://api.openai.com/v1 or https://my-resource.openai.azure.com */
+    private String url;
+
+    private String apiKey;
+
+    /** Models served by an openai target; empty for all */
+    private List<String> models = new ArrayList<>();
+
+    /** Deployment of each model served by an azure target */
+    private Map<String, String> deployments = new HashMap<>();
+
+    /** API version of an azure target */
+    private String apiVersion = "2023-05-15";
+
+    /** Relative capacity of the target (e.g. rate limit of its key), 1 by default */
+    private double weight = 1;
+
+    /** Maximum calls in flight to the target; 0 for no limit */
+    private int maxConcurrentCalls = 0;
+  }
+}
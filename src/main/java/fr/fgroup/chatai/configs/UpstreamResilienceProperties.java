@@ -0,0 +1,79 @@
+package fr.fgroup.chatai.configs;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * UpstreamResilienceProperties - Retry, circuit breaker and bulkhead settings of the calls to OpenAI.
+ *
+ * Bound from the {@code openai.resilience} section of the application configuration and
+ * applied by {@link fr.fgroup.chatai.clients.UpstreamResilience}. There is one circuit
+ * breaker per upstream route and one bulkhead shared by all routes.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "openai.resilience")
+public class UpstreamResilienceProperties {
+
+  private Retry retry = new Retry();
+
+  private CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+  private Bulkhead bulkhead = new Bulkhead();
+
+  /**
+   * Retries of the calls failing with an I/O error, a 429 or a 5xx.
+   */
+  @Data
+  public static class Retry {
+    /** Attempts per call, the first one included; 1 disables retries */
+    private int maxAttempts = 3;
+
+    /** Backoff before the first retry, doubled for each following one */
+    private Duration initialBackoff = Duration.ofMillis(200);
+
+    /** Upper bound of the backoff */
+    private Duration maxBackoff = Duration.ofSeconds(5);
+
+    /** Fraction of the backoff randomized away (0: fixed backoff, 1: anywhere between 0 and the backoff) */
+    private double jitter = 0.5;
+
+    /** A Retry-After longer than this is not waited for: the failure is returned right away */
+    private Duration maxRetryAfter = Duration.ofSeconds(10);
+  }
+
+  /**
+   * Circuit breaker, evaluated over the outcomes of the last calls of a route.
+   */
+  @Data
+  public static class CircuitBreaker {
+    private boolean enabled = true;
+
+    /** Failure rate, in percent, opening the circuit */
+    private int failureRateThreshold = 50;
+
+    /** Number of last calls the failure rate is computed on */
+    private int slidingWindowSize = 50;
+
+    /** Calls needed in the window before the failure rate is evaluated */
+    private int minimumCalls = 20;
+
+    /** Time the circuit stays open before letting trial calls through */
+    private Duration openDuration = Duration.ofSeconds(30);
+
+    /** Trial calls let through while half-open; all must succeed to close the circuit */
+    private int halfOpenCalls = 3;
+  }
+
+  /**
+   * Bound of the concurrent upstream calls.
+   */
+  @Data
+  public static class Bulkhead {
+    /** Maximum calls in flight; 0 disables the bulkhead */
+    private int maxConcurrentCalls = 200;
+  }
+}
@@ -0,0 +1,39 @@
+package fr.fgroup.chatai.configs;
+
+import fr.fgroup.chatai.utils.VirtualThreads;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * VirtualThreadConfig - Opt-in virtual-thread execution mode.
+ *
+ * Enabled with {@code chatai.virtual-threads.enabled=true}. In this mode:
+ * - Tomcat handles every request on its own virtual thread instead of its bounded
+ *   platform-thread pool, so slow completions no longer starve the other endpoints
+ * - The blocking JPA calls of the reactive pipeline run on virtual threads (see
+ *   {@link ReactorConfig})
+ * - The OkHttp dispatcher used for streamed completions runs its calls on virtual threads
+ *   (see {@link fr.fgroup.chatai.clients.UpstreamHttpClient})
+ *
+ * The database pool then becomes the real limit of concurrent JPA calls, which is the
+ * intended back pressure.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "chatai.virtual-threads", name = "enabled", havingValue = "true")
+public class VirtualThreadConfig {
+
+  /**
+   * Replaces the Tomcat worker pool by a virtual-thread-per-request executor.
+   *
+   * @return the Tomcat protocol handler customizer
+   */
+  @Bean
+  public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandlerCustomizer() {
+    return protocolHandler -> protocolHandler.setExecutor(
+            VirtualThreads.newVirtualThreadPerTaskExecutor("tomcat-virtual-"));
+  }
+
+}
@@ -1,14 +1,24 @@
 package fr.fgroup.chatai.controllers;
 
+import fr.fgroup.chatai.resources.BatchResource;
 import fr.fgroup.chatai.resources.KeyResource;
 import fr.fgroup.chatai.resources.MessageResource;
+import fr.fgroup.chatai.resources.post.BatchRequestResourcePost;
 import fr.fgroup.chatai.resources.post.ContinueMessageResourcePost;
 import fr.fgroup.chatai.resources.post.MessageResourcePost;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import javax.validation.Valid;
 import java.util.List;
@@ -28,8 +38,25 @@ public interface CallerController {
   ResponseEntity<KeyResource> getKey();
 
   @PostMapping
-  ResponseEntity<MessageResource> askRequest(@Valid @RequestBody MessageResourcePost message);
+  Mono<ResponseEntity<MessageResource>> askRequest(@Valid @RequestBody MessageResourcePost message,
+                                                   @RequestHeader(value = HttpHeaders.CACHE_CONTROL, required = false) String cacheControl);
 
   @PostMapping("/continue")
-  ResponseEntity<MessageResource> continueConversation(@Valid @RequestBody List<ContinueMessageResourcePost> messages);
+  Mono<ResponseEntity<MessageResource>> continueConversation(@Valid @RequestBody List<ContinueMessageResourcePost> messages);
+
+  @PostMapping("/conversations/{conversationId}")
+  Mono<ResponseEntity<MessageResource>> continueInConversation(@PathVariable String conversationId,
+                                                               @Valid @RequestBody MessageResourcePost message);
+
+  @PostMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  ResponseEntity<SseEmitter> streamRequest(@Valid @RequestBody MessageResourcePost message);
+
+  @PostMapping(value = "/continue/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  ResponseEntity<SseEmitter> streamConversation(@Valid @RequestBody List<ContinueMessageResourcePost> messages);
+
+  @PostMapping("/batch")
+  Mono<ResponseEntity<BatchResource>> batchRequest(@Valid @RequestBody BatchRequestResourcePost batch);
+
+  @PostMapping(value = "/batch/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  Mono<ResponseEntity<Flux<ServerSentEvent<Object>>>> streamBatchRequest(@Valid @RequestBody BatchRequestResourcePost batch);
 }
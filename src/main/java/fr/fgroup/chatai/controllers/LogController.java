@@ -1,10 +1,22 @@
 package fr.fgroup.chatai.controllers;
 
+import fr.fgroup.chatai.resources.BulkLogResource;
 import fr.fgroup.chatai.resources.LogResource;
+import fr.fgroup.chatai.resources.LogStatsResource;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.util.List;
+
 /**
  * @author Tarik FAMIL (contact: tarikfamil@gmail.com or tarikfamil@gmail.com)
  * <p>
@@ -23,4 +35,20 @@ public interface LogController {
   @PostMapping("/log")
   ResponseEntity<Void> logs(@RequestBody LogResource resource);
 
+  @PostMapping("/system/bulk")
+  ResponseEntity<BulkLogResource> bulk(InputStream body,
+                                       @RequestHeader(value = HttpHeaders.CONTENT_ENCODING, required = false)
+                                       String contentEncoding,
+                                       @RequestParam(value = "type", defaultValue = "system") String type);
+
+  @GetMapping("/system/stats")
+  ResponseEntity<List<LogStatsResource>> stats(@RequestParam(value = "from", required = false)
+                                               @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                               @RequestParam(value = "to", required = false)
+                                               @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                               @RequestParam(value = "category", required = false) String category,
+                                               @RequestParam(value = "actionType", required = false) String actionType,
+                                               @RequestParam(value = "actionResult", required = false)
+                                               String actionResult);
+
 }
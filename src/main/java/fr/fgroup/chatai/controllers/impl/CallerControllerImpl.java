@@ -1,15 +1,24 @@
 package fr.fgroup.chatai.controllers.impl;
 
 import fr.fgroup.chatai.controllers.CallerController;
+import fr.fgroup.chatai.resources.BatchResource;
 import fr.fgroup.chatai.resources.KeyResource;
 import fr.fgroup.chatai.resources.MessageResource;
+import fr.fgroup.chatai.resources.post.BatchRequestResourcePost;
 import fr.fgroup.chatai.resources.post.ContinueMessageResourcePost;
 import fr.fgroup.chatai.resources.post.MessageResourcePost;
 import fr.fgroup.chatai.services.CallerService;
+import fr.fgroup.chatai.services.RequestCancellationService;
+import fr.fgroup.chatai.utils.ReactiveUserContextHolder;
+import fr.fgroup.chatai.utils.UserContextHolder;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.util.List;
 
@@ -28,19 +37,62 @@ import java.util.List;
 public class CallerControllerImpl implements CallerController {
 
   private final CallerService callerService;
+  private final RequestCancellationService requestCancellationService;
 
   @Override
   public ResponseEntity<KeyResource> getKey() {
     return callerService.generateKey();
   }
 
+  /**
+   * The servlet thread is released as soon as the Mono is returned; the user context set
+   * by the filter is carried along in the Reactor context. The upstream call is cancelled
+   * if the client disconnects or its {@code X-Request-Timeout} expires.
+   * {@code Cache-Control: no-cache} or {@code no-store} bypasses the response cache.
+   */
   @Override
-  public ResponseEntity<MessageResource> askRequest(MessageResourcePost message) {
-    return callerService.askRequest(message);
+  public Mono<ResponseEntity<MessageResource>> askRequest(MessageResourcePost message, String cacheControl) {
+    boolean cacheable = cacheControl == null
+            || !(cacheControl.contains("no-cache") || cacheControl.contains("no-store"));
+    return requestCancellationService.bind(callerService.askRequest(message, cacheable))
+            .contextWrite(ReactiveUserContextHolder.withContext(UserContextHolder.getContext()));
   }
 
   @Override
-  public ResponseEntity<MessageResource> continueConversation(List<ContinueMessageResourcePost> messages) {
-    return callerService.continueConversation(messages);
+  public Mono<ResponseEntity<MessageResource>> continueConversation(List<ContinueMessageResourcePost> messages) {
+    return requestCancellationService.bind(callerService.continueConversation(messages))
+            .contextWrite(ReactiveUserContextHolder.withContext(UserContextHolder.getContext()));
+  }
+
+  @Override
+  public Mono<ResponseEntity<MessageResource>> continueInConversation(String conversationId,
+                                                                      MessageResourcePost message) {
+    return requestCancellationService.bind(callerService.continueInConversation(conversationId, message))
+            .contextWrite(ReactiveUserContextHolder.withContext(UserContextHolder.getContext()));
+  }
+
+  @Override
+  public ResponseEntity<SseEmitter> streamRequest(MessageResourcePost message) {
+    return callerService.streamRequest(message);
+  }
+
+  @Override
+  public ResponseEntity<SseEmitter> streamConversation(List<ContinueMessageResourcePost> messages) {
+    return callerService.streamConversation(messages);
+  }
+
+  @Override
+  public Mono<ResponseEntity<BatchResource>> batchRequest(BatchRequestResourcePost batch) {
+    return requestCancellationService.bind(callerService.batchRequest(batch))
+            .contextWrite(ReactiveUserContextHolder.withContext(UserContextHolder.getContext()));
+  }
+
+  @Override
+  public Mono<ResponseEntity<Flux<ServerSentEvent<Object>>>> streamBatchRequest(BatchRequestResourcePost batch) {
+    return callerService.streamBatchRequest(batch)
+            .map(response -> response.getBody() == null ? response
+                    : new ResponseEntity<>(requestCancellationService.bind(response.getBody()),
+                    response.getHeaders(), response.getStatusCode()))
+            .contextWrite(ReactiveUserContextHolder.withContext(UserContextHolder.getContext()));
   }
 }
@@ -10,19 +10,28 @@ package fr.fgroup.chatai.controllers.impl;
  */
 
 import fr.fgroup.chatai.controllers.LogController;
+import fr.fgroup.chatai.resources.BulkLogResource;
 import fr.fgroup.chatai.resources.LogResource;
+import fr.fgroup.chatai.resources.LogStatsResource;
 import fr.fgroup.chatai.services.LogService;
+import fr.fgroup.chatai.services.LogStatsService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Locale;
+
 @Slf4j
 @RestController
 @RequiredArgsConstructor
 public class LogControllerImpl implements LogController {
 
   private final LogService logService;
+  private final LogStatsService logStatsService;
 
   @Override
   public ResponseEntity<Void> log(String data) {
@@ -33,4 +42,19 @@ public class LogControllerImpl implements LogController {
   public ResponseEntity<Void> logs(LogResource resource) {
     return logService.logs(resource);
   }
+
+  /**
+   * {@code Content-Encoding: gzip} uploads are decompressed while they are read.
+   */
+  @Override
+  public ResponseEntity<BulkLogResource> bulk(InputStream body, String contentEncoding, String type) {
+    boolean gzip = contentEncoding != null && contentEncoding.toLowerCase(Locale.ROOT).contains("gzip");
+    return logService.bulk(body, gzip, type);
+  }
+
+  @Override
+  public ResponseEntity<List<LogStatsResource>> stats(LocalDateTime from, LocalDateTime to, String category,
+                                                      String actionType, String actionResult) {
+    return logStatsService.stats(from, to, category, actionType, actionResult);
+  }
 }
@@ -0,0 +1,11 @@
+package fr.fgroup.chatai.dao.repositories;
+
+import fr.fgroup.chatai.entities.ConversationMessageEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ConversationMessageRepository extends JpaRepository<ConversationMessageEntity, Long>,
+        JpaSpecificationExecutor<ConversationMessageEntity> {
+}
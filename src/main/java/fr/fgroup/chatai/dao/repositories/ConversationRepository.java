@@ -0,0 +1,11 @@
+package fr.fgroup.chatai.dao.repositories;
+
+import fr.fgroup.chatai.entities.ConversationEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ConversationRepository extends JpaRepository<ConversationEntity, Long>,
+        JpaSpecificationExecutor<ConversationEntity> {
+}
@@ -0,0 +1,11 @@
+package fr.fgroup.chatai.dao.repositories;
+
+import fr.fgroup.chatai.entities.LogRollupEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface LogRollupRepository extends JpaRepository<LogRollupEntity, Long>,
+        JpaSpecificationExecutor<LogRollupEntity> {
+}
@@ -0,0 +1,27 @@
+package fr.fgroup.chatai.dao.services;
+
+import fr.fgroup.chatai.entities.ConversationEntity;
+import org.springframework.data.jpa.domain.Specification;
+
+/**
+ * ConversationDaoService - Data access service for ConversationEntity operations.
+ */
+public interface ConversationDaoService {
+
+  /**
+   * Saves a ConversationEntity to the database.
+   *
+   * @param entity the ConversationEntity to save
+   * @return the saved entity
+   */
+  ConversationEntity save(ConversationEntity entity);
+
+  /**
+   * Finds a single ConversationEntity matching the given specification.
+   *
+   * @param specification the JPA specification criteria
+   * @return the matching ConversationEntity
+   * @throws fr.fgroup.chatai.exceptions.ResourceNotFoundException if no conversation matches
+   */
+  ConversationEntity findOne(Specification<ConversationEntity> specification);
+}
@@ -0,0 +1,30 @@
+package fr.fgroup.chatai.dao.services;
+
+import fr.fgroup.chatai.entities.ConversationMessageEntity;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+
+/**
+ * ConversationMessageDaoService - Data access service for ConversationMessageEntity operations.
+ */
+public interface ConversationMessageDaoService {
+
+  /**
+   * Saves messages to the database.
+   *
+   * @param entities the messages to save
+   * @return the saved entities
+   */
+  List<ConversationMessageEntity> saveAll(List<ConversationMessageEntity> entities);
+
+  /**
+   * Finds the messages matching the given specification.
+   *
+   * @param specification the JPA specification criteria
+   * @param sort the order of the messages
+   * @return the matching messages
+   */
+  List<ConversationMessageEntity> findAll(Specification<ConversationMessageEntity> specification, Sort sort);
+}
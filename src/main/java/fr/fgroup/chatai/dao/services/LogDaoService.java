@@ -5,6 +5,8 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.domain.Specification;
 
+import java.util.List;
+
 public interface LogDaoService {
 
   LogEntity findOne(Specification<LogEntity> specification);
@@ -13,5 +15,12 @@ public interface LogDaoService {
 
   LogEntity save(LogEntity entity);
 
+  /**
+   * Inserts logs in one JDBC batch, in one transaction, stamped with the reception time.
+   *
+   * @param entities the logs, their ids are ignored and replaced by sequence ids
+   */
+  void insertAll(List<LogEntity> entities);
+
   void delete(LogEntity entity);
 }
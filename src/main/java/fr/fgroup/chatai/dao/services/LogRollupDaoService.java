@@ -0,0 +1,22 @@
+package fr.fgroup.chatai.dao.services;
+
+import fr.fgroup.chatai.entities.LogRollupEntity;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+
+/**
+ * LogRollupDaoService - Data access service for LogRollupEntity reads.
+ */
+public interface LogRollupDaoService {
+
+  /**
+   * Finds the rollups matching the given specification.
+   *
+   * @param specification the JPA specification criteria
+   * @param sort the order of the rollups
+   * @return the matching rollups
+   */
+  List<LogRollupEntity> findAll(Specification<LogRollupEntity> specification, Sort sort);
+}
@@ -0,0 +1,36 @@
+package fr.fgroup.chatai.dao.services.impl;
+
+import fr.fgroup.chatai.configs.IdSequenceMigration;
+import fr.fgroup.chatai.dao.repositories.ConversationRepository;
+import fr.fgroup.chatai.dao.services.ConversationDaoService;
+import fr.fgroup.chatai.entities.ConversationEntity;
+import fr.fgroup.chatai.exceptions.ResourceNotFoundException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+@Slf4j
+@Service
+@DependsOn(IdSequenceMigration.BEAN)
+@Transactional
+@RequiredArgsConstructor
+public class ConversationDaoServiceImpl implements ConversationDaoService {
+
+  private final ConversationRepository repository;
+
+  @Override
+  public ConversationEntity save(ConversationEntity entity) {
+    return repository.save(entity);
+  }
+
+  @Override
+  public ConversationEntity findOne(Specification<ConversationEntity> specification) {
+    return repository.findOne(specification).orElseThrow(() -> {
+      log.debug("Couldn't find any Conversation with the specified criteria");
+      return new ResourceNotFoundException("No conversation found with the specified criteria");
+    });
+  }
+}
@@ -0,0 +1,33 @@
+package fr.fgroup.chatai.dao.services.impl;
+
+import fr.fgroup.chatai.configs.IdSequenceMigration;
+import fr.fgroup.chatai.dao.repositories.ConversationMessageRepository;
+import fr.fgroup.chatai.dao.services.ConversationMessageDaoService;
+import fr.fgroup.chatai.entities.ConversationMessageEntity;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Service
+@DependsOn(IdSequenceMigration.BEAN)
+@Transactional
+@RequiredArgsConstructor
+public class ConversationMessageDaoServiceImpl implements ConversationMessageDaoService {
+
+  private final ConversationMessageRepository repository;
+
+  @Override
+  public List<ConversationMessageEntity> saveAll(List<ConversationMessageEntity> entities) {
+    return repository.saveAll(entities);
+  }
+
+  @Override
+  public List<ConversationMessageEntity> findAll(Specification<ConversationMessageEntity> specification, Sort sort) {
+    return repository.findAll(specification, sort);
+  }
+}
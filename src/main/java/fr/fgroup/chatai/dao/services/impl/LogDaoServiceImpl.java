@@ -1,21 +1,38 @@
 package fr.fgroup.chatai.dao.services.impl;
+import fr.fgroup.chatai.configs.IdSequenceMigration;
 import fr.fgroup.chatai.dao.repositories.LogRepository;
 import fr.fgroup.chatai.dao.services.LogDaoService;
 import fr.fgroup.chatai.entities.LogEntity;
+import fr.fgroup.chatai.entities.base.AbstractBaseEntity;
 import fr.fgroup.chatai.exceptions.ResourceNotFoundException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.domain.Specification;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
 
 @Slf4j
 @Service
+@DependsOn(IdSequenceMigration.BEAN)
 @RequiredArgsConstructor
 public class LogDaoServiceImpl implements LogDaoService {
 
+  private static final String NEXT_ID_SQL = "SELECT nextval('log_entity_seq')";
+  // Stamped with the database clock, partition key of the table
+  private static final String INSERT_SQL = "INSERT INTO log_entity "
+          + "(id, category, user_action_trigger, action_date, action_type, action_result, action_desc, received_date) "
+          + "VALUES (?, ?, ?, ?, ?, ?, ?, now() AT TIME ZONE 'UTC')";
+
   private final LogRepository logRepository;
+  private final JdbcTemplate jdbcTemplate;
 
   @Override
   public LogEntity findOne(Specification<LogEntity> specification) {
@@ -35,6 +52,26 @@ public class LogDaoServiceImpl implements LogDaoService {
     return logRepository.save(entity);
   }
 
+  @Override
+  @Transactional
+  public void insertAll(List<LogEntity> entities) {
+    List<Object[]> args = new ArrayList<>(entities.size());
+    long nextId = 0;
+    for (int i = 0; i < entities.size(); i++) {
+      // A sequence call hands out a block of ids, as for the pooled-lo ids of Hibernate;
+      // an id sent by a client is ignored
+      if (i % AbstractBaseEntity.ID_ALLOCATION_SIZE == 0) {
+        Long first = jdbcTemplate.queryForObject(NEXT_ID_SQL, Long.class);
+        nextId = first == null ? 0 : first;
+      }
+      LogEntity entity = entities.get(i);
+      args.add(new Object[]{nextId++, entity.getCategory(), entity.getUserActionTrigger(),
+              entity.getActionDate() == null ? null : Timestamp.valueOf(entity.getActionDate()),
+              entity.getActionType(), entity.getActionResult(), entity.getActionDesc()});
+    }
+    jdbcTemplate.batchUpdate(INSERT_SQL, args);
+  }
+
   @Override
   public void delete(LogEntity entity) {
     logRepository.delete(entity);
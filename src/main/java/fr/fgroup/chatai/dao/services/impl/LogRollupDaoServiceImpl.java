@@ -0,0 +1,25 @@
+package fr.fgroup.chatai.dao.services.impl;
+
+import fr.fgroup.chatai.dao.repositories.LogRollupRepository;
+import fr.fgroup.chatai.dao.services.LogRollupDaoService;
+import fr.fgroup.chatai.entities.LogRollupEntity;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Service
+@Transactional(readOnly = true)
+@RequiredArgsConstructor
+public class LogRollupDaoServiceImpl implements LogRollupDaoService {
+
+  private final LogRollupRepository repository;
+
+  @Override
+  public List<LogRollupEntity> findAll(Specification<LogRollupEntity> specification, Sort sort) {
+    return repository.findAll(specification, sort);
+  }
+}
@@ -1,11 +1,13 @@
 package fr.fgroup.chatai.dao.services.impl;
 
+import fr.fgroup.chatai.configs.IdSequenceMigration;
 import fr.fgroup.chatai.dao.repositories.UserRepository;
 import fr.fgroup.chatai.dao.services.UserDaoService;
 import fr.fgroup.chatai.entities.UserEntity;
 import fr.fgroup.chatai.exceptions.ResourceNotFoundException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.domain.Specification;
@@ -23,6 +25,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 @Slf4j
 @Service
+@DependsOn(IdSequenceMigration.BEAN)
 @Transactional
 @RequiredArgsConstructor
 public class UserDaoServiceImpl implements UserDaoService {
@@ -0,0 +1,41 @@
+package fr.fgroup.chatai.dao.specifications;
+
+import fr.fgroup.chatai.entities.ConversationEntity;
+import fr.fgroup.chatai.entities.ConversationMessageEntity;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Component;
+
+/**
+ * ConversationSpecifications - JPA Specification definitions for conversation queries.
+ */
+@Component
+public class ConversationSpecifications {
+
+  /**
+   * Private constructor to prevent instantiation of utility class.
+   */
+  private ConversationSpecifications() {
+  }
+
+  /**
+   * Creates a specification to find a conversation by its public id.
+   *
+   * @param conversationId the conversation's public id
+   * @return Specification for querying conversations by id, or null if id is null
+   */
+  public static Specification<ConversationEntity> withConversationId(String conversationId) {
+    return conversationId == null ? null
+            : (root, query, builder) -> builder.equal(root.get("conversationId"), conversationId);
+  }
+
+  /**
+   * Creates a specification to find the messages of a conversation.
+   *
+   * @param conversationId the conversation's public id
+   * @return Specification for querying messages by conversation, or null if id is null
+   */
+  public static Specification<ConversationMessageEntity> messagesOf(String conversationId) {
+    return conversationId == null ? null
+            : (root, query, builder) -> builder.equal(root.get("conversationId"), conversationId);
+  }
+}
@@ -0,0 +1,45 @@
+package fr.fgroup.chatai.dao.specifications;
+
+import fr.fgroup.chatai.entities.LogRollupEntity;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+
+/**
+ * LogRollupSpecifications - JPA Specification definitions for log rollup queries.
+ */
+@Component
+public class LogRollupSpecifications {
+
+  /**
+   * Private constructor to prevent instantiation of utility class.
+   */
+  private LogRollupSpecifications() {
+  }
+
+  /**
+   * Creates a specification to find the rollups of the hours starting in a range.
+   *
+   * @param from start of the range, inclusive
+   * @param to end of the range, exclusive
+   * @return Specification for querying rollups by hour
+   */
+  public static Specification<LogRollupEntity> between(LocalDateTime from, LocalDateTime to) {
+    return (root, query, builder) -> builder.and(
+            builder.greaterThanOrEqualTo(root.get("hourStart"), from),
+            builder.lessThan(root.get("hourStart"), to));
+  }
+
+  /**
+   * Creates a specification to find the rollups of a value of a log field.
+   *
+   * @param field the field: category, actionType or actionResult
+   * @param value the value, an empty string for the logs without one
+   * @return Specification for querying rollups by field, or null if value is null
+   */
+  public static Specification<LogRollupEntity> withValue(String field, String value) {
+    return value == null ? null
+            : (root, query, builder) -> builder.equal(root.get(field), value);
+  }
+}
@@ -0,0 +1,42 @@
+package fr.fgroup.chatai.entities;
+
+import fr.fgroup.chatai.entities.base.AbstractBaseEntity;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.SuperBuilder;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.LocalDateTime;
+
+/**
+ * ConversationEntity - JPA entity representing a server-side conversation.
+ *
+ * Only the header of the conversation: its public id and the key of the user owning it.
+ * The messages are stored as {@link ConversationMessageEntity} rows.
+ */
+@Data
+@SuperBuilder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity(name = "conversation_entity")
+@Table(indexes = @Index(name = "idx_conversation_entity_conversation_id", columnList = "conversationId", unique = true))
+public class ConversationEntity extends AbstractBaseEntity {
+
+  /** Public id of the conversation (UUID) */
+  @Column(nullable = false, length = 36)
+  private String conversationId;
+
+  /** Key of the user owning the conversation */
+  @Column(nullable = false)
+  private String ownerKey;
+
+  /** Date and time the conversation was started */
+  private LocalDateTime createdDate;
+
+  /** Date and time of the latest message, from which the retention of the conversation counts */
+  private LocalDateTime lastMessageDate;
+}
@@ -0,0 +1,44 @@
+package fr.fgroup.chatai.entities;
+
+import fr.fgroup.chatai.entities.base.AbstractBaseEntity;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.SuperBuilder;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * ConversationMessageEntity - JPA entity representing one message of a conversation.
+ *
+ * Rows are only ever inserted: a conversation grows by appending messages at the next
+ * position.
+ */
+@Data
+@SuperBuilder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity(name = "conversation_message_entity")
+@Table(indexes = @Index(name = "idx_conversation_message_entity_conversation",
+        columnList = "conversationId, position", unique = true))
+public class ConversationMessageEntity extends AbstractBaseEntity {
+
+  /** Public id of the conversation the message belongs to */
+  @Column(nullable = false, length = 36)
+  private String conversationId;
+
+  /** Position of the message in the conversation, from 0 */
+  @Column(nullable = false)
+  private Integer position;
+
+  /** Role of the author ("user" or "assistant") */
+  @Column(nullable = false)
+  private String role;
+
+  /** Content of the message */
+  @Column(columnDefinition = "text")
+  private String content;
+}
@@ -4,8 +4,11 @@ import fr.fgroup.chatai.entities.base.AbstractBaseEntity;
 import lombok.Data;
 import lombok.ToString;
 
+import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.PrePersist;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 
 /**
  * LogEntity - JPA entity for storing audit logs of user actions.
@@ -19,6 +22,9 @@ import java.time.LocalDateTime;
  * - Category of the action (e.g., screen, API call)
  * 
  * Logs are automatically persisted for compliance and debugging purposes.
+ *
+ * The table is partitioned by day on {@code receivedDate}, set by the server, and kept
+ * for the retention of {@code chatai.logs.storage}; see LogPartitionServiceImpl.
  * 
  * @author Tarik FAMIL (contact: tarikfamil@gmail.com)
  * @version 1.0
@@ -46,4 +52,20 @@ public class LogEntity extends AbstractBaseEntity {
 
   /** Detailed description of what the action entailed */
   private String actionDesc;
+
+  /**
+   * Date and time (UTC) the server stored the log, partition key of the table.
+   * Rows older than the partitioning carry the column default.
+   */
+  @Column(nullable = false, columnDefinition = "timestamp default '1970-01-01'")
+  private LocalDateTime receivedDate;
+
+  /**
+   * Stamps the log with the server clock, whatever the client sent: the partition of a row
+   * must exist and only the recent partitions do.
+   */
+  @PrePersist
+  void received() {
+    receivedDate = LocalDateTime.now(ZoneOffset.UTC);
+  }
 }
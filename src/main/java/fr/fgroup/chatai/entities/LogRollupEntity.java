@@ -0,0 +1,50 @@
+package fr.fgroup.chatai.entities;
+
+import fr.fgroup.chatai.entities.base.AbstractBaseEntity;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.SuperBuilder;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.LocalDateTime;
+
+/**
+ * LogRollupEntity - JPA entity holding the count of the logs of an hour, by category, action type
+ * and action result.
+ *
+ * Recomputed from {@code log_entity} in the background, so dashboards read a few rows per hour
+ * instead of scanning the logs, and kept longer than the logs themselves. Unset values of the
+ * logs are stored as empty strings, which keeps the unique index usable for the upserts.
+ *
+ * Written with plain SQL by LogStatsServiceImpl; mapped here for the schema and the queries.
+ */
+@Data
+@SuperBuilder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity(name = "log_rollup_entity")
+@Table(indexes = @Index(name = "idx_log_rollup_entity_bucket",
+        columnList = "hourStart, category, actionType, actionResult", unique = true))
+public class LogRollupEntity extends AbstractBaseEntity {
+
+  /** Start (UTC) of the hour the logs were received in */
+  @Column(nullable = false)
+  private LocalDateTime hourStart;
+
+  @Column(nullable = false)
+  private String category;
+
+  @Column(nullable = false)
+  private String actionType;
+
+  @Column(nullable = false)
+  private String actionResult;
+
+  /** Logs of the hour with these values */
+  @Column(nullable = false)
+  private Long eventCount;
+}
@@ -0,0 +1,48 @@
+package fr.fgroup.chatai.entities;
+
+import fr.fgroup.chatai.entities.base.AbstractBaseEntity;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.SuperBuilder;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.LocalDateTime;
+
+/**
+ * TokenLeaseEntity - JPA entity representing the block of a user's quota leased by an instance.
+ *
+ * An instance consumes its lease locally; the tokens it flushes to {@code user_entity} are
+ * deducted from the lease. The sum of the live leases of a user and of its
+ * {@code total_tokens} never exceeds its {@code total_tokens_authorized}. A lease not renewed
+ * before {@code expiresAt} (crashed instance) no longer counts.
+ *
+ * Written with plain SQL by the Postgres quota coordinator; mapped here for the schema.
+ */
+@Data
+@SuperBuilder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity(name = "token_lease_entity")
+@Table(indexes = @Index(name = "idx_token_lease_entity_user_node", columnList = "userId, nodeId", unique = true))
+public class TokenLeaseEntity extends AbstractBaseEntity {
+
+  /** Id of the UserEntity whose quota is leased */
+  @Column(nullable = false)
+  private Long userId;
+
+  /** Id of the instance holding the lease */
+  @Column(nullable = false, length = 64)
+  private String nodeId;
+
+  /** Leased tokens not yet flushed as consumption */
+  @Column(nullable = false)
+  private Long tokens;
+
+  /** Date and time after which the lease no longer counts unless renewed */
+  @Column(nullable = false)
+  private LocalDateTime expiresAt;
+}
@@ -8,6 +8,8 @@ import lombok.experimental.SuperBuilder;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
 
 /**
  * UserEntity - JPA entity representing a ChatAI API user.
@@ -16,6 +18,8 @@ import javax.persistence.Entity;
  * - A unique key for API authentication
  * - A quota of authorized tokens (set at user creation)
  * - Current token usage tracking
+ * - Optional rate limits, the defaults of {@code chatai.rate-limit.*} applying when null
+ * - The model tiers the user is entitled to, see the model router
  * - Audit information (creation date/user, modification date/user)
  * 
  * Token tracking is used to enforce API usage limits and prevent abuse.
@@ -31,6 +35,7 @@ import javax.persistence.Entity;
 @AllArgsConstructor
 @NoArgsConstructor
 @Entity(name = "user_entity")
+@Table(indexes = @Index(name = "idx_user_entity_key", columnList = "key", unique = true))
 public class UserEntity extends AbstractAuditableEntity {
 
   /** Unique user key for API authentication (SHA-256 hash) */
@@ -44,4 +49,19 @@ public class UserEntity extends AbstractAuditableEntity {
   @Column(nullable = false)
   private Long totalTokensAuthorized;
 
+  /** Maximum chat requests per second, null for the default, 0 for no limit */
+  private Double requestsPerSecond;
+
+  /** Maximum tokens consumed per minute, null for the default, 0 for no limit */
+  private Long tokensPerMinute;
+
+  /** Maximum chat requests in flight at once, null for the default, 0 for no limit */
+  private Integer maxInFlight;
+
+  /**
+   * Comma-separated model tiers the user may ask for in {@code X-Model-Tier}, the first one
+   * applying when the client asks for none; null for no tier
+   */
+  private String modelTiers;
+
 }
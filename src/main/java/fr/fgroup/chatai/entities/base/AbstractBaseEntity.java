@@ -5,6 +5,9 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.experimental.SuperBuilder;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
 
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
@@ -28,10 +31,33 @@ import javax.persistence.MappedSuperclass;
 public abstract class AbstractBaseEntity {
 
     /**
-     * Entity id with an autogenerated value
+     * Suffix of the id sequence of each entity table, e.g. {@code log_entity_seq}
+     */
+    public static final String ID_SEQUENCE_SUFFIX = "_seq";
+
+    /**
+     * Ids fetched from the sequence at once, also the increment of the sequences
+     */
+    public static final int ID_ALLOCATION_SIZE = 50;
+
+    /**
+     * Entity id taken from the sequence of its table.
+     *
+     * Sequence ids are known before the insert, which lets Hibernate batch the inserts
+     * (IDENTITY disables insert batching). The pooled-lo optimizer hands out
+     * {@link #ID_ALLOCATION_SIZE} ids per sequence call: a call returning n reserves n to
+     * n + 49, so plain {@code nextval} defaults and other instances never collide with it.
      */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "entity_id")
+    @GenericGenerator(name = "entity_id", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator",
+            parameters = {
+                    @Parameter(name = SequenceStyleGenerator.CONFIG_PREFER_SEQUENCE_PER_ENTITY, value = "true"),
+                    @Parameter(name = SequenceStyleGenerator.CONFIG_SEQUENCE_PER_ENTITY_SUFFIX,
+                            value = ID_SEQUENCE_SUFFIX),
+                    @Parameter(name = SequenceStyleGenerator.INCREMENT_PARAM, value = "" + ID_ALLOCATION_SIZE),
+                    @Parameter(name = SequenceStyleGenerator.OPT_PARAM, value = "pooled-lo")
+            })
     private Long id;
 
 }
@@ -19,7 +19,9 @@ public enum AIRoleEnum {
   @JsonProperty("user")
   USER("user"),
   @JsonProperty("assistant")
-  ASSISTANT("assistant");
+  ASSISTANT("assistant"),
+  @JsonProperty("system")
+  SYSTEM("system");
 
   /**
    * code of the status
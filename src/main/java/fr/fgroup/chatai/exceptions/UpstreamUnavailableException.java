@@ -0,0 +1,24 @@
+package fr.fgroup.chatai.exceptions;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.time.Duration;
+
+/**
+ * UpstreamUnavailableException - An upstream call was refused without being attempted,
+ * because the circuit of its route is open or too many calls are in flight.
+ */
+@Getter
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class UpstreamUnavailableException extends RuntimeException {
+
+  /** Delay after which the call may be accepted */
+  private final Duration retryAfter;
+
+  public UpstreamUnavailableException(String message, Duration retryAfter) {
+    super(message);
+    this.retryAfter = retryAfter;
+  }
+}
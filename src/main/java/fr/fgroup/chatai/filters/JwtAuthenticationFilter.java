@@ -1,6 +1,7 @@
 package fr.fgroup.chatai.filters;
 
 import fr.fgroup.chatai.enums.AuthorityEnum;
+import fr.fgroup.chatai.services.UserKeyService;
 import fr.fgroup.chatai.utils.SecurityUtils;
 import fr.fgroup.chatai.utils.UserContext;
 import fr.fgroup.chatai.utils.UserContextHolder;
@@ -9,7 +10,9 @@ import io.jsonwebtoken.ExpiredJwtException;
 import io.jsonwebtoken.Jwt;
 import io.jsonwebtoken.impl.DefaultJwtParser;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
@@ -24,6 +27,8 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -33,6 +38,7 @@ import java.util.stream.Collectors;
  * 
  * This filter is executed once per request and performs the following:
  * - Extracts the Authorization header from the request
+ * - Rejects chat requests whose key is invalid, before any controller or database work
  * - Creates a user context with the provided key
  * - Sets up Spring Security authentication
  * - Clears the context after request processing
@@ -49,12 +55,33 @@ import java.util.stream.Collectors;
 @Component
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
+  /** Request header in which clients ask for one of their model tiers, see the model router */
+  public static final String MODEL_TIER_HEADER = "X-Model-Tier";
+
+  /** Request header in which clients give the milliseconds they are willing to wait for the answer */
+  public static final String REQUEST_TIMEOUT_HEADER = "X-Request-Timeout";
+
+  /** Path of the chat endpoints, which require a valid key */
+  private static final String REQUESTS_PATH = "/chatai/requests";
+
+  /** Cached validation of user keys */
+  private final UserKeyService userKeyService;
+
+  /** Longest timeout a client may ask for */
+  private final Duration maxTimeout;
+
+  public JwtAuthenticationFilter(UserKeyService userKeyService,
+                                 @Value("${chatai.requests.max-timeout:PT5M}") Duration maxTimeout) {
+    this.userKeyService = userKeyService;
+    this.maxTimeout = maxTimeout;
+  }
+
   /**
    * Performs the JWT authentication filter logic for each request.
    * 
    * This method:
    * 1. Extracts the Authorization header
-   * 2. Creates a UserContext with the provided key
+   * 2. Creates a UserContext with the provided key, the requested model tier and deadline
    * 3. Stores the context in thread-local storage
    * 4. Creates a Spring Security authentication token
    * 5. Proceeds with the filter chain
@@ -75,12 +102,21 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     log.info("Processing authentication for request '{}'", httpServletRequest.getRequestURL());
     String key = httpServletRequest.getHeader(HttpHeaders.AUTHORIZATION);
 
+    if (requiresValidKey(httpServletRequest) && !userKeyService.isValid(key)) {
+      // Unknown keys are answered from the key caches, without reaching the service
+      log.debug("Rejecting request with invalid key : {}", key);
+      httpServletResponse.setStatus(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
     if (key != null) {
       log.debug("Set key of user in context holder : {}", key);
 
       // Create user context with the provided key
       UserContext userContext = new UserContext();
       userContext.setKey(key);
+      userContext.setModelTier(httpServletRequest.getHeader(MODEL_TIER_HEADER));
+      userContext.setDeadline(deadlineOf(httpServletRequest.getHeader(REQUEST_TIMEOUT_HEADER)));
       UserContextHolder.setContext(userContext);
 
       // Create Spring Security authentication token
@@ -100,4 +136,42 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     }
   }
 
+  /**
+   * Turns the client's timeout into a deadline, counted from the arrival of the request so
+   * that the clocks of the client and the server need not agree. A timeout longer than
+   * {@code chatai.requests.max-timeout} is lowered to it.
+   *
+   * @param timeout the {@code X-Request-Timeout} header, in milliseconds
+   * @return the deadline, or null if the client sent none or an invalid one
+   */
+  private Instant deadlineOf(String timeout) {
+    if (!StringUtils.hasText(timeout)) {
+      return null;
+    }
+    long millis;
+    try {
+      millis = Long.parseLong(timeout.trim());
+    } catch (NumberFormatException e) {
+      log.debug("Ignoring invalid {} header : {}", REQUEST_TIMEOUT_HEADER, timeout);
+      return null;
+    }
+    if (millis < 0) {
+      log.debug("Ignoring negative {} header : {}", REQUEST_TIMEOUT_HEADER, timeout);
+      return null;
+    }
+    return Instant.now().plusMillis(Math.min(millis, maxTimeout.toMillis()));
+  }
+
+  /**
+   * Chat requests (POST on /chatai/requests/**) consume tokens and need a valid key.
+   * Key generation (GET /chatai/requests) and logging accept any key.
+   *
+   * @param request the HTTP request
+   * @return true if the request must carry a valid key
+   */
+  private boolean requiresValidKey(HttpServletRequest request) {
+    return HttpMethod.POST.matches(request.getMethod())
+            && request.getServletPath().startsWith(REQUESTS_PATH);
+  }
+
 }
@@ -0,0 +1,120 @@
+package fr.fgroup.chatai.filters;
+
+import fr.fgroup.chatai.models.RateLimitPermit;
+import fr.fgroup.chatai.services.RateLimiterService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * RateLimitFilter - Per-key admission control of the chat requests.
+ *
+ * Runs right after the JwtAuthenticationFilter, so only chat requests carrying a valid key
+ * reach it. A request over one of the key's limits (see RateLimiterService) is answered
+ * {@code 429 Too Many Requests} with a {@code Retry-After} header (seconds) before any
+ * controller, database or upstream work.
+ *
+ * The in-flight slot of an admitted request is held until the response is complete: for
+ * asynchronous requests (Mono and SSE endpoints) this is when the async processing ends,
+ * not when the servlet thread returns.
+ */
+@Slf4j
+@Component
+public class RateLimitFilter extends OncePerRequestFilter {
+
+  /** Path of the chat endpoints, which are rate limited */
+  private static final String REQUESTS_PATH = "/chatai/requests";
+
+  private final RateLimiterService rateLimiterService;
+
+  public RateLimitFilter(RateLimiterService rateLimiterService) {
+    this.rateLimiterService = rateLimiterService;
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest httpServletRequest,
+                                  HttpServletResponse httpServletResponse,
+                                  FilterChain filterChain)
+          throws ServletException, IOException {
+    String key = httpServletRequest.getHeader(HttpHeaders.AUTHORIZATION);
+    if (key == null || !isRateLimited(httpServletRequest)) {
+      filterChain.doFilter(httpServletRequest, httpServletResponse);
+      return;
+    }
+
+    RateLimitPermit permit = rateLimiterService.tryAcquire(key);
+    if (!permit.isGranted()) {
+      long retryAfter = Math.max(1, (permit.getRetryAfter().toMillis() + 999) / 1000);
+      log.debug("Rate limiting key {} ({}), retry after {}s", key, permit.getRejectedBy(), retryAfter);
+      httpServletResponse.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+      httpServletResponse.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter));
+      return;
+    }
+
+    try {
+      filterChain.doFilter(httpServletRequest, httpServletResponse);
+    } finally {
+      if (httpServletRequest.isAsyncStarted()) {
+        httpServletRequest.getAsyncContext().addListener(new ReleasingListener(permit));
+      } else {
+        permit.release();
+      }
+    }
+  }
+
+  /**
+   * Chat requests (POST on /chatai/requests/**) are rate limited; key generation and
+   * logging are not.
+   *
+   * @param request the HTTP request
+   * @return true if the request is subject to the key's limits
+   */
+  private boolean isRateLimited(HttpServletRequest request) {
+    return HttpMethod.POST.matches(request.getMethod())
+            && request.getServletPath().startsWith(REQUESTS_PATH);
+  }
+
+  /**
+   * Releases the permit of an asynchronous request once its processing ends.
+   */
+  private static class ReleasingListener implements AsyncListener {
+
+    private final RateLimitPermit permit;
+
+    private ReleasingListener(RateLimitPermit permit) {
+      this.permit = permit;
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      permit.release();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      permit.release();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      permit.release();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+      // The same request dispatched again keeps its permit until it completes
+      event.getAsyncContext().addListener(this);
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package fr.fgroup.chatai.models;
+
+import fr.fgroup.chatai.resources.post.ContinueMessageResourcePost;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.List;
+
+/**
+ * ContextWindow - Messages actually sent upstream for a request, once fitted to the prompt budget.
+ */
+@Getter
+@RequiredArgsConstructor
+public class ContextWindow {
+
+  /** Messages to send, oldest first */
+  private final List<ContinueMessageResourcePost> messages;
+
+  /** Prompt tokens of the conversation as received */
+  private final int originalTokens;
+
+  /** Prompt tokens of the messages to send */
+  private final int tokens;
+
+  /** Tokens consumed upstream by this request to summarize older turns, 0 if none */
+  private final long summaryTokens;
+
+  /**
+   * @param messages the conversation, sent as is
+   * @param tokens its prompt tokens
+   * @return a window keeping every message
+   */
+  public static ContextWindow unchanged(List<ContinueMessageResourcePost> messages, int tokens) {
+    return new ContextWindow(messages, tokens, tokens, 0);
+  }
+
+  /**
+   * @return the prompt tokens not sent thanks to trimming or summarization
+   */
+  public int getSavedTokens() {
+    return Math.max(0, originalTokens - tokens);
+  }
+}
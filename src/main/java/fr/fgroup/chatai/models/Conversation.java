@@ -0,0 +1,80 @@
+package fr.fgroup.chatai.models;
+
+import fr.fgroup.chatai.resources.post.ContinueMessageResourcePost;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Conversation - In-memory history of a server-side conversation, kept by the conversation store.
+ *
+ * Messages are only appended; readers get a snapshot so a request being sent upstream is
+ * not affected by a concurrent turn of the same conversation.
+ */
+public class Conversation {
+
+  /** Public id of the conversation */
+  @Getter
+  private final String id;
+
+  /** Key of the user owning the conversation */
+  @Getter
+  private final String ownerKey;
+
+  private final List<ContinueMessageResourcePost> messages;
+
+  /** Whether the conversation row has been written to the database */
+  private boolean persisted;
+
+  public Conversation(String id, String ownerKey, List<ContinueMessageResourcePost> messages, boolean persisted) {
+    this.id = id;
+    this.ownerKey = ownerKey;
+    this.messages = new ArrayList<>(messages);
+    this.persisted = persisted;
+  }
+
+  /**
+   * @return a copy of the messages, oldest first
+   */
+  public synchronized List<ContinueMessageResourcePost> getMessages() {
+    return new ArrayList<>(messages);
+  }
+
+  /**
+   * Appends messages.
+   *
+   * @param newMessages the messages to append
+   * @return the position of the first appended message
+   */
+  public synchronized int append(List<ContinueMessageResourcePost> newMessages) {
+    int position = messages.size();
+    messages.addAll(newMessages);
+    return position;
+  }
+
+  /**
+   * @return an estimate of the memory retained by the messages, in bytes
+   */
+  public synchronized int getWeight() {
+    int weight = 64;
+    for (ContinueMessageResourcePost message : messages) {
+      weight += 32 + 2 * (message.getContent() == null ? 0 : message.getContent().length());
+    }
+    return weight;
+  }
+
+  /**
+   * @return true once the conversation row is known to be written
+   */
+  public synchronized boolean isPersisted() {
+    return persisted;
+  }
+
+  /**
+   * Marks the conversation row as written, once the write is committed.
+   */
+  public synchronized void markPersisted() {
+    persisted = true;
+  }
+}
@@ -0,0 +1,106 @@
+package fr.fgroup.chatai.models;
+
+import fr.fgroup.chatai.utils.TokenBucket;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * KeyRateLimiter - Admission limits of one key, kept by the rate limiter.
+ *
+ * - Requests per second: a {@link TokenBucket} taking one permit per request
+ * - Tokens per minute: a {@link TokenBucket} charged afterwards with the tokens consumed by
+ *   the key, a request being admitted only while the bucket is not in debt
+ * - Requests in flight: a counter bounded by a compare-and-set loop
+ *
+ * A null bucket or a non-positive maximum disables the corresponding limit.
+ */
+public class KeyRateLimiter {
+
+  private final TokenBucket requests;
+  private final TokenBucket tokens;
+  private final int maxInFlight;
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  /** Consumption of the key last charged to the token bucket, -1 before the first observation */
+  private final AtomicLong seenTokens = new AtomicLong(-1);
+
+  public KeyRateLimiter(TokenBucket requests, TokenBucket tokens, int maxInFlight) {
+    this.requests = requests;
+    this.tokens = tokens;
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   * Takes a slot for a request in flight.
+   *
+   * @return true if the slot was taken, false if the key already has the maximum in flight
+   */
+  public boolean tryEnter() {
+    if (maxInFlight <= 0) {
+      inFlight.incrementAndGet();
+      return true;
+    }
+    while (true) {
+      int current = inFlight.get();
+      if (current >= maxInFlight) {
+        return false;
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Gives back a slot taken by {@link #tryEnter()}.
+   */
+  public void exit() {
+    inFlight.decrementAndGet();
+  }
+
+  /**
+   * Takes the permit of a new request.
+   *
+   * @return 0 if the request is admitted, otherwise the nanoseconds to wait
+   */
+  public long tryAcquireRequest() {
+    return requests == null ? 0 : requests.tryAcquire(1);
+  }
+
+  /**
+   * Charges requests admitted as one, possibly putting the requests bucket in debt.
+   *
+   * @param permits the requests to charge
+   */
+  public void consumeRequests(long permits) {
+    if (requests != null && permits > 0) {
+      requests.consume(permits);
+    }
+  }
+
+  /**
+   * Charges the tokens consumed since the last call and tells whether the key is still
+   * within its tokens per minute.
+   *
+   * @param totalTokens the tokens consumed by the key so far (monotonic)
+   * @return 0 if the key may consume more tokens, otherwise the nanoseconds to wait
+   */
+  public long tokensWaitTime(long totalTokens) {
+    if (tokens == null) {
+      return 0;
+    }
+    long previous = seenTokens.getAndAccumulate(totalTokens, Math::max);
+    if (previous >= 0 && totalTokens > previous) {
+      tokens.consume(totalTokens - previous);
+    }
+    return tokens.waitTime();
+  }
+
+  /**
+   * @return the number of requests in flight
+   */
+  public int getInFlight() {
+    return inFlight.get();
+  }
+}
@@ -0,0 +1,27 @@
+package fr.fgroup.chatai.models;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.List;
+
+/**
+ * ModelRoute - Models chosen for a completion, in the order they are tried.
+ */
+@Getter
+@RequiredArgsConstructor
+public class ModelRoute {
+
+  /** Models to try, the first one preferred, the next ones used when the previous is overloaded */
+  private final List<String> models;
+
+  /** Name of the rule that chose the models */
+  private final String rule;
+
+  /**
+   * @return the preferred model
+   */
+  public String getModel() {
+    return models.get(0);
+  }
+}
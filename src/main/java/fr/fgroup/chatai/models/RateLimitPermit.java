@@ -0,0 +1,66 @@
+package fr.fgroup.chatai.models;
+
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * RateLimitPermit - Outcome of the admission of a request by the rate limiter.
+ *
+ * A granted permit holds a slot of the key's requests in flight until it is released;
+ * {@link #release()} may be called more than once and does nothing on a rejected permit.
+ */
+@Getter
+public class RateLimitPermit {
+
+  /** Limiter holding the slot, null if the request was rejected */
+  private final KeyRateLimiter limiter;
+
+  /** Limit that rejected the request (in-flight, requests or tokens), null if granted */
+  private final String rejectedBy;
+
+  /** Delay after which a retry may be admitted, null if granted */
+  private final Duration retryAfter;
+
+  private final AtomicBoolean released = new AtomicBoolean();
+
+  private RateLimitPermit(KeyRateLimiter limiter, String rejectedBy, Duration retryAfter) {
+    this.limiter = limiter;
+    this.rejectedBy = rejectedBy;
+    this.retryAfter = retryAfter;
+  }
+
+  /**
+   * @param limiter the limiter whose slot was taken
+   * @return a granted permit
+   */
+  public static RateLimitPermit granted(KeyRateLimiter limiter) {
+    return new RateLimitPermit(limiter, null, null);
+  }
+
+  /**
+   * @param rejectedBy the limit that rejected the request
+   * @param retryAfter the delay after which a retry may be admitted
+   * @return a rejected permit
+   */
+  public static RateLimitPermit rejected(String rejectedBy, Duration retryAfter) {
+    return new RateLimitPermit(null, rejectedBy, retryAfter);
+  }
+
+  /**
+   * @return true if the request was admitted
+   */
+  public boolean isGranted() {
+    return limiter != null;
+  }
+
+  /**
+   * Gives the slot back once the request is complete.
+   */
+  public void release() {
+    if (limiter != null && released.compareAndSet(false, true)) {
+      limiter.exit();
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package fr.fgroup.chatai.models;
+
+import fr.fgroup.chatai.resources.MessageResource;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * SemanticCacheLookup - Outcome of a semantic cache lookup.
+ *
+ * Keeps the embedding of the prompt so that, on a miss, the answer can be stored without
+ * embedding the prompt a second time.
+ */
+@Getter
+@RequiredArgsConstructor
+public class SemanticCacheLookup {
+
+  /** Model the prompt is sent to */
+  private final String model;
+
+  /** Embedding of the prompt */
+  private final float[] embedding;
+
+  /** Cached answer of a similar prompt, null on a miss */
+  private final MessageResource answer;
+
+  /**
+   * @return true if a similar enough prompt was found
+   */
+  public boolean isHit() {
+    return answer != null;
+  }
+}
@@ -0,0 +1,198 @@
+package fr.fgroup.chatai.models;
+
+import lombok.Getter;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TokenAccount - In-memory token counter of a user, kept by the token ledger.
+ *
+ * The total consumption is split in two parts:
+ * - {@code persistedTokens}: the value of {@code user_entity.total_tokens} as of the last
+ *   load or flush
+ * - {@code pendingTokens}: usage charged since then and not yet written to the database
+ *
+ * Charges only touch the {@link LongAdder}, so concurrent requests of the same key never
+ * lose an update and never contend on a lock.
+ *
+ * Requests in flight hold a reservation of their estimated cost ({@code reservedTokens}),
+ * so parallel requests cannot all pass the quota check on the same remaining balance.
+ *
+ * Reservations are checked against {@code limit}, the consumption the user may reach through
+ * this instance: the whole quota on a single instance, or the blocks of quota leased by this
+ * instance when the quota is shared by a cluster (see QuotaCoordinatorService).
+ */
+@Getter
+public class TokenAccount {
+
+  /** Id of the UserEntity backing this account */
+  private final Long userId;
+
+  /** Key of the user */
+  private final String key;
+
+  /** Maximum tokens authorized for this user */
+  private final long totalTokensAuthorized;
+
+  /** Model tiers the user is entitled to, in lower case, the first being the default */
+  private final List<String> modelTiers;
+
+  /** Tokens already written to the database */
+  private final AtomicLong persistedTokens;
+
+  /** Tokens charged but not yet written to the database */
+  private final LongAdder pendingTokens = new LongAdder();
+
+  /** Estimated tokens of the requests in flight, not charged yet */
+  private final AtomicLong reservedTokens = new AtomicLong();
+
+  /** Consumption the user may reach through this instance */
+  private final AtomicLong limit;
+
+  /** Whether more quota is being claimed from the cluster for this account */
+  private final AtomicBoolean refilling = new AtomicBoolean();
+
+  /** Last time the account was used, for idle eviction */
+  private volatile long lastAccess = System.currentTimeMillis();
+
+  public TokenAccount(Long userId, String key, long totalTokensAuthorized, long persistedTokens, long limit) {
+    this(userId, key, totalTokensAuthorized, persistedTokens, limit, List.of());
+  }
+
+  public TokenAccount(Long userId, String key, long totalTokensAuthorized, long persistedTokens, long limit,
+                      List<String> modelTiers) {
+    this.userId = userId;
+    this.key = key;
+    this.totalTokensAuthorized = totalTokensAuthorized;
+    this.modelTiers = List.copyOf(modelTiers);
+    this.persistedTokens = new AtomicLong(persistedTokens);
+    this.limit = new AtomicLong(limit);
+  }
+
+  /**
+   * @return the tokens consumed by the user, flushed or not
+   */
+  public long getTotalTokens() {
+    return persistedTokens.get() + pendingTokens.sum();
+  }
+
+  /**
+   * Clamps the tier asked by a client to the tiers of the user: a tier the user is not
+   * entitled to gives the default tier of the user.
+   *
+   * @param requested the tier sent by the client, or null
+   * @return the tier to route with, or null if the user has none
+   */
+  public String tierOf(String requested) {
+    if (requested != null && modelTiers.contains(requested.trim().toLowerCase(Locale.ROOT))) {
+      return requested.trim().toLowerCase(Locale.ROOT);
+    }
+    return modelTiers.isEmpty() ? null : modelTiers.get(0);
+  }
+
+  /**
+   * @return true if the user has exceeded the authorized tokens
+   */
+  public boolean isQuotaExceeded() {
+    return getTotalTokens() > totalTokensAuthorized;
+  }
+
+  /**
+   * Charges tokens to the account.
+   *
+   * @param tokens the number of tokens consumed
+   */
+  public void charge(long tokens) {
+    pendingTokens.add(tokens);
+    touch();
+  }
+
+  /**
+   * Marks the account as used now.
+   */
+  public void touch() {
+    lastAccess = System.currentTimeMillis();
+  }
+
+  /**
+   * Takes the pending tokens for a flush. They are moved to the persisted part right away;
+   * {@link #restore(long)} must be called if the flush fails.
+   *
+   * @return the pending tokens taken
+   */
+  public long drain() {
+    long delta = pendingTokens.sumThenReset();
+    persistedTokens.addAndGet(delta);
+    return delta;
+  }
+
+  /**
+   * Gives back tokens taken by {@link #drain()} after a failed flush.
+   *
+   * @param delta the tokens to give back
+   */
+  public void restore(long delta) {
+    persistedTokens.addAndGet(-delta);
+    pendingTokens.add(delta);
+  }
+
+  /**
+   * Reserves tokens for a request in flight, if the quota allows it.
+   *
+   * @param tokens the estimated cost of the request
+   * @return true if the tokens were reserved, false if the quota would be exceeded
+   */
+  public boolean tryReserve(long tokens) {
+    touch();
+    while (true) {
+      long reserved = reservedTokens.get();
+      if (getTotalTokens() + reserved + tokens > limit.get()) {
+        return false;
+      }
+      if (reservedTokens.compareAndSet(reserved, reserved + tokens)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Gives back tokens reserved by {@link #tryReserve(long)}.
+   *
+   * @param tokens the reserved tokens
+   */
+  public void release(long tokens) {
+    reservedTokens.addAndGet(-tokens);
+  }
+
+  /**
+   * @return the tokens that can still be reserved through this instance
+   */
+  public long getRemainingTokens() {
+    return limit.get() - getTotalTokens() - reservedTokens.get();
+  }
+
+  /**
+   * Raises the limit by a block of quota leased from the cluster.
+   *
+   * @param tokens the leased tokens
+   */
+  public void grant(long tokens) {
+    limit.addAndGet(tokens);
+  }
+
+  /**
+   * Lowers the limit to what is already consumed or reserved, giving up the rest of the
+   * leased quota.
+   *
+   * @return the new limit
+   */
+  public long revokeUnused() {
+    long revoked = getTotalTokens() + reservedTokens.get();
+    limit.set(revoked);
+    return revoked;
+  }
+}
@@ -0,0 +1,53 @@
+package fr.fgroup.chatai.models;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * TokenReservation - Estimated cost of a request held against a user's quota while the
+ * request is in flight.
+ *
+ * The reservation ends exactly once, either settled with the real usage or released when
+ * the request fails or is cancelled; both can be called in any order and more than once.
+ * The reserved tokens are given back by the first of them, the usage is charged by the first
+ * settlement only, even after a release: the tokens were consumed upstream all the same.
+ */
+@Getter
+public class TokenReservation {
+
+  private final TokenAccount account;
+
+  /** Reserved tokens */
+  private final long tokens;
+
+  private final AtomicBoolean released = new AtomicBoolean();
+
+  private final AtomicBoolean settled = new AtomicBoolean();
+
+  public TokenReservation(TokenAccount account, long tokens) {
+    this.account = account;
+    this.tokens = tokens;
+  }
+
+  /**
+   * Ends the reservation and charges the real usage, unless it was already settled.
+   *
+   * @param usedTokens the tokens actually consumed
+   */
+  public void settle(long usedTokens) {
+    release();
+    if (settled.compareAndSet(false, true) && usedTokens > 0) {
+      account.charge(usedTokens);
+    }
+  }
+
+  /**
+   * Ends the reservation without charging anything.
+   */
+  public void release() {
+    if (released.compareAndSet(false, true)) {
+      account.release(tokens);
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package fr.fgroup.chatai.resources;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * Copyright (C) FTarik, Inc - All Rights Reserved Unauthorized copying of this file, via any medium
+ * is strictly prohibited Proprietary and confidential
+ */
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchItemResource {
+  /** Position of the prompt in the batch */
+  private int index;
+  /** HTTP status the prompt would have got on its own */
+  private int status;
+  /** Answer, when status is 200 */
+  private MessageResource message;
+  /** Reason of the failure, when status is not 200 */
+  private String error;
+}
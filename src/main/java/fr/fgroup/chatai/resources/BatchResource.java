@@ -0,0 +1,24 @@
+package fr.fgroup.chatai.resources;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * Copyright (C) FTarik, Inc - All Rights Reserved Unauthorized copying of this file, via any medium
+ * is strictly prohibited Proprietary and confidential
+ */
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+public class BatchResource {
+  /** One result per prompt, in the order of the prompts */
+  private List<BatchItemResource> results;
+  /** Tokens charged for the whole batch */
+  private UsageResource usage;
+}
@@ -0,0 +1,22 @@
+package fr.fgroup.chatai.resources;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * Copyright (C) FTarik, Inc - All Rights Reserved Unauthorized copying of this file, via any medium
+ * is strictly prohibited Proprietary and confidential
+ */
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+public class BulkLogErrorResource {
+  /** Line of the upload, starting at 1 */
+  private int line;
+  /** Reason the record was refused */
+  private String error;
+}
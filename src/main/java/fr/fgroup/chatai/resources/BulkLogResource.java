@@ -0,0 +1,28 @@
+package fr.fgroup.chatai.resources;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * Copyright (C) FTarik, Inc - All Rights Reserved Unauthorized copying of this file, via any medium
+ * is strictly prohibited Proprietary and confidential
+ */
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+public class BulkLogResource {
+  /** Non-empty lines read from the upload */
+  private int lines;
+  /** Records stored */
+  private int accepted;
+  /** Records refused, see errors */
+  private int failed;
+  /** Errors of the first failed lines */
+  private List<BulkLogErrorResource> errors;
+}
@@ -0,0 +1,18 @@
+package fr.fgroup.chatai.resources;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+import lombok.ToString;
+
+/**
+ * Copyright (C) FTarik, Inc - All Rights Reserved Unauthorized copying of this file, via any medium
+ * is strictly prohibited Proprietary and confidential
+ */
+
+@Data
+@ToString(exclude = "embedding")
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class EmbeddingResource {
+  private int index;
+  private float[] embedding;
+}
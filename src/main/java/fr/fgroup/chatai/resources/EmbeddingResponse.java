@@ -0,0 +1,24 @@
+package fr.fgroup.chatai.resources;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * Copyright (C) FTarik, Inc - All Rights Reserved Unauthorized copying of this file, via any medium
+ * is strictly prohibited Proprietary and confidential
+ */
+
+@Data
+@ToString
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class EmbeddingResponse {
+
+  private String object;
+  private String model;
+  private List<EmbeddingResource> data;
+  private UsageResource usage;
+
+}
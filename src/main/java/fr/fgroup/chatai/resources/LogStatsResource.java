@@ -0,0 +1,28 @@
+package fr.fgroup.chatai.resources;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import java.time.LocalDateTime;
+
+/**
+ * Copyright (C) FTarik, Inc - All Rights Reserved Unauthorized copying of this file, via any medium
+ * is strictly prohibited Proprietary and confidential
+ */
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+public class LogStatsResource {
+  /** Start (UTC) of the hour the logs were received in */
+  private LocalDateTime hour;
+  /** Category of the logs, null for the logs without one */
+  private String category;
+  private String actionType;
+  private String actionResult;
+  /** Logs of the hour with these values */
+  private long count;
+}
@@ -0,0 +1,22 @@
+package fr.fgroup.chatai.resources;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+import lombok.ToString;
+
+/**
+ * Copyright (C) FTarik, Inc - All Rights Reserved Unauthorized copying of this file, via any medium
+ * is strictly prohibited Proprietary and confidential
+ */
+
+@Data
+@ToString
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class StreamChoiceResource {
+  /** Partial message: the role on the first chunk, then content fragments */
+  private MessageResource delta;
+  private int index;
+  @JsonProperty("finish_reason")
+  private String finishReason;
+}
@@ -0,0 +1,27 @@
+package fr.fgroup.chatai.resources;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * Copyright (C) FTarik, Inc - All Rights Reserved Unauthorized copying of this file, via any medium
+ * is strictly prohibited Proprietary and confidential
+ */
+
+@Data
+@ToString
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class StreamChunkResource {
+
+  private String id;
+  private String object;
+  private Long created;
+  private String model;
+  private List<StreamChoiceResource> choices;
+  /** Only present on the last chunk, when the request asked for it with stream_options.include_usage */
+  private UsageResource usage;
+
+}
@@ -0,0 +1,21 @@
+package fr.fgroup.chatai.resources.post;
+
+import lombok.Data;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotEmpty;
+import java.util.List;
+
+/**
+ * Copyright (C) FTarik, Inc - All Rights Reserved Unauthorized copying of this file, via any medium
+ * is strictly prohibited Proprietary and confidential
+ */
+
+@Data
+public class BatchRequestResourcePost {
+  /** Single-turn prompts, answered independently */
+  @NotEmpty private List<@Valid MessageResourcePost> prompts;
+  /** Prompts sent upstream at once, capped by chatai.batch.max-concurrency; the cap when null */
+  @Min(1) private Integer concurrency;
+}
@@ -1,10 +1,16 @@
 package fr.fgroup.chatai.services;
 
+import fr.fgroup.chatai.resources.BatchResource;
 import fr.fgroup.chatai.resources.KeyResource;
 import fr.fgroup.chatai.resources.MessageResource;
+import fr.fgroup.chatai.resources.post.BatchRequestResourcePost;
 import fr.fgroup.chatai.resources.post.ContinueMessageResourcePost;
 import fr.fgroup.chatai.resources.post.MessageResourcePost;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.util.List;
 
@@ -17,9 +23,26 @@ import java.util.List;
  * Created 05/03/2023
  */
 public interface CallerService {
+
+  /** Response header carrying the id of the server-side conversation */
+  String CONVERSATION_ID_HEADER = "X-Conversation-Id";
+
+  /** Response header carrying the prompt tokens saved by trimming or summarizing the conversation */
+  String CONTEXT_TOKENS_SAVED_HEADER = "X-Context-Tokens-Saved";
+
   ResponseEntity<KeyResource> generateKey();
 
-  ResponseEntity<MessageResource> askRequest(MessageResourcePost message);
+  Mono<ResponseEntity<MessageResource>> askRequest(MessageResourcePost message, boolean cacheable);
+
+  Mono<ResponseEntity<MessageResource>> continueConversation(List<ContinueMessageResourcePost> messages);
+
+  Mono<ResponseEntity<MessageResource>> continueInConversation(String conversationId, MessageResourcePost message);
+
+  ResponseEntity<SseEmitter> streamRequest(MessageResourcePost message);
+
+  ResponseEntity<SseEmitter> streamConversation(List<ContinueMessageResourcePost> messages);
+
+  Mono<ResponseEntity<BatchResource>> batchRequest(BatchRequestResourcePost batch);
 
-  ResponseEntity<MessageResource> continueConversation(List<ContinueMessageResourcePost> messages);
+  Mono<ResponseEntity<Flux<ServerSentEvent<Object>>>> streamBatchRequest(BatchRequestResourcePost batch);
 }
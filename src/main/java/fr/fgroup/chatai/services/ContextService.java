@@ -0,0 +1,37 @@
+package fr.fgroup.chatai.services;
+
+import fr.fgroup.chatai.models.ContextWindow;
+import fr.fgroup.chatai.models.TokenReservation;
+import fr.fgroup.chatai.resources.post.ContinueMessageResourcePost;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * ContextService - Fits conversations to the prompt budget before they are sent upstream.
+ */
+public interface ContextService {
+
+  /**
+   * Fits a conversation with the configured strategy, summarizing older turns when enabled.
+   *
+   * @param conversationId id of the server-side conversation the summary is cached for, or
+   *                       null for a client-side history (never summarized)
+   * @param messages the conversation, oldest first
+   * @param reserveSummary reserves the estimated tokens of a summary call against the user's quota,
+   *                       empty if the quota would be exceeded; the reservation is settled with the
+   *                       tokens the summary consumed
+   * @return a Mono emitting the messages to send
+   */
+  Mono<ContextWindow> fit(String conversationId, List<ContinueMessageResourcePost> messages,
+                          Function<Long, Mono<TokenReservation>> reserveSummary);
+
+  /**
+   * Fits a conversation without summarizing it (no upstream call).
+   *
+   * @param messages the conversation, oldest first
+   * @return the messages to send
+   */
+  ContextWindow trim(List<ContinueMessageResourcePost> messages);
+}
@@ -0,0 +1,40 @@
+package fr.fgroup.chatai.services;
+
+import fr.fgroup.chatai.models.Conversation;
+import fr.fgroup.chatai.resources.post.ContinueMessageResourcePost;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * ConversationService - Store of server-side conversations.
+ */
+public interface ConversationService {
+
+  /**
+   * Starts a conversation.
+   *
+   * @param ownerKey the key of the user owning the conversation
+   * @param messages the first messages of the conversation
+   * @return the new conversation
+   */
+  Conversation start(String ownerKey, List<ContinueMessageResourcePost> messages);
+
+  /**
+   * Finds a conversation of a user.
+   *
+   * @param conversationId the public id of the conversation
+   * @param ownerKey the key of the user asking for it
+   * @return a Mono emitting the conversation, or empty if it does not exist or belongs to
+   * another user
+   */
+  Mono<Conversation> find(String conversationId, String ownerKey);
+
+  /**
+   * Appends messages to a conversation.
+   *
+   * @param conversation the conversation
+   * @param messages the messages to append
+   */
+  void append(Conversation conversation, List<ContinueMessageResourcePost> messages);
+}
@@ -0,0 +1,20 @@
+package fr.fgroup.chatai.services;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * EmbeddingService - Source of text embeddings used by the semantic cache.
+ *
+ * Selected with {@code chatai.semantic-cache.embedder}: {@code openai} (default) calls the
+ * OpenAI embedding endpoint, {@code local} computes a deterministic embedding in process.
+ */
+public interface EmbeddingService {
+
+  /**
+   * Embeds a text.
+   *
+   * @param text the text to embed
+   * @return a Mono emitting the embedding
+   */
+  Mono<float[]> embed(String text);
+}
@@ -0,0 +1,12 @@
+package fr.fgroup.chatai.services;
+
+/**
+ * LogPartitionService - Keeps the daily partitions of the logs.
+ */
+public interface LogPartitionService {
+
+  /**
+   * Creates the partitions of the coming days and drops the partitions past the retention.
+   */
+  void maintain();
+}
@@ -1,11 +1,24 @@
 package fr.fgroup.chatai.services;
 
+import fr.fgroup.chatai.resources.BulkLogResource;
 import fr.fgroup.chatai.resources.LogResource;
 import org.springframework.http.ResponseEntity;
 
+import java.io.InputStream;
+
 
 public interface LogService {
 
   ResponseEntity<Void> create(String data);
   ResponseEntity<Void> logs(LogResource resource);
+
+  /**
+   * Queues many logs uploaded as NDJSON, one record per line, for the ingestion workers.
+   *
+   * @param body the upload, read as a stream
+   * @param gzip whether the upload is gzip compressed
+   * @param type {@code system} for LogEntity records, {@code front} for LogResource records
+   * @return the count of accepted and refused records, with the errors of the refused lines
+   */
+  ResponseEntity<BulkLogResource> bulk(InputStream body, boolean gzip, String type);
 }
@@ -0,0 +1,31 @@
+package fr.fgroup.chatai.services;
+
+import fr.fgroup.chatai.resources.LogStatsResource;
+import org.springframework.http.ResponseEntity;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * LogStatsService - Hourly counts of the stored logs, for dashboards.
+ */
+public interface LogStatsService {
+
+  /**
+   * Recomputes the counts of the recent hours from the stored logs.
+   */
+  void rollup();
+
+  /**
+   * Reads the hourly counts of a range, from the rollups only.
+   *
+   * @param from start (UTC) of the range, inclusive; null for the last 24 hours
+   * @param to end (UTC) of the range, exclusive; null for now
+   * @param category only the logs of this category, or null for all
+   * @param actionType only the logs of this action type, or null for all
+   * @param actionResult only the logs of this action result, or null for all
+   * @return the counts by hour, category, action type and action result, ordered by hour
+   */
+  ResponseEntity<List<LogStatsResource>> stats(LocalDateTime from, LocalDateTime to, String category,
+                                               String actionType, String actionResult);
+}
@@ -0,0 +1,44 @@
+package fr.fgroup.chatai.services;
+
+import fr.fgroup.chatai.models.ModelRoute;
+import fr.fgroup.chatai.models.TokenAccount;
+
+/**
+ * ModelRouterService - Picks the model of each completion.
+ */
+public interface ModelRouterService {
+
+  /**
+   * Chooses the models of a completion.
+   *
+   * @param promptTokens prompt tokens of the messages to send
+   * @param account the user's token account
+   * @param requestedTier tier requested by the client, or null; clamped to the tiers of the user
+   * @return the models to try, in order
+   */
+  ModelRoute route(long promptTokens, TokenAccount account, String requestedTier);
+
+  /**
+   * Tells whether a failed call may be retried on the next model of its route.
+   *
+   * @param failure the failure of the call
+   * @return true if the model was overloaded or unavailable
+   */
+  boolean isOverloaded(Throwable failure);
+
+  /**
+   * Records that a completion moved on to the next model of its route.
+   *
+   * @param from the overloaded model
+   * @param to the next model
+   */
+  void recordFallback(String from, String to);
+
+  /**
+   * Records the latency of an answered completion.
+   *
+   * @param model the model
+   * @param nanos the latency in nanoseconds
+   */
+  void recordLatency(String model, long nanos);
+}
@@ -0,0 +1,67 @@
+package fr.fgroup.chatai.services;
+
+import fr.fgroup.chatai.entities.UserEntity;
+import fr.fgroup.chatai.models.TokenAccount;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * QuotaCoordinatorService - Share of the users' quotas between the instances of the service.
+ *
+ * Used by the token ledger to size the limit of its accounts, to claim more quota when an
+ * account runs out and to write the consumption back to the database.
+ */
+public interface QuotaCoordinatorService {
+
+  /**
+   * @param userEntity the user whose account is loaded
+   * @return the initial limit of the account
+   */
+  long initialLimit(UserEntity userEntity);
+
+  /**
+   * Claims more quota for an account. May block on the database.
+   *
+   * @param account the account
+   * @param tokens the tokens needed by the request that could not be reserved
+   * @return true if the account's limit was raised
+   */
+  boolean refill(TokenAccount account, long tokens);
+
+  /**
+   * Called after each reservation, to claim more quota ahead of need without blocking.
+   *
+   * @param account the account
+   */
+  void onReserved(TokenAccount account);
+
+  /**
+   * Writes consumption to the database.
+   *
+   * @param accounts the accounts
+   * @param deltas the tokens consumed by each account since the previous write
+   */
+  void write(List<TokenAccount> accounts, List<Long> deltas);
+
+  /**
+   * Takes the users whose unused quota other instances asked this one to give back.
+   *
+   * @return the user ids, possibly empty
+   */
+  Set<Long> takeReleaseRequests();
+
+  /**
+   * Gives back the unused quota of an account, keeping what is consumed or reserved.
+   *
+   * @param account the account
+   */
+  void releaseUnused(TokenAccount account);
+
+  /**
+   * Gives back the whole remaining quota of an account dropped from memory.
+   *
+   * @param account the account, fully written
+   */
+  void close(TokenAccount account);
+}
@@ -0,0 +1,27 @@
+package fr.fgroup.chatai.services;
+
+import fr.fgroup.chatai.models.RateLimitPermit;
+
+/**
+ * RateLimiterService - Per-key admission control of the chat requests.
+ */
+public interface RateLimiterService {
+
+  /**
+   * Admits a request of a key, or tells when to retry.
+   *
+   * @param key the user's key, already validated
+   * @return the permit, to release once the request is complete if granted
+   */
+  RateLimitPermit tryAcquire(String key);
+
+  /**
+   * Charges requests admitted as one, e.g. the prompts of a batch after the first, to the
+   * requests per second of a key. The key may go into debt: its next requests wait until
+   * the debt is paid back.
+   *
+   * @param key the user's key
+   * @param requests the requests to charge
+   */
+  void charge(String key, int requests);
+}
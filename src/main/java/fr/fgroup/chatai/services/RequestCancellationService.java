@@ -0,0 +1,63 @@
+package fr.fgroup.chatai.services;
+
+import org.springframework.http.ResponseEntity;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * RequestCancellationService - Stops the work of the requests nobody waits for anymore.
+ */
+public interface RequestCancellationService {
+
+  /** Cancellation reason: the client closed the connection */
+  String DISCONNECT = "disconnect";
+
+  /** Cancellation reason: the deadline of the client ({@code X-Request-Timeout}) expired */
+  String DEADLINE = "deadline";
+
+  /**
+   * Ties a reactive call to the current request: the call is cancelled when the client
+   * disconnects, and answered GATEWAY_TIMEOUT when the client's deadline expires.
+   * Must be called on the servlet thread of the request.
+   *
+   * @param call the call answering the request
+   * @param <T> type of the response body
+   * @return the bound call
+   */
+  <T> Mono<ResponseEntity<T>> bind(Mono<ResponseEntity<T>> call);
+
+  /**
+   * Ties a stream of events to the current request: the stream is cancelled when the client
+   * disconnects and completed when the client's deadline expires.
+   * Must be called on the servlet thread of the request.
+   *
+   * @param events the events answering the request
+   * @param <T> type of the events
+   * @return the bound events
+   */
+  <T> Flux<T> bind(Flux<T> events);
+
+  /**
+   * Time left before the deadline of the current request.
+   *
+   * @param max the server-side limit
+   * @return the lower of the limit and the time left, ZERO if the deadline has expired
+   */
+  Duration timeLeft(Duration max);
+
+  /**
+   * Records a request cancelled outside {@link #bind}.
+   *
+   * @param reason {@link #DISCONNECT} or {@link #DEADLINE}
+   */
+  void recordCancelled(String reason);
+
+  /**
+   * Records the reserved tokens a cancelled request left unbilled.
+   *
+   * @param tokens the tokens, ignored if not positive
+   */
+  void recordSavedTokens(long tokens);
+}
@@ -0,0 +1,43 @@
+package fr.fgroup.chatai.services;
+
+import fr.fgroup.chatai.resources.MessageResource;
+import fr.fgroup.chatai.resources.post.ContinueMessageResourcePost;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * ResponseCacheService - Exact-match cache of assistant answers.
+ */
+public interface ResponseCacheService {
+
+  /**
+   * Computes the cache key of a request.
+   *
+   * @param model the model the request is sent to
+   * @param messages the messages of the request
+   * @return the cache key, a hash of the model and the normalized messages
+   */
+  String keyOf(String model, List<ContinueMessageResourcePost> messages);
+
+  /**
+   * Looks an answer up.
+   *
+   * @param key the cache key
+   * @return a Mono emitting the cached answer, or empty on a miss
+   */
+  Mono<MessageResource> get(String key);
+
+  /**
+   * Stores an answer.
+   *
+   * @param key the cache key
+   * @param message the assistant's answer
+   */
+  void put(String key, MessageResource message);
+
+  /**
+   * @return the number of tokens charged for an answer served from the cache
+   */
+  long getCachedTokens();
+}
@@ -0,0 +1,29 @@
+package fr.fgroup.chatai.services;
+
+import fr.fgroup.chatai.models.SemanticCacheLookup;
+import fr.fgroup.chatai.resources.MessageResource;
+import reactor.core.publisher.Mono;
+
+/**
+ * SemanticCacheService - Cache of assistant answers matched by prompt similarity.
+ */
+public interface SemanticCacheService {
+
+  /**
+   * Looks up the answer of a similar prompt.
+   *
+   * @param model the model the prompt is sent to
+   * @param prompt the user's prompt
+   * @return a Mono emitting the lookup (hit or miss), or empty if the cache is disabled or
+   * the prompt could not be embedded
+   */
+  Mono<SemanticCacheLookup> lookup(String model, String prompt);
+
+  /**
+   * Stores the answer of a prompt that missed the cache, asynchronously.
+   *
+   * @param lookup the lookup that missed
+   * @param message the assistant's answer
+   */
+  void put(SemanticCacheLookup lookup, MessageResource message);
+}
@@ -0,0 +1,64 @@
+package fr.fgroup.chatai.services;
+
+import fr.fgroup.chatai.models.TokenAccount;
+import fr.fgroup.chatai.models.TokenReservation;
+
+/**
+ * TokenLedgerService - In-memory ledger of token consumption, written behind to the database.
+ *
+ * Quota checks and usage increments are served from memory; the accumulated usage is
+ * flushed to {@code user_entity} periodically and on shutdown.
+ */
+public interface TokenLedgerService {
+
+  /**
+   * Returns the account of a key if it is already in memory.
+   *
+   * Never touches the database, so it can be called from a non-blocking pipeline.
+   *
+   * @param key the user's key
+   * @return the account, or null if it is not loaded yet
+   */
+  TokenAccount getCachedAccount(String key);
+
+  /**
+   * Returns the account of a key, loading it from the database on first use.
+   *
+   * @param key the user's key
+   * @return the account
+   * @throws fr.fgroup.chatai.exceptions.ResourceNotFoundException if no user has this key
+   */
+  TokenAccount getAccount(String key);
+
+  /**
+   * Charges consumed tokens to an account. The database is updated by the next flush.
+   *
+   * @param account the account to charge
+   * @param tokens the number of tokens consumed
+   */
+  void charge(TokenAccount account, long tokens);
+
+  /**
+   * Reserves the estimated cost of a request against an account's quota.
+   *
+   * @param account the account
+   * @param tokens the estimated cost
+   * @return the reservation, to settle with the real usage, or null if the quota would be exceeded
+   */
+  TokenReservation reserve(TokenAccount account, long tokens);
+
+  /**
+   * Reserves the estimated cost of a request, claiming more quota from the cluster first if
+   * the share of this instance is not enough. May block on the database.
+   *
+   * @param account the account
+   * @param tokens the estimated cost
+   * @return the reservation, or null if the quota would be exceeded
+   */
+  TokenReservation reserveWithRefill(TokenAccount account, long tokens);
+
+  /**
+   * Writes the pending usage of every account to the database.
+   */
+  void flush();
+}
@@ -0,0 +1,28 @@
+package fr.fgroup.chatai.services;
+
+import fr.fgroup.chatai.resources.post.ContinueMessageResourcePost;
+
+import java.util.List;
+
+/**
+ * TokenizerService - Local estimation of the tokens of a prompt.
+ */
+public interface TokenizerService {
+
+  /**
+   * Counts the tokens of a text.
+   *
+   * @param text the text
+   * @return the number of tokens
+   */
+  int countTokens(String text);
+
+  /**
+   * Counts the prompt tokens of a chat completion request, including the per-message
+   * framing added by the chat format.
+   *
+   * @param messages the conversation
+   * @return the number of prompt tokens
+   */
+  int countTokens(List<ContinueMessageResourcePost> messages);
+}
@@ -0,0 +1,36 @@
+package fr.fgroup.chatai.services;
+
+import fr.fgroup.chatai.entities.UserEntity;
+
+/**
+ * UserKeyService - Validation of user keys for the authentication filter, and cached snapshots
+ * of their users.
+ */
+public interface UserKeyService {
+
+  /**
+   * Tells whether a key belongs to a user.
+   *
+   * @param key the key sent in the Authorization header
+   * @return false if the key is known to be invalid, true otherwise
+   */
+  boolean isValid(String key);
+
+  /**
+   * Returns the user of a key as of its last lookup: the snapshot is cached with the key and
+   * read again from the database once older than {@code chatai.keys.valid.ttl}. Its token
+   * totals may therefore lag behind the token ledger.
+   *
+   * @param key the user's key
+   * @return the user, or null if the key belongs to no user or cannot be looked up
+   */
+  UserEntity getUser(String key);
+
+  /**
+   * Records a newly generated key as valid.
+   *
+   * @param key the new key
+   * @param userEntity the user owning it
+   */
+  void register(String key, UserEntity userEntity);
+}
@@ -1,48 +1,95 @@
 package fr.fgroup.chatai.services.impl;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.fgroup.chatai.clients.OpenAiChatCodec;
+import fr.fgroup.chatai.clients.OpenAiClient;
+import fr.fgroup.chatai.clients.UpstreamHedging;
+import fr.fgroup.chatai.clients.UpstreamHttpClient;
+import fr.fgroup.chatai.clients.UpstreamPool;
+import fr.fgroup.chatai.clients.UpstreamResilience;
+import fr.fgroup.chatai.clients.UpstreamTarget;
 import fr.fgroup.chatai.dao.services.UserDaoService;
 import fr.fgroup.chatai.dao.specifications.UserSpecifications;
 import fr.fgroup.chatai.entities.UserEntity;
+import fr.fgroup.chatai.enums.AIRoleEnum;
 import fr.fgroup.chatai.exceptions.ExpectationFailedException;
+import fr.fgroup.chatai.exceptions.UpstreamUnavailableException;
+import fr.fgroup.chatai.models.ContextWindow;
+import fr.fgroup.chatai.models.ModelRoute;
+import fr.fgroup.chatai.models.Conversation;
+import fr.fgroup.chatai.models.SemanticCacheLookup;
+import fr.fgroup.chatai.models.TokenAccount;
+import fr.fgroup.chatai.models.TokenReservation;
+import fr.fgroup.chatai.resources.BatchItemResource;
+import fr.fgroup.chatai.resources.BatchResource;
 import fr.fgroup.chatai.resources.KeyResource;
 import fr.fgroup.chatai.resources.MessageResource;
+import fr.fgroup.chatai.resources.UsageResource;
+import fr.fgroup.chatai.resources.post.BatchRequestResourcePost;
 import fr.fgroup.chatai.resources.post.ContinueMessageResourcePost;
 import fr.fgroup.chatai.resources.post.MessageResourcePost;
 import fr.fgroup.chatai.resources.RequestResponse;
 import fr.fgroup.chatai.services.CallerService;
+import fr.fgroup.chatai.services.ContextService;
+import fr.fgroup.chatai.services.ModelRouterService;
+import fr.fgroup.chatai.services.RateLimiterService;
+import fr.fgroup.chatai.services.RequestCancellationService;
+import fr.fgroup.chatai.services.ConversationService;
+import fr.fgroup.chatai.services.ResponseCacheService;
+import fr.fgroup.chatai.services.SemanticCacheService;
+import fr.fgroup.chatai.services.TokenLedgerService;
+import fr.fgroup.chatai.services.TokenizerService;
+import fr.fgroup.chatai.services.UserKeyService;
 import fr.fgroup.chatai.utils.HasherUtil;
+import fr.fgroup.chatai.utils.ReactiveUserContextHolder;
+import fr.fgroup.chatai.utils.SingleFlight;
 import fr.fgroup.chatai.utils.UserContextHolder;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.codec.DecodingException;
 import org.springframework.data.jpa.domain.Specification;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Scheduler;
 
-import java.io.IOException;
-import java.net.URLDecoder;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * CallerServiceImpl - Core service for handling ChatAI requests to OpenAI's GPT API.
  * 
  * This service is responsible for:
  * - Generating unique user keys for API access
- * - Managing user token quotas and consumption
- * - Forwarding chat requests to OpenAI's API
- * - Handling single-turn and multi-turn conversations
- * - URL encoding/decoding for request/response data
+ * - Managing user token quotas and consumption (through the in-memory token ledger)
+ * - Forwarding chat requests to OpenAI's API through a non-blocking pipeline, coalescing
+ *   identical requests in flight
+ * - Handling single-turn and multi-turn conversations, client-side (full history uploaded)
+ *   or server-side (only the new message uploaded, see ConversationService)
+ * - Answering repeated and near-duplicate single-turn prompts from the response caches
+ * - Streaming completions to the client as Server-Sent Events
+ * - Fitting long conversations to the prompt budget (see ContextService) before sending them
+ * - Writing requests and reading answers through the streaming OpenAiChatCodec
  * 
- * The service maintains token tracking to enforce user quotas and prevent abuse.
+ * The service maintains token tracking to enforce user quotas and prevent abuse: the
+ * prompt tokens of each request are estimated locally and reserved before the call, then
+ * reconciled with the real usage.
  * Each user has a maximum token limit (totalTokensAuthorized) and current token count.
  * 
  * @author Tarik FAMIL (contact: tarikfamil@gmail.com)
@@ -53,28 +100,148 @@ import java.util.concurrent.TimeUnit;
 @Service
 public class CallerServiceImpl implements CallerService {
 
-  /** OpenAI API key for authentication */
-  private final String apiKey;
-  
-  /** OpenAI API base URL for making requests */
-  private final String openaiBaseUrl;
-  
   /** Data access service for UserEntity operations */
   private final UserDaoService userDaoService;
 
+  /** In-memory ledger serving quota checks and usage charges */
+  private final TokenLedgerService tokenLedgerService;
+
+  /** Local tokenizer estimating the prompt tokens reserved before each call */
+  private final TokenizerService tokenizerService;
+
+  /** Tokens reserved for the completion on top of the estimated prompt */
+  private final long completionReserve;
+
+  /** Cached key validation, told about newly generated keys */
+  private final UserKeyService userKeyService;
+
+  /** Exact-match cache of the answers to single-turn prompts */
+  private final ResponseCacheService responseCacheService;
+
+  /** Similarity cache of the answers to single-turn prompts */
+  private final SemanticCacheService semanticCacheService;
+
+  /** Store of the server-side conversations */
+  private final ConversationService conversationService;
+
+  /** Trimming and summarization of long conversations */
+  private final ContextService contextService;
+
+  /** Shared HTTP client used to stream completions from OpenAI */
+  private final UpstreamHttpClient upstreamHttpClient;
+
+  /** Non-blocking OpenAI client used by ask and continue */
+  private final OpenAiClient openAiClient;
+
+  /** Circuit breaker and bulkhead of the streamed calls */
+  private final UpstreamResilience upstreamResilience;
+
+  /** Upstream targets the streamed calls are spread over */
+  private final UpstreamPool upstreamPool;
+
+  /** Hedging of the slow completions */
+  private final UpstreamHedging upstreamHedging;
+
+  /** Choice of the model of each completion */
+  private final ModelRouterService modelRouterService;
+
+  /** Per-key admission limits, charged with the prompts of the batches */
+  private final RateLimiterService rateLimiterService;
+
+  /** Deadlines of the streams and metrics of the cancelled requests */
+  private final RequestCancellationService requestCancellationService;
+
+  /** Scheduler running the blocking calls (ledger loads) of the reactive pipeline */
+  private final Scheduler blockingScheduler;
+
+  /** Reader and writer of the OpenAI chat JSON */
+  private final OpenAiChatCodec codec;
+
+  /** Maximum duration of a streamed completion before the SSE connection is closed */
+  private final Duration streamTimeout;
+
+  /** Maximum prompts of a batch */
+  private final int batchMaxPrompts;
+
+  /** Maximum prompts of a batch sent upstream at once */
+  private final int batchMaxConcurrency;
+
+  /** Upstream completions in flight, keyed by the hash of the request body */
+  private final SingleFlight<String, RequestResponse> inFlightCompletions;
+
   /**
    * Constructor for dependency injection.
    * 
-   * @param apiKey OpenAI API key (injected from application properties)
-   * @param openaiBaseUrl OpenAI API base URL (injected from application properties)
    * @param userDaoService DAO service for user operations
+   * @param tokenLedgerService in-memory token ledger
+   * @param tokenizerService local prompt token estimation
+   * @param completionReserve tokens reserved for the completion on top of the prompt
+   * @param userKeyService cached key validation
+   * @param responseCacheService exact-match response cache
+   * @param semanticCacheService similarity response cache
+   * @param conversationService server-side conversation store
+   * @param contextService context window management
+   * @param upstreamHttpClient shared pooled HTTP client for streamed OpenAI calls
+   * @param openAiClient non-blocking OpenAI client
+   * @param upstreamResilience circuit breaker and bulkhead of the streamed calls
+   * @param upstreamPool upstream targets the streamed calls are spread over
+   * @param upstreamHedging hedging of the slow completions
+   * @param modelRouterService choice of the model of each completion
+   * @param rateLimiterService per-key admission limits
+   * @param requestCancellationService deadlines and cancellation metrics
+   * @param blockingScheduler scheduler for blocking calls of the reactive pipeline
+   * @param codec OpenAI chat JSON codec
+   * @param streamTimeout maximum duration of a streamed completion
+   * @param batchMaxPrompts maximum prompts of a batch
+   * @param batchMaxConcurrency maximum prompts of a batch sent upstream at once
+   * @param meterRegistry registry of the coalescing metrics
    */
-  public CallerServiceImpl(@Value("${openai.api-key}") String apiKey,
-                           @Value("${openai.url}") String openaiBaseUrl,
-                           UserDaoService userDaoService) {
-    this.apiKey = apiKey;
-    this.openaiBaseUrl = openaiBaseUrl;
+  public CallerServiceImpl(UserDaoService userDaoService,
+                           TokenLedgerService tokenLedgerService,
+                           TokenizerService tokenizerService,
+                           @Value("${chatai.quota.completion-reserve:0}") long completionReserve,
+                           UserKeyService userKeyService,
+                           ResponseCacheService responseCacheService,
+                           SemanticCacheService semanticCacheService,
+                           ConversationService conversationService,
+                           ContextService contextService,
+                           UpstreamHttpClient upstreamHttpClient,
+                           OpenAiClient openAiClient,
+                           UpstreamResilience upstreamResilience,
+                           UpstreamPool upstreamPool,
+                           UpstreamHedging upstreamHedging,
+                           ModelRouterService modelRouterService,
+                           RateLimiterService rateLimiterService,
+                           RequestCancellationService requestCancellationService,
+                           Scheduler blockingScheduler,
+                           OpenAiChatCodec codec,
+                           @Value("${openai.stream.timeout:5m}") Duration streamTimeout,
+                           @Value("${chatai.batch.max-prompts:500}") int batchMaxPrompts,
+                           @Value("${chatai.batch.max-concurrency:16}") int batchMaxConcurrency,
+                           MeterRegistry meterRegistry) {
     this.userDaoService = userDaoService;
+    this.tokenLedgerService = tokenLedgerService;
+    this.tokenizerService = tokenizerService;
+    this.completionReserve = completionReserve;
+    this.userKeyService = userKeyService;
+    this.responseCacheService = responseCacheService;
+    this.semanticCacheService = semanticCacheService;
+    this.conversationService = conversationService;
+    this.contextService = contextService;
+    this.upstreamHttpClient = upstreamHttpClient;
+    this.openAiClient = openAiClient;
+    this.upstreamResilience = upstreamResilience;
+    this.upstreamPool = upstreamPool;
+    this.upstreamHedging = upstreamHedging;
+    this.modelRouterService = modelRouterService;
+    this.rateLimiterService = rateLimiterService;
+    this.requestCancellationService = requestCancellationService;
+    this.blockingScheduler = blockingScheduler;
+    this.codec = codec;
+    this.streamTimeout = streamTimeout;
+    this.batchMaxPrompts = batchMaxPrompts;
+    this.batchMaxConcurrency = Math.max(1, batchMaxConcurrency);
+    this.inFlightCompletions = new SingleFlight<>("chatai.coalescing", meterRegistry);
   }
 
   /**
@@ -109,6 +276,7 @@ public class CallerServiceImpl implements CallerService {
 
         userEntity.setKey(key);
         userDaoService.save(userEntity);
+        userKeyService.register(key, userEntity);
         return new ResponseEntity<>(new KeyResource(key), HttpStatus.OK);
       } catch (NoSuchAlgorithmException e) {
         throw new ExpectationFailedException("Failed to generate a key : {}", e);
@@ -117,87 +285,87 @@ public class CallerServiceImpl implements CallerService {
     return new ResponseEntity<>(new KeyResource(userEntity.getKey()), HttpStatus.OK);
   }
 
+  /**
+   * Sends a single message to OpenAI.
+   *
+   * Identical prompts are answered from the response cache unless the client opts out
+   * with {@code Cache-Control: no-cache} or {@code no-store}.
+   * The answer starts a server-side conversation whose id is returned in the
+   * {@code X-Conversation-Id} header.
+   *
+   * @param message the user's message
+   * @param cacheable whether the answer may be served from and stored in the cache
+   * @return a Mono emitting the assistant's response or the appropriate HTTP status
+   */
   @Override
-  public ResponseEntity<MessageResource> askRequest(MessageResourcePost message) {
-    // Retrieve user entity to check token quota
-    log.debug("Get user with key : {}", UserContextHolder.getContext().getKey());
-    UserEntity userEntity;
-    try {
-      userEntity = userDaoService.findOne(Specification.where(
-              UserSpecifications.withKey(UserContextHolder.getContext().getKey())));
-      // Check if user has exceeded token quota
-      if (userEntity.getTotalTokens() > userEntity.getTotalTokensAuthorized()) {
-        log.warn("User token quota exceeded. Current: {}, Authorized: {}", 
-                userEntity.getTotalTokens(), userEntity.getTotalTokensAuthorized());
-        return new ResponseEntity<>(HttpStatus.CONFLICT);
-      }
-    } catch (Exception e) {
-      log.error("No user found with key : {}", UserContextHolder.getContext().getKey());
-      return new ResponseEntity<>(HttpStatus.FORBIDDEN);
-    }
-    
-    // Prepare OpenAI API request
-    String model = "gpt-3.5-turbo";
-    String role = "user";
-    String content = message.getContent();
-    // URL encode content to handle special characters
-    content = URLEncoder.encode(content, StandardCharsets.UTF_8);
-
-    String body = String.format("{\"model\": \"%s\",\"messages\": [{\"role\": \"%s\", \"content\": \"%s\"}]}",
-            model, role, content);
-
-    // Configure HTTP client with timeouts
-    OkHttpClient client = new OkHttpClient.Builder()
-            .connectTimeout(15, TimeUnit.SECONDS)
-            .writeTimeout(15, TimeUnit.SECONDS)
-            .readTimeout(30, TimeUnit.SECONDS)
-            .build();
-    MediaType mediaType = MediaType.parse("application/json");
-
-    RequestBody requestBody = RequestBody.Companion.create(body, mediaType);
+  public Mono<ResponseEntity<MessageResource>> askRequest(MessageResourcePost message, boolean cacheable) {
+    List<ContinueMessageResourcePost> messages = List.of(userMessage(message));
+    return complete(null, messages, cacheable, message.getContent())
+            .flatMap(response -> recordTurn(response, messages, null));
+  }
 
-    // Build and send request to OpenAI
-    Request request = new Request.Builder()
-            .url(openaiBaseUrl + "/chat/completions")
-            .post(requestBody)
-            .addHeader("Content-Type", "application/json")
-            .addHeader("Authorization", "Bearer " + apiKey)
-            .build();
+  /**
+   * Continues a server-side conversation.
+   *
+   * Only the new message is sent by the client; the history is read from the conversation
+   * store and the new turn (message and answer) is appended to it once answered.
+   *
+   * @param conversationId the id returned by a previous ask, in the {@code X-Conversation-Id} header
+   * @param message the user's new message
+   * @return a Mono emitting the assistant's response, NOT_FOUND if the user has no such
+   * conversation, or the appropriate HTTP status
+   */
+  @Override
+  public Mono<ResponseEntity<MessageResource>> continueInConversation(String conversationId,
+                                                                      MessageResourcePost message) {
+    return ReactiveUserContextHolder.getContext()
+            .flatMap(context -> conversationService.find(conversationId, context.getKey()))
+            .flatMap(conversation -> {
+              List<ContinueMessageResourcePost> turn = List.of(userMessage(message));
+              List<ContinueMessageResourcePost> messages = conversation.getMessages();
+              messages.addAll(turn);
+              return complete(conversation.getId(), messages, false, null)
+                      .flatMap(response -> recordTurn(response, turn, conversation));
+            })
+            .switchIfEmpty(Mono.fromSupplier(() -> new ResponseEntity<>(HttpStatus.NOT_FOUND)));
+  }
 
-    String responseBody = null;
-    try {
-      Response response = client.newCall(request).execute();
-      if (response.body() != null && response.code() == 200) {
-        responseBody = Objects.requireNonNull(response.body()).string();
-        log.debug(responseBody);
-        ObjectMapper objectMapper = new ObjectMapper();
-        RequestResponse requestResponse = objectMapper.readValue(responseBody, RequestResponse.class);
-        // Update user token consumption
-        if (requestResponse != null && requestResponse.getUsage() != null) {
-          userEntity.setTotalTokens(userEntity.getTotalTokens() + requestResponse.getUsage().getTotalTokens());
-        } else {
-          log.error("requestResponse or requestResponse.usage is null. billing is at risk");
-        }
-        // Extract and return the assistant's response
-        if (requestResponse != null && requestResponse.getChoices() != null
-                && !requestResponse.getChoices().isEmpty()) {
-          MessageResource messageResponse = new MessageResource(
-                  requestResponse.getChoices().get(0).getMessage().getRole(),
-                  requestResponse.getChoices().get(0).getMessage().getContent());
-          messageResponse.setContent(URLDecoder.decode(messageResponse.getContent()));
-          return new ResponseEntity<>(messageResponse, HttpStatus.OK);
-        } else {
-          log.error("Error while getting data from requestResponse : {}", requestResponse);
-        }
-      } else {
-        log.error("Error while communicating with chat gpt code : {}, responseBody : {}", response.code(), response);
-      }
-    } catch (JsonProcessingException e) {
-      log.error("Error while parsing data to object : {}", responseBody, e);
-    } catch (IOException e) {
-      throw new ExpectationFailedException("Something went wrong while communicating with Openai", e);
+  /**
+   * Records an answered turn in its conversation, starting one if needed, and returns the
+   * conversation id to the client.
+   *
+   * @param response the answer
+   * @param turn the user's messages of the turn
+   * @param conversation the conversation, or null to start one
+   * @return the answer with the {@code X-Conversation-Id} header, or the response untouched
+   * if the turn failed
+   */
+  private Mono<ResponseEntity<MessageResource>> recordTurn(ResponseEntity<MessageResource> response,
+                                                           List<ContinueMessageResourcePost> turn,
+                                                           Conversation conversation) {
+    if (response.getStatusCode() != HttpStatus.OK || response.getBody() == null) {
+      return Mono.just(response);
     }
-    return new ResponseEntity<>(HttpStatus.EXPECTATION_FAILED);
+    ContinueMessageResourcePost answer = new ContinueMessageResourcePost();
+    AIRoleEnum role = response.getBody().getRole();
+    answer.setRole((role != null ? role : AIRoleEnum.ASSISTANT).getName());
+    answer.setContent(response.getBody().getContent());
+    List<ContinueMessageResourcePost> messages = new ArrayList<>(turn);
+    messages.add(answer);
+    return ReactiveUserContextHolder.getContext()
+            .map(context -> {
+              Conversation recorded = conversation;
+              if (recorded == null) {
+                recorded = conversationService.start(context.getKey(), messages);
+              } else {
+                conversationService.append(recorded, messages);
+              }
+              return ResponseEntity.ok()
+                      .headers(response.getHeaders())
+                      .header(CONVERSATION_ID_HEADER, recorded.getId())
+                      .body(response.getBody());
+            })
+            .defaultIfEmpty(response);
   }
 
   /**
@@ -209,89 +377,657 @@ public class CallerServiceImpl implements CallerService {
    * 
    * @param messages List of messages representing the conversation history
    *                 (includes both user and assistant messages)
-   * @return ResponseEntity containing the assistant's response or appropriate HTTP status
+   * @return a Mono emitting the assistant's response or the appropriate HTTP status
    * @throws ExpectationFailedException if communication with OpenAI fails
    */
   @Override
-  public ResponseEntity<MessageResource> continueConversation(List<ContinueMessageResourcePost> messages) {
-    // Retrieve user entity to check token quota
+  public Mono<ResponseEntity<MessageResource>> continueConversation(List<ContinueMessageResourcePost> messages) {
+    return complete(null, messages, false, null);
+  }
+
+  /**
+   * Non-blocking completion pipeline shared by ask and continue.
+   *
+   * 1. Reads the user key from the Reactor context
+   * 2. Gets the user's token account from the ledger, fits the conversation to the prompt
+   *    budget (a summary call is reserved and billed on its own), picks the models with {@link ModelRouterService} and reserves the locally
+   *    estimated prompt tokens against the quota
+   * 3. Serves the answer from the exact-match then from the semantic cache when possible,
+   *    charging the cached-token amount
+   * 4. Otherwise calls OpenAI without holding any thread while waiting, moving on to the
+   *    next model of the route when one is overloaded
+   * 5. Settles the reservation with the consumed tokens, maps the answer to a MessageResource
+   *    and caches it; the reservation is released if the request fails or is cancelled (client
+   *    disconnect or deadline, see {@link RequestCancellationService})
+   *
+   * @param conversationId the server-side conversation, or null
+   * @param conversation the conversation sent to OpenAI
+   * @param cacheable whether the answer may be served from and stored in the caches
+   * @param prompt the single-turn prompt searched in the semantic cache
+   * @return a Mono emitting the assistant's response or the appropriate HTTP status
+   */
+  private Mono<ResponseEntity<MessageResource>> complete(String conversationId,
+                                                         List<ContinueMessageResourcePost> conversation,
+                                                         boolean cacheable, String prompt) {
+    return ReactiveUserContextHolder.getContext()
+            .flatMap(context -> findAccount(context.getKey())
+                    .flatMap(account -> contextService.fit(conversationId, conversation,
+                                    estimate -> reserve(account, estimate))
+                            .flatMap(window -> complete(account, window, context.getModelTier(), cacheable,
+                                    prompt))))
+            .switchIfEmpty(Mono.fromSupplier(() -> new ResponseEntity<>(HttpStatus.FORBIDDEN)));
+  }
+
+  private Mono<ResponseEntity<MessageResource>> complete(TokenAccount account, ContextWindow window, String tier,
+                                                         boolean cacheable, String prompt) {
+    ModelRoute route = modelRouterService.route(window.getTokens(), account, tier);
+    // Check the token quota, counting the requests already in flight
+    return reserve(account, window.getMessages())
+            .flatMap(reservation -> complete(reservation, window, route, cacheable, prompt))
+            .switchIfEmpty(Mono.fromSupplier(() -> new ResponseEntity<>(HttpStatus.CONFLICT)));
+  }
+
+  private Mono<ResponseEntity<MessageResource>> complete(TokenReservation reservation, ContextWindow window,
+                                                         ModelRoute route, boolean cacheable, String prompt) {
+    List<ContinueMessageResourcePost> messages = window.getMessages();
+    Mono<ResponseEntity<MessageResource>> response;
+    if (!cacheable) {
+      response = callOpenAi(reservation, route, messages);
+    } else {
+      // Cached answers are kept per model, a request never gets the answer of another model;
+      // an answer of a fallback model is stored under that model, not the one of the route
+      String cacheKey = responseCacheService.keyOf(route.getModel(), messages);
+      response = responseCacheService.get(cacheKey)
+              .map(cached -> fromCache(reservation, cached))
+              .switchIfEmpty(Mono.defer(() -> semanticCacheService.lookup(route.getModel(), prompt)
+                      .flatMap(lookup -> lookup.isHit()
+                              ? Mono.just(fromCache(reservation, lookup.getAnswer()))
+                              : callOpenAiAndCache(reservation, route, messages, cacheKey, lookup))
+                      .switchIfEmpty(Mono.defer(
+                              () -> callOpenAiAndCache(reservation, route, messages, cacheKey, null)))));
+    }
+    return response
+            .map(answer -> withSavedTokens(answer, window))
+            .doOnCancel(() -> {
+              // The client is gone: the upstream call is aborted and nothing is billed
+              if (!reservation.getReleased().get()) {
+                requestCancellationService.recordSavedTokens(reservation.getTokens());
+              }
+            })
+            .doFinally(signal -> reservation.release());
+  }
+
+  /**
+   * Reports the prompt tokens saved by the context window to the client.
+   *
+   * @param response the answer
+   * @param window the context window of the request
+   * @return the answer with the {@code X-Context-Tokens-Saved} header when tokens were saved
+   */
+  private static <T> ResponseEntity<T> withSavedTokens(ResponseEntity<T> response, ContextWindow window) {
+    if (window.getSavedTokens() == 0) {
+      return response;
+    }
+    return ResponseEntity.status(response.getStatusCode())
+            .headers(response.getHeaders())
+            .header(CONTEXT_TOKENS_SAVED_HEADER, String.valueOf(window.getSavedTokens()))
+            .body(response.getBody());
+  }
+
+  /**
+   * Reserves the estimated prompt tokens of a request, plus the configured completion
+   * allowance, against the user's quota.
+   *
+   * The reservation is taken from memory; only when the share of the quota held by this
+   * instance is not enough is more claimed from the cluster, on the blocking scheduler.
+   *
+   * @param account the user's account
+   * @param messages the conversation sent to OpenAI
+   * @return a Mono emitting the reservation, or empty if the quota would be exceeded
+   */
+  private Mono<TokenReservation> reserve(TokenAccount account, List<ContinueMessageResourcePost> messages) {
+    return reserve(account, tokenizerService.countTokens(messages) + completionReserve);
+  }
+
+  private Mono<TokenReservation> reserve(TokenAccount account, long estimate) {
+    TokenReservation reservation = tokenLedgerService.reserve(account, estimate);
+    if (reservation != null) {
+      return Mono.just(reservation);
+    }
+    return Mono.fromCallable(() -> tokenLedgerService.reserveWithRefill(account, estimate))
+            .subscribeOn(blockingScheduler)
+            .switchIfEmpty(Mono.fromRunnable(() -> logQuotaExceeded(account, estimate)));
+  }
+
+  /**
+   * Blocking variant of {@link #reserve(TokenAccount, List)}, for the servlet threads.
+   */
+  private TokenReservation reserveNow(TokenAccount account, List<ContinueMessageResourcePost> messages) {
+    return reserveNow(account, tokenizerService.countTokens(messages) + completionReserve);
+  }
+
+  private TokenReservation reserveNow(TokenAccount account, long estimate) {
+    TokenReservation reservation = tokenLedgerService.reserveWithRefill(account, estimate);
+    if (reservation == null) {
+      logQuotaExceeded(account, estimate);
+    }
+    return reservation;
+  }
+
+  private static void logQuotaExceeded(TokenAccount account, long estimate) {
+    log.warn("User token quota exceeded. Current: {}, Reserved: {}, Estimated: {}, Authorized: {}",
+            account.getTotalTokens(), account.getReservedTokens().get(), estimate,
+            account.getTotalTokensAuthorized());
+  }
+
+  private ResponseEntity<MessageResource> fromCache(TokenReservation reservation, MessageResource cached) {
+    reservation.settle(responseCacheService.getCachedTokens());
+    return new ResponseEntity<>(cached, HttpStatus.OK);
+  }
+
+  private Mono<ResponseEntity<MessageResource>> callOpenAiAndCache(TokenReservation reservation, ModelRoute route,
+                                                                   List<ContinueMessageResourcePost> messages,
+                                                                   String cacheKey, SemanticCacheLookup lookup) {
+    return callOpenAi(reservation, route, messages, (model, answer) -> {
+      if (model.equals(route.getModel())) {
+        responseCacheService.put(cacheKey, answer);
+      } else {
+        responseCacheService.put(responseCacheService.keyOf(model, messages), answer);
+      }
+      if (lookup != null) {
+        semanticCacheService.put(new SemanticCacheLookup(model, lookup.getEmbedding(), null), answer);
+      }
+    });
+  }
+
+  /**
+   * Looks the user's token account up by key.
+   *
+   * Served from the token ledger; only the first request of a key loads it from the
+   * database, on the blocking scheduler.
+   *
+   * @param key the user's key
+   * @return a Mono emitting the account, or empty if no user matches the key
+   */
+  private Mono<TokenAccount> findAccount(String key) {
+    log.debug("Get user with key : {}", key);
+    TokenAccount account = tokenLedgerService.getCachedAccount(key);
+    if (account != null) {
+      return Mono.just(account);
+    }
+    return ReactiveUserContextHolder.fromCallable(() -> tokenLedgerService.getAccount(key), blockingScheduler)
+            .onErrorResume(e -> {
+              log.error("No user found with key : {}", key);
+              return Mono.empty();
+            });
+  }
+
+  private Mono<ResponseEntity<MessageResource>> callOpenAi(TokenReservation reservation, ModelRoute route,
+                                                          List<ContinueMessageResourcePost> messages) {
+    return callOpenAi(reservation, route, messages, (model, answer) -> { });
+  }
+
+  /**
+   * Asks the models of a route for a completion and charges its usage.
+   *
+   * @param reservation the tokens reserved for the request
+   * @param route the models of the completion
+   * @param messages the conversation
+   * @param onAnswer receives the model that answered and its answer, when the completion succeeds
+   * @return a Mono emitting the answer
+   */
+  private Mono<ResponseEntity<MessageResource>> callOpenAi(TokenReservation reservation, ModelRoute route,
+                                                          List<ContinueMessageResourcePost> messages,
+                                                          BiConsumer<String, MessageResource> onAnswer) {
+    return completion(route, messages)
+            .map(completion -> {
+              chargeUsage(reservation, completion.response);
+              ResponseEntity<MessageResource> response = toMessageResponse(completion.response);
+              if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
+                onAnswer.accept(completion.model, response.getBody());
+              }
+              return response;
+            })
+            .defaultIfEmpty(new ResponseEntity<>(HttpStatus.EXPECTATION_FAILED))
+            .onErrorResume(WebClientResponseException.class, e -> {
+              log.error("Error while communicating with chat gpt code : {}, responseBody : {}",
+                      e.getRawStatusCode(), e.getResponseBodyAsString());
+              return Mono.just(new ResponseEntity<>(HttpStatus.EXPECTATION_FAILED));
+            })
+            .onErrorResume(DecodingException.class, e -> {
+              log.error("Error while parsing data to object", e);
+              return Mono.just(new ResponseEntity<>(HttpStatus.EXPECTATION_FAILED));
+            })
+            .onErrorResume(UpstreamUnavailableException.class, e -> {
+              log.warn("OpenAI call refused : {}", e.getMessage());
+              return Mono.just(unavailable(e));
+            })
+            .onErrorMap(WebClientRequestException.class,
+                    e -> new ExpectationFailedException("Something went wrong while communicating with Openai", e));
+  }
+
+  /**
+   * Asks the models of a route for a completion.
+   *
+   * @param route the models of the completion
+   * @param messages the conversation
+   * @return a Mono emitting the completion and the model that answered it
+   */
+  private Mono<ModelCompletion> completion(ModelRoute route, List<ContinueMessageResourcePost> messages) {
+    return chatCompletion(route.getModels(), 0, messages);
+  }
+
+  /**
+   * Asks a model of the route for a completion, moving on to the next one when it is overloaded.
+   *
+   * Identical requests in flight to the same model share one upstream call, each caller being
+   * still charged the usage; the key is the model actually called, so routes that differ after
+   * their first model never share the answer of another model. A slow call may be hedged by a
+   * second one; only the answer that wins is charged.
+   *
+   * @param models the models of the route
+   * @param index the model to ask
+   * @param messages the conversation
+   * @return a Mono emitting the completion and the model that answered it
+   */
+  private Mono<ModelCompletion> chatCompletion(List<String> models, int index,
+                                               List<ContinueMessageResourcePost> messages) {
+    String model = models.get(index);
+    Mono<ModelCompletion> completion = inFlightCompletions.execute(codec.requestKey(model, messages),
+            () -> Mono.defer(() -> {
+              long start = System.nanoTime();
+              return upstreamHedging.hedge(UpstreamHttpClient.CHAT_COMPLETIONS, model,
+                              () -> openAiClient.chatCompletion(model, messages))
+                      .doOnNext(response -> modelRouterService.recordLatency(model, System.nanoTime() - start));
+            }))
+            .map(response -> new ModelCompletion(model, response));
+    if (index + 1 >= models.size()) {
+      return completion;
+    }
+    return completion.onErrorResume(modelRouterService::isOverloaded, e -> {
+      modelRouterService.recordFallback(model, models.get(index + 1));
+      return chatCompletion(models, index + 1, messages);
+    });
+  }
+
+  /**
+   * Answers 503 to a call refused by the circuit breaker or the bulkhead, telling the client
+   * when to come back.
+   *
+   * @param e the refusal
+   * @param <T> type of the response body
+   * @return a SERVICE_UNAVAILABLE response with a Retry-After header
+   */
+  private static <T> ResponseEntity<T> unavailable(UpstreamUnavailableException e) {
+    long retryAfter = Math.max(1, (e.getRetryAfter().toMillis() + 999) / 1000);
+    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter))
+            .build();
+  }
+
+  /**
+   * Settles the reservation of a request with the usage of its completion.
+   *
+   * @param reservation the reservation of the request
+   * @param requestResponse the completion returned by OpenAI
+   */
+  private void chargeUsage(TokenReservation reservation, RequestResponse requestResponse) {
+    if (requestResponse.getUsage() == null) {
+      log.error("requestResponse.usage is null, billing the estimated {} tokens", reservation.getTokens());
+      reservation.settle(reservation.getTokens());
+      return;
+    }
+    reservation.settle(requestResponse.getUsage().getTotalTokens());
+  }
+
+  /**
+   * Extracts the assistant's answer from a completion.
+   *
+   * @param requestResponse the completion returned by OpenAI
+   * @return the assistant's message, or EXPECTATION_FAILED if the completion has no choice
+   */
+  private ResponseEntity<MessageResource> toMessageResponse(RequestResponse requestResponse) {
+    if (requestResponse.getChoices() != null && !requestResponse.getChoices().isEmpty()) {
+      MessageResource messageResponse = new MessageResource(
+              requestResponse.getChoices().get(0).getMessage().getRole(),
+              requestResponse.getChoices().get(0).getMessage().getContent());
+      return new ResponseEntity<>(messageResponse, HttpStatus.OK);
+    }
+    log.error("Error while getting data from requestResponse : {}", requestResponse);
+    return new ResponseEntity<>(HttpStatus.EXPECTATION_FAILED);
+  }
+
+  @Override
+  public ResponseEntity<SseEmitter> streamRequest(MessageResourcePost message) {
+    return streamConversation(List.of(userMessage(message)));
+  }
+
+  private static ContinueMessageResourcePost userMessage(MessageResourcePost message) {
+    ContinueMessageResourcePost userMessage = new ContinueMessageResourcePost();
+    userMessage.setRole(AIRoleEnum.USER.getName());
+    userMessage.setContent(message.getContent());
+    return userMessage;
+  }
+
+  /**
+   * Streams the assistant's answer to the client as Server-Sent Events.
+   *
+   * The request is sent upstream with {@code stream: true} and relayed fragment by fragment
+   * by {@link CompletionStreamCallback}, so the client sees the first tokens as soon as
+   * OpenAI produces them and no servlet thread waits for the whole completion.
+   * Tokens are charged to the user once the stream ends.
+   *
+   * Events sent to the client:
+   * - {@code message}: a {@link MessageResource} holding the next content fragment
+   * - {@code done}: the {@link fr.fgroup.chatai.resources.UsageResource} of the completion
+   * - {@code error}: a description of the upstream failure
+   *
+   * @param conversation List of messages representing the conversation history
+   * @return ResponseEntity holding the SSE emitter or the appropriate HTTP status
+   */
+  @Override
+  public ResponseEntity<SseEmitter> streamConversation(List<ContinueMessageResourcePost> conversation) {
+    // Retrieve the user's token account to check token quota
     log.debug("Get user with key : {}", UserContextHolder.getContext().getKey());
-    UserEntity userEntity;
+    TokenAccount account;
     try {
-      userEntity = userDaoService.findOne(Specification.where(
-              UserSpecifications.withKey(UserContextHolder.getContext().getKey())));
-      // Check if user has exceeded token quota
-      if (userEntity.getTotalTokens() > userEntity.getTotalTokensAuthorized()) {
-        log.warn("User token quota exceeded. Current: {}, Authorized: {}", 
-                userEntity.getTotalTokens(), userEntity.getTotalTokensAuthorized());
-        return new ResponseEntity<>(HttpStatus.CONFLICT);
-      }
+      account = tokenLedgerService.getAccount(UserContextHolder.getContext().getKey());
     } catch (Exception e) {
       log.error("No user found with key : {}", UserContextHolder.getContext().getKey());
       return new ResponseEntity<>(HttpStatus.FORBIDDEN);
     }
-    
-    String model = "gpt-3.5-turbo";
-
-    // Build JSON body with conversation history
-    StringBuilder body = new StringBuilder(String.format("{\"model\": \"%s\",\"messages\": [", model));
-    for (int i = 0; i < messages.size(); i++) {
-      String content = messages.get(i).getContent();
-      // URL encode each message content
-      content = URLEncoder.encode(content, StandardCharsets.UTF_8);
-      body.append(String.format("{\"role\": \"%s\", \"content\": \"%s\"}" + (i < messages.size() - 1 ? "," : ""), messages.get(i).getRole(), content));
+    // The stream ends at the client's deadline when it comes before the stream timeout
+    Duration timeout = requestCancellationService.timeLeft(streamTimeout);
+    if (timeout.isZero()) {
+      requestCancellationService.recordCancelled(RequestCancellationService.DEADLINE);
+      return new ResponseEntity<>(HttpStatus.GATEWAY_TIMEOUT);
+    }
+    // Trimmed only: summarizing would make the client wait before the first event
+    ContextWindow window = contextService.trim(conversation);
+    List<ContinueMessageResourcePost> messages = window.getMessages();
+    ModelRoute route = modelRouterService.route(window.getTokens(), account,
+            UserContextHolder.getContext().getModelTier());
+    // Check the token quota, counting the requests already in flight
+    TokenReservation reservation = reserveNow(account, messages);
+    if (reservation == null) {
+      return new ResponseEntity<>(HttpStatus.CONFLICT);
     }
-    body.append("]}");
-
-    // Configure HTTP client with timeouts
-    OkHttpClient client = new OkHttpClient.Builder()
-            .connectTimeout(15, TimeUnit.SECONDS)
-            .writeTimeout(15, TimeUnit.SECONDS)
-            .readTimeout(30, TimeUnit.SECONDS)
-            .build();
-    MediaType mediaType = MediaType.parse("application/json");
 
-    RequestBody requestBody = RequestBody.Companion.create(body.toString(), mediaType);
+    SseEmitter emitter = new SseEmitter(timeout.toMillis());
+    // Reason of a cancellation: a disconnect unless the emitter timed out first
+    AtomicReference<String> cancellation = new AtomicReference<>(RequestCancellationService.DISCONNECT);
+    Call call;
+    try {
+      call = enqueueStream(route, messages, new CompletionStreamCallback(emitter, codec, window.getTokens(),
+              (used, cancelled) -> {
+                reservation.settle(used);
+                if (cancelled) {
+                  if (cancellation.get() != null) {
+                    requestCancellationService.recordCancelled(cancellation.get());
+                  }
+                  requestCancellationService.recordSavedTokens(reservation.getTokens() - used);
+                }
+              }));
+    } catch (UpstreamUnavailableException e) {
+      log.warn("OpenAI stream refused : {}", e.getMessage());
+      reservation.release();
+      return unavailable(e);
+    }
+    // Stop reading from OpenAI as soon as the client side is gone
+    boolean deadline = timeout.compareTo(streamTimeout) < 0;
+    emitter.onTimeout(() -> {
+      cancellation.set(deadline ? RequestCancellationService.DEADLINE : null);
+      call.cancel();
+    });
+    emitter.onError(e -> call.cancel());
+    // Settled by the callback once the usage is known; released if the stream never bills
+    emitter.onCompletion(reservation::release);
+    return withSavedTokens(new ResponseEntity<>(emitter, HttpStatus.OK), window);
+  }
 
-    // Build and send request to OpenAI
+  /**
+   * Sends a streamed completion to the least loaded upstream target of the first model of
+   * the route that has one available.
+   *
+   * The stream goes through the circuit breaker and the bulkhead of its route but is not
+   * retried: fragments may already have been relayed when it fails.
+   *
+   * @param route the models of the completion
+   * @param messages the conversation
+   * @param callback the callback relaying the stream
+   * @return the enqueued call
+   * @throws UpstreamUnavailableException if no target can take the call
+   */
+  private Call enqueueStream(ModelRoute route, List<ContinueMessageResourcePost> messages, Callback callback) {
+    List<String> models = route.getModels();
+    String model = models.get(0);
+    UpstreamTarget target = null;
+    for (int i = 0; target == null; i++) {
+      try {
+        target = upstreamPool.acquire(model);
+      } catch (UpstreamUnavailableException e) {
+        if (i + 1 >= models.size()) {
+          throw e;
+        }
+        modelRouterService.recordFallback(model, models.get(i + 1));
+        model = models.get(i + 1);
+      }
+    }
+    Callback guarded;
+    try {
+      guarded = upstreamResilience.guard(UpstreamHttpClient.CHAT_COMPLETIONS_STREAM,
+              upstreamPool.guard(target, callback));
+    } catch (UpstreamUnavailableException e) {
+      upstreamPool.abandon(target);
+      throw e;
+    }
     Request request = new Request.Builder()
-            .url(openaiBaseUrl + "/chat/completions")
-            .post(requestBody)
-            .addHeader("Content-Type", "application/json")
-            .addHeader("Authorization", "Bearer " + apiKey)
+            .url(target.uri(model, "/chat/completions"))
+            .post(codec.streamRequest(model, messages))
+            .addHeader("Accept", "text/event-stream")
+            .addHeader(target.getAuthHeaderName(), target.getAuthHeaderValue())
             .build();
+    Call call = upstreamHttpClient.forRoute(UpstreamHttpClient.CHAT_COMPLETIONS_STREAM).newCall(request);
+    call.enqueue(guarded);
+    return call;
+  }
 
-    String responseBody = null;
-    try {
-      Response response = client.newCall(request).execute();
-      if (response.body() != null && response.code() == 200) {
-        responseBody = Objects.requireNonNull(response.body()).string();
-        log.debug(responseBody);
-        ObjectMapper objectMapper = new ObjectMapper();
-        RequestResponse requestResponse = objectMapper.readValue(responseBody, RequestResponse.class);
-        if (requestResponse != null && requestResponse.getUsage() != null) {
-          userEntity.setTotalTokens(userEntity.getTotalTokens() + requestResponse.getUsage().getTotalTokens());
-        } else {
-          log.error("requestResponse or requestResponse.usage is null. billing is at risk");
-        }
-        if (requestResponse != null && requestResponse.getChoices() != null
-                && !requestResponse.getChoices().isEmpty()) {
-          MessageResource messageResponse = new MessageResource(
-                  requestResponse.getChoices().get(0).getMessage().getRole(),
-                  requestResponse.getChoices().get(0).getMessage().getContent());
-          messageResponse.setContent(URLDecoder.decode(messageResponse.getContent()));
-          return new ResponseEntity<>(messageResponse, HttpStatus.OK);
-        } else {
-          log.error("Error while getting data from requestResponse : {}", requestResponse);
-        }
-      } else {
-        log.error("Error while communicating with chat gpt code : {}, responseBody : {}", response.code(), response);
+  /**
+   * Answers a batch of single-turn prompts, with the results in the order of the prompts.
+   *
+   * The prompts are sent upstream concurrently, at most {@code chatai.batch.max-concurrency}
+   * at once (or the lower concurrency asked by the client), each routed to its own model.
+   * The quota is reserved once for the whole batch and settled with the sum of the usages, and
+   * each prompt after the first is charged to the requests per second of the key.
+   * A prompt that fails gets its own status in the results and does not fail the batch.
+   *
+   * @param batch the prompts
+   * @return a Mono emitting the results, or the status of the whole batch when it is refused
+   */
+  @Override
+  public Mono<ResponseEntity<BatchResource>> batchRequest(BatchRequestResourcePost batch) {
+    if (batch.getPrompts().size() > batchMaxPrompts) {
+      return Mono.just(new ResponseEntity<>(HttpStatus.BAD_REQUEST));
+    }
+    return ReactiveUserContextHolder.getContext()
+            .flatMap(context -> findAccount(context.getKey())
+                    .flatMap(account -> {
+                      List<BatchItem> items = batchItems(batch, account, context.getModelTier());
+                      return reserve(account, estimate(items))
+                              .flatMap(reservation -> {
+                                rateLimiterService.charge(context.getKey(), items.size() - 1);
+                                BatchUsage usage = new BatchUsage();
+                                return fanOut(items, reservation, usage, concurrency(batch), true)
+                                        .collectList()
+                                        .map(results -> ResponseEntity.ok(
+                                                new BatchResource(results, usage.toResource())));
+                              })
+                              .switchIfEmpty(Mono.fromSupplier(() -> new ResponseEntity<>(HttpStatus.CONFLICT)));
+                    }))
+            .switchIfEmpty(Mono.fromSupplier(() -> new ResponseEntity<>(HttpStatus.FORBIDDEN)));
+  }
+
+  /**
+   * Answers a batch of single-turn prompts as Server-Sent Events, each result being sent as
+   * soon as its prompt is answered.
+   *
+   * Events sent to the client:
+   * - {@code result}: a {@link BatchItemResource}, its index giving the prompt it answers
+   * - {@code done}: the {@link fr.fgroup.chatai.resources.UsageResource} of the whole batch
+   *
+   * @param batch the prompts
+   * @return ResponseEntity holding the events or the status of the whole batch when it is refused
+   */
+  @Override
+  public Mono<ResponseEntity<Flux<ServerSentEvent<Object>>>> streamBatchRequest(BatchRequestResourcePost batch) {
+    if (batch.getPrompts().size() > batchMaxPrompts) {
+      return Mono.just(new ResponseEntity<>(HttpStatus.BAD_REQUEST));
+    }
+    // The account is loaded off the servlet thread, like the other reactive endpoints
+    return ReactiveUserContextHolder.getContext()
+            .flatMap(context -> findAccount(context.getKey())
+                    .flatMap(account -> {
+                      List<BatchItem> items = batchItems(batch, account, context.getModelTier());
+                      return reserve(account, estimate(items))
+                              .map(reservation -> {
+                                rateLimiterService.charge(context.getKey(), items.size() - 1);
+                                BatchUsage usage = new BatchUsage();
+                                Flux<ServerSentEvent<Object>> events = fanOut(items, reservation, usage,
+                                        concurrency(batch), false)
+                                        .map(result -> ServerSentEvent.<Object>builder(result).event("result").build())
+                                        .concatWith(Mono.fromSupplier(() -> ServerSentEvent.<Object>builder(
+                                                usage.toResource()).event("done").build()));
+                                return ResponseEntity.ok(events);
+                              })
+                              .switchIfEmpty(Mono.fromSupplier(() -> new ResponseEntity<>(HttpStatus.CONFLICT)));
+                    }))
+            .switchIfEmpty(Mono.fromSupplier(() -> new ResponseEntity<>(HttpStatus.FORBIDDEN)));
+  }
+
+  private List<BatchItem> batchItems(BatchRequestResourcePost batch, TokenAccount account, String tier) {
+    List<BatchItem> items = new ArrayList<>(batch.getPrompts().size());
+    for (int i = 0; i < batch.getPrompts().size(); i++) {
+      List<ContinueMessageResourcePost> messages = List.of(userMessage(batch.getPrompts().get(i)));
+      int tokens = tokenizerService.countTokens(messages);
+      items.add(new BatchItem(i, messages, tokens + completionReserve,
+              modelRouterService.route(tokens, account, tier)));
+    }
+    return items;
+  }
+
+  private static long estimate(List<BatchItem> items) {
+    long estimate = 0;
+    for (BatchItem item : items) {
+      estimate += item.estimate;
+    }
+    return estimate;
+  }
+
+  private int concurrency(BatchRequestResourcePost batch) {
+    return batch.getConcurrency() == null ? batchMaxConcurrency : Math.min(batch.getConcurrency(), batchMaxConcurrency);
+  }
+
+  /**
+   * Sends the prompts of a batch upstream, a bounded number at once.
+   *
+   * @param items the prompts
+   * @param reservation the reservation of the whole batch
+   * @param usage usage of the batch, summed as the prompts are answered
+   * @param concurrency prompts in flight at once
+   * @param ordered true to emit the results in the order of the prompts, false as they come
+   * @return the results
+   */
+  private Flux<BatchItemResource> fanOut(List<BatchItem> items, TokenReservation reservation, BatchUsage usage,
+                                         int concurrency, boolean ordered) {
+    Flux<BatchItem> source = Flux.fromIterable(items);
+    Flux<BatchItemResource> results = ordered
+            ? source.flatMapSequential(item -> answer(item, usage), concurrency)
+            : source.flatMap(item -> answer(item, usage), concurrency);
+    // One settlement for the whole batch, charging the prompts answered before a cancellation too
+    return results.doFinally(signal -> {
+      long used = usage.totalTokens.sum();
+      reservation.settle(used);
+      if (signal == SignalType.CANCEL) {
+        requestCancellationService.recordSavedTokens(reservation.getTokens() - used);
       }
-    } catch (JsonProcessingException e) {
-      log.error("Error while parsing data to object : {}", responseBody, e);
-    } catch (IOException e) {
-      throw new ExpectationFailedException("Something went wrong while communicating with Openai", e);
+    });
+  }
+
+  private Mono<BatchItemResource> answer(BatchItem item, BatchUsage usage) {
+    return completion(item.route, item.messages)
+            .map(completion -> completion.response)
+            .map(requestResponse -> {
+              usage.add(requestResponse.getUsage(), item.estimate);
+              ResponseEntity<MessageResource> answer = toMessageResponse(requestResponse);
+              if (answer.getStatusCode() != HttpStatus.OK) {
+                return failedItem(item.index, HttpStatus.EXPECTATION_FAILED, "Openai answered without any choice");
+              }
+              return new BatchItemResource(item.index, HttpStatus.OK.value(), answer.getBody(), null);
+            })
+            .switchIfEmpty(Mono.fromSupplier(
+                    () -> failedItem(item.index, HttpStatus.EXPECTATION_FAILED, "Openai answered nothing")))
+            .onErrorResume(e -> Mono.just(failedItem(item.index, e)));
+  }
+
+  private static BatchItemResource failedItem(int index, Throwable e) {
+    if (e instanceof UpstreamUnavailableException) {
+      return failedItem(index, HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+    }
+    if (e instanceof WebClientResponseException) {
+      WebClientResponseException responseException = (WebClientResponseException) e;
+      log.error("Error while communicating with chat gpt code : {}, responseBody : {}",
+              responseException.getRawStatusCode(), responseException.getResponseBodyAsString());
+      return failedItem(index, HttpStatus.EXPECTATION_FAILED,
+              "Openai answered with code " + responseException.getRawStatusCode());
+    }
+    log.error("Batch prompt {} failed", index, e);
+    return failedItem(index, HttpStatus.EXPECTATION_FAILED, "Something went wrong while communicating with Openai");
+  }
+
+  private static BatchItemResource failedItem(int index, HttpStatus status, String error) {
+    return new BatchItemResource(index, status.value(), null, error);
+  }
+
+  /** A prompt of a batch */
+  @RequiredArgsConstructor
+  private static class BatchItem {
+    private final int index;
+    private final List<ContinueMessageResourcePost> messages;
+    /** Reserved tokens, prompt and completion allowance */
+    private final long estimate;
+    private final ModelRoute route;
+  }
+
+  /** A completion and the model of the route that answered it */
+  @RequiredArgsConstructor
+  private static class ModelCompletion {
+    private final String model;
+    private final RequestResponse response;
+  }
+
+  /** Usage of a batch, summed as its prompts are answered */
+  private static class BatchUsage {
+    private final LongAdder promptTokens = new LongAdder();
+    private final LongAdder completionTokens = new LongAdder();
+    private final LongAdder totalTokens = new LongAdder();
+
+    void add(UsageResource usage, long estimate) {
+      if (usage == null) {
+        log.error("requestResponse.usage is null, billing the estimated {} tokens", estimate);
+        totalTokens.add(estimate);
+        return;
+      }
+      promptTokens.add(usage.getPromptTokens());
+      completionTokens.add(usage.getCompletionTokens());
+      totalTokens.add(usage.getTotalTokens());
+    }
+
+    UsageResource toResource() {
+      UsageResource usage = new UsageResource();
+      usage.setPromptTokens(promptTokens.intValue());
+      usage.setCompletionTokens(completionTokens.intValue());
+      usage.setTotalTokens(totalTokens.intValue());
+      return usage;
     }
-    return new ResponseEntity<>(HttpStatus.EXPECTATION_FAILED);
   }
 }
@@ -0,0 +1,176 @@
+package fr.fgroup.chatai.services.impl;
+
+import fr.fgroup.chatai.clients.OpenAiChatCodec;
+import fr.fgroup.chatai.enums.AIRoleEnum;
+import fr.fgroup.chatai.resources.MessageResource;
+import fr.fgroup.chatai.resources.StreamChoiceResource;
+import fr.fgroup.chatai.resources.StreamChunkResource;
+import fr.fgroup.chatai.resources.UsageResource;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+
+/**
+ * CompletionStreamCallback - Relays an OpenAI streamed completion to an SSE client.
+ *
+ * The upstream answer ({@code stream: true}) is itself an event stream made of
+ * {@code data: <chunk>} lines ending with {@code data: [DONE]}. Lines are read one at a
+ * time from the response source, so the completion is never buffered as a whole:
+ * every content fragment is forwarded as a {@code message} event as soon as it is parsed.
+ *
+ * Once the stream ends, a {@code done} event carrying the usage is sent and the consumed
+ * tokens are handed to the billing callback. Billing also happens when the stream stops
+ * early (client disconnect, deadline, upstream error), using the last known usage or,
+ * failing that, the prompt tokens and the number of fragments received: only what OpenAI
+ * actually processed is charged, nothing if the call was cancelled before it answered.
+ *
+ * Runs on the OkHttp dispatcher threads, never on a servlet thread.
+ */
+@Slf4j
+class CompletionStreamCallback implements Callback {
+
+  private static final String DATA_PREFIX = "data:";
+  private static final String DONE = "[DONE]";
+
+  private final SseEmitter emitter;
+  private final OpenAiChatCodec codec;
+  private final long promptTokens;
+  private final Billing billing;
+
+  /** Set when a send to the client failed */
+  private boolean clientGone;
+
+  /**
+   * @param emitter the client's SSE connection
+   * @param codec reader of the upstream chunks
+   * @param promptTokens estimated prompt tokens, billed with the fragments when the usage is unknown
+   * @param billing receiver of the consumed tokens
+   */
+  CompletionStreamCallback(SseEmitter emitter, OpenAiChatCodec codec, long promptTokens, Billing billing) {
+    this.emitter = emitter;
+    this.codec = codec;
+    this.promptTokens = promptTokens;
+    this.billing = billing;
+  }
+
+  @Override
+  public void onFailure(Call call, IOException e) {
+    if (call.isCanceled()) {
+      log.debug("Completion stream cancelled before the upstream answered");
+      billing.bill(0, true);
+      return;
+    }
+    log.error("Error while communicating with chat gpt", e);
+    sendError("Something went wrong while communicating with Openai");
+  }
+
+  @Override
+  public void onResponse(Call call, Response response) {
+    UsageResource usage = null;
+    long fragments = 0;
+    boolean cancelled = false;
+    try (response) {
+      ResponseBody body = response.body();
+      if (body == null || !response.isSuccessful()) {
+        log.error("Error while communicating with chat gpt code : {}, responseBody : {}", response.code(), response);
+        sendError("Openai answered with code " + response.code());
+        return;
+      }
+      BufferedSource source = body.source();
+      String line;
+      while ((line = source.readUtf8Line()) != null) {
+        if (!line.startsWith(DATA_PREFIX)) {
+          continue;
+        }
+        String data = line.substring(DATA_PREFIX.length()).trim();
+        if (DONE.equals(data)) {
+          break;
+        }
+        StreamChunkResource chunk = codec.readChunk(data);
+        if (chunk.getUsage() != null) {
+          usage = chunk.getUsage();
+        }
+        if (chunk.getChoices() == null) {
+          continue;
+        }
+        for (StreamChoiceResource choice : chunk.getChoices()) {
+          if (choice.getDelta() != null && choice.getDelta().getContent() != null) {
+            send(SseEmitter.event()
+                    .data(new MessageResource(AIRoleEnum.ASSISTANT, choice.getDelta().getContent()),
+                            MediaType.APPLICATION_JSON));
+            fragments++;
+          }
+        }
+      }
+      SseEmitter.SseEventBuilder done = SseEmitter.event().name("done");
+      if (usage != null) {
+        done.data(usage, MediaType.APPLICATION_JSON);
+      }
+      send(done);
+      emitter.complete();
+    } catch (IOException e) {
+      // The client went away (send failed or call cancelled on disconnect) or the upstream stream broke
+      cancelled = clientGone || call.isCanceled();
+      log.warn("Completion stream interrupted after {} fragments{} : {}", fragments,
+              cancelled ? " by the client" : "", e.getMessage());
+      call.cancel();
+      emitter.completeWithError(e);
+    } finally {
+      bill(usage, fragments, cancelled);
+    }
+  }
+
+  private void send(SseEmitter.SseEventBuilder event) throws IOException {
+    try {
+      emitter.send(event);
+    } catch (IOException e) {
+      clientGone = true;
+      throw e;
+    } catch (IllegalStateException e) {
+      // The emitter already completed, e.g. it timed out while the upstream was still streaming
+      clientGone = true;
+      throw new IOException("Emitter already completed", e);
+    }
+  }
+
+  private void bill(UsageResource usage, long fragments, boolean cancelled) {
+    if (usage != null) {
+      billing.bill(usage.getTotalTokens(), cancelled);
+    } else if (fragments > 0) {
+      // One streamed fragment is one completion token, on top of the estimated prompt
+      log.error("Stream ended without usage, billing {} prompt and {} streamed tokens. billing is at risk",
+              promptTokens, fragments);
+      billing.bill(promptTokens + fragments, cancelled);
+    } else {
+      billing.bill(0, cancelled);
+    }
+  }
+
+  private void sendError(String message) {
+    try {
+      emitter.send(SseEmitter.event().name("error").data(message));
+      emitter.complete();
+    } catch (IOException | IllegalStateException e) {
+      emitter.completeWithError(e);
+    }
+  }
+
+  /**
+   * Receiver of the tokens consumed by a stream.
+   */
+  @FunctionalInterface
+  interface Billing {
+    /**
+     * @param usedTokens the tokens to charge, 0 for none
+     * @param cancelled true if the stream stopped because the client went away
+     */
+    void bill(long usedTokens, boolean cancelled);
+  }
+}
@@ -0,0 +1,252 @@
+package fr.fgroup.chatai.services.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import fr.fgroup.chatai.clients.OpenAiClient;
+import fr.fgroup.chatai.enums.AIRoleEnum;
+import fr.fgroup.chatai.models.ContextWindow;
+import fr.fgroup.chatai.models.TokenReservation;
+import fr.fgroup.chatai.resources.post.ContinueMessageResourcePost;
+import fr.fgroup.chatai.services.ContextService;
+import fr.fgroup.chatai.services.TokenizerService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * ContextServiceImpl - Keeps the prompt of long conversations within a token budget.
+ *
+ * Strategies ({@code chatai.context.strategy}):
+ * - {@code none}: conversations are sent as received
+ * - {@code window}: when the prompt exceeds {@code chatai.context.max-prompt-tokens}, the
+ *   oldest turns are dropped; system messages are pinned and the latest message is always kept
+ * - {@code summarize}: as window, but the dropped turns of a server-side conversation are
+ *   replaced by a summary written by the model. The summary is cached per conversation and
+ *   rolled forward (previous summary + newly dropped turns), so each turn is summarized once
+ *   and not on every request. The summary call is reserved against the user's quota first
+ *   (its prompt plus {@code summary.max-tokens}, also sent as {@code max_tokens}) and billed
+ *   with its usage whatever happens to the request; without quota left, no summary is made
+ *
+ * Token counts come from the local {@link TokenizerService}; a summary that cannot be
+ * computed never fails the request, the plain window is sent instead.
+ *
+ * Metrics:
+ * - {@code chatai.context.saved-tokens}: prompt tokens saved per trimmed request
+ * - {@code chatai.context.summaries{result=computed|cached|failed}}
+ */
+@Slf4j
+@Service
+public class ContextServiceImpl implements ContextService {
+
+  private static final String SUMMARY_PREFIX = "Summary of the earlier conversation: ";
+
+  private enum Strategy { NONE, WINDOW, SUMMARIZE }
+
+  private final TokenizerService tokenizerService;
+  private final OpenAiClient openAiClient;
+  private final Strategy strategy;
+  private final int maxPromptTokens;
+  private final String summaryModel;
+  private final int summaryMaxWords;
+  private final int summaryMaxTokens;
+  private final Cache<String, Summary> summaries;
+
+  private final DistributionSummary savedTokens;
+  private final Counter computedSummaries;
+  private final Counter cachedSummaries;
+  private final Counter failedSummaries;
+
+  public ContextServiceImpl(TokenizerService tokenizerService,
+                            OpenAiClient openAiClient,
+                            MeterRegistry meterRegistry,
+                            @Value("${chatai.context.strategy:none}") String strategy,
+                            @Value("${chatai.context.max-prompt-tokens:3000}") int maxPromptTokens,
+                            @Value("${chatai.context.summary.model:gpt-3.5-turbo}") String summaryModel,
+                            @Value("${chatai.context.summary.max-words:150}") int summaryMaxWords,
+                            @Value("${chatai.context.summary.max-tokens:300}") int summaryMaxTokens,
+                            @Value("${chatai.context.summary.max-entries:10000}") long summaryMaxEntries,
+                            @Value("${chatai.context.summary.idle-eviction:PT30M}") Duration summaryIdleEviction) {
+    this.tokenizerService = tokenizerService;
+    this.openAiClient = openAiClient;
+    this.strategy = Strategy.valueOf(strategy.toUpperCase(Locale.ROOT));
+    this.maxPromptTokens = maxPromptTokens;
+    this.summaryModel = summaryModel;
+    this.summaryMaxWords = summaryMaxWords;
+    this.summaryMaxTokens = summaryMaxTokens;
+    this.summaries = Caffeine.newBuilder()
+            .maximumSize(summaryMaxEntries)
+            .expireAfterAccess(summaryIdleEviction)
+            .recordStats()
+            .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, summaries, "chatai.context.summaries");
+    this.savedTokens = meterRegistry.summary("chatai.context.saved-tokens");
+    this.computedSummaries = meterRegistry.counter("chatai.context.summaries", "result", "computed");
+    this.cachedSummaries = meterRegistry.counter("chatai.context.summaries", "result", "cached");
+    this.failedSummaries = meterRegistry.counter("chatai.context.summaries", "result", "failed");
+  }
+
+  @Override
+  public Mono<ContextWindow> fit(String conversationId, List<ContinueMessageResourcePost> messages,
+                                 Function<Long, Mono<TokenReservation>> reserveSummary) {
+    if (strategy != Strategy.SUMMARIZE || conversationId == null) {
+      return Mono.just(trim(messages));
+    }
+    Split split = split(messages, summaryMaxTokens);
+    if (split.from == 0) {
+      return Mono.just(ContextWindow.unchanged(messages, split.originalTokens));
+    }
+    Summary cached = summaries.getIfPresent(conversationId);
+    if (cached != null && cached.covered >= split.from) {
+      // The summary already covers the dropped turns, and maybe some more: don't send them twice
+      cachedSummaries.increment();
+      split.from = Math.min(cached.covered, split.dialog.size() - 1);
+      return Mono.just(record(window(split, cached.text, 0)));
+    }
+    int covered = split.from;
+    List<ContinueMessageResourcePost> request = summaryRequest(cached,
+            split.dialog.subList(cached == null ? 0 : cached.covered, covered));
+    long estimate = tokenizerService.countTokens(request) + (long) summaryMaxTokens;
+    return reserveSummary.apply(estimate)
+            .flatMap(reservation -> summarize(conversationId, split, cached, covered, request, reservation)
+                    .doFinally(signal -> reservation.release()))
+            // No quota left for the summary: the request itself is refused next
+            .switchIfEmpty(Mono.fromSupplier(() -> window(split, cached == null ? null : cached.text, 0)))
+            .map(this::record);
+  }
+
+  private Mono<ContextWindow> summarize(String conversationId, Split split, Summary cached, int covered,
+                                        List<ContinueMessageResourcePost> request, TokenReservation reservation) {
+    return openAiClient.chatCompletion(summaryModel, request, summaryMaxTokens)
+            .filter(response -> response.getChoices() != null && !response.getChoices().isEmpty())
+            .map(response -> {
+              computedSummaries.increment();
+              String text = response.getChoices().get(0).getMessage().getContent();
+              summaries.put(conversationId, new Summary(covered, text));
+              long usage = response.getUsage() == null ? reservation.getTokens()
+                      : response.getUsage().getTotalTokens();
+              // Consumed upstream whatever happens to the request
+              reservation.settle(usage);
+              return window(split, text, usage);
+            })
+            .switchIfEmpty(Mono.error(() -> new IllegalStateException("Empty summary")))
+            .onErrorResume(e -> {
+              failedSummaries.increment();
+              log.warn("Failed to summarize conversation {}, sending the trimmed window", conversationId, e);
+              return Mono.just(window(split, cached == null ? null : cached.text, 0));
+            });
+  }
+
+  @Override
+  public ContextWindow trim(List<ContinueMessageResourcePost> messages) {
+    if (strategy == Strategy.NONE) {
+      return ContextWindow.unchanged(messages, tokenizerService.countTokens(messages));
+    }
+    Split split = split(messages, 0);
+    if (split.from == 0) {
+      return ContextWindow.unchanged(messages, split.originalTokens);
+    }
+    return record(window(split, null, 0));
+  }
+
+  /**
+   * Separates the pinned system messages from the dialog and finds the oldest dialog message
+   * that fits the budget.
+   *
+   * @param messages the conversation
+   * @param reserved tokens to leave free for a summary
+   * @return the split; {@code from} is 0 when the whole conversation fits
+   */
+  private Split split(List<ContinueMessageResourcePost> messages, int reserved) {
+    Split split = new Split();
+    int base = tokenizerService.countTokens(List.of());
+    int pinnedTokens = base;
+    int[] costs = new int[messages.size()];
+    split.originalTokens = base;
+    for (ContinueMessageResourcePost message : messages) {
+      int cost = tokenizerService.countTokens(List.of(message)) - base;
+      split.originalTokens += cost;
+      if (AIRoleEnum.SYSTEM.getName().equals(message.getRole())) {
+        split.pinned.add(message);
+        pinnedTokens += cost;
+      } else {
+        costs[split.dialog.size()] = cost;
+        split.dialog.add(message);
+      }
+    }
+    if (split.originalTokens <= maxPromptTokens) {
+      return split;
+    }
+    int available = maxPromptTokens - pinnedTokens - reserved;
+    int from = split.dialog.size();
+    // Walk back from the latest message, which is always kept even if it alone exceeds the budget
+    while (from > 0 && (from == split.dialog.size() || costs[from - 1] <= available)) {
+      available -= costs[from - 1];
+      from--;
+    }
+    split.from = from;
+    return split;
+  }
+
+  private ContextWindow window(Split split, String summary, long summaryTokens) {
+    List<ContinueMessageResourcePost> messages = new ArrayList<>(split.pinned);
+    if (summary != null) {
+      messages.add(message(AIRoleEnum.SYSTEM, SUMMARY_PREFIX + summary));
+    }
+    messages.addAll(split.dialog.subList(split.from, split.dialog.size()));
+    return new ContextWindow(messages, split.originalTokens, tokenizerService.countTokens(messages), summaryTokens);
+  }
+
+  private List<ContinueMessageResourcePost> summaryRequest(Summary previous, List<ContinueMessageResourcePost> turns) {
+    StringBuilder transcript = new StringBuilder();
+    if (previous != null) {
+      transcript.append("Summary so far:\n").append(previous.text).append("\n\n");
+    }
+    transcript.append("Conversation:\n");
+    for (ContinueMessageResourcePost turn : turns) {
+      transcript.append(turn.getRole()).append(": ").append(turn.getContent()).append('\n');
+    }
+    return List.of(
+            message(AIRoleEnum.SYSTEM, "Summarize the conversation in at most " + summaryMaxWords
+                    + " words. Keep the facts, names, decisions and open questions needed to continue it."),
+            message(AIRoleEnum.USER, transcript.toString()));
+  }
+
+  private ContextWindow record(ContextWindow window) {
+    savedTokens.record(window.getSavedTokens());
+    return window;
+  }
+
+  private static ContinueMessageResourcePost message(AIRoleEnum role, String content) {
+    ContinueMessageResourcePost message = new ContinueMessageResourcePost();
+    message.setRole(role.getName());
+    message.setContent(content);
+    return message;
+  }
+
+  /** Pinned messages and dialog of a conversation, and the first dialog message kept */
+  private static class Split {
+    private final List<ContinueMessageResourcePost> pinned = new ArrayList<>();
+    private final List<ContinueMessageResourcePost> dialog = new ArrayList<>();
+    private int originalTokens;
+    private int from;
+  }
+
+  /** Rolling summary of the first {@code covered} dialog messages of a conversation */
+  @RequiredArgsConstructor
+  private static class Summary {
+    private final int covered;
+    private final String text;
+  }
+}
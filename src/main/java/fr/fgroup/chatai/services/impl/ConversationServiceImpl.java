@@ -0,0 +1,210 @@
+package fr.fgroup.chatai.services.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import fr.fgroup.chatai.dao.services.ConversationDaoService;
+import fr.fgroup.chatai.dao.services.ConversationMessageDaoService;
+import fr.fgroup.chatai.dao.specifications.ConversationSpecifications;
+import fr.fgroup.chatai.entities.ConversationEntity;
+import fr.fgroup.chatai.entities.ConversationMessageEntity;
+import fr.fgroup.chatai.exceptions.ResourceNotFoundException;
+import fr.fgroup.chatai.models.Conversation;
+import fr.fgroup.chatai.resources.post.ContinueMessageResourcePost;
+import fr.fgroup.chatai.services.ConversationService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * ConversationServiceImpl - Two-tier store of server-side conversations.
+ *
+ * - Hot tier: a Caffeine cache of the active conversations, bounded by an estimate of the
+ *   retained bytes ({@code chatai.conversations.max-bytes}); a conversation idle for
+ *   {@code chatai.conversations.idle-eviction} is dropped from memory
+ * - Postgres: the conversation header and its messages, appended row by row
+ *
+ * Writes go to memory first and are persisted in the background on the blocking
+ * scheduler, so a turn never waits for the database. A conversation evicted from memory
+ * is reloaded from Postgres on its next turn.
+ *
+ * The memory tier is per instance, so the positions of the persisted messages are taken
+ * from the database: the appends of a conversation are written one after the other, under
+ * a transaction-scoped advisory lock, whichever instance serves them. The conversation row
+ * is written with the first append that commits.
+ *
+ * Conversations without a message for {@code chatai.conversations.retention} are deleted
+ * with their messages, by batches, every {@code chatai.conversations.cleanup-interval}.
+ */
+@Slf4j
+@Service
+public class ConversationServiceImpl implements ConversationService {
+
+  private static final String LOCK_SQL = "SELECT pg_advisory_xact_lock(hashtext(?))";
+  private static final String EXISTS_SQL = "SELECT COUNT(*) FROM conversation_entity WHERE conversation_id = ?";
+  private static final String TOUCH_SQL =
+          "UPDATE conversation_entity SET last_message_date = ? WHERE conversation_id = ?";
+  private static final String NEXT_POSITION_SQL =
+          "SELECT COALESCE(MAX(position) + 1, 0) FROM conversation_message_entity WHERE conversation_id = ?";
+  private static final String DELETE_EXPIRED_SQL =
+          "WITH expired AS (DELETE FROM conversation_entity WHERE id IN ("
+                  + "SELECT id FROM conversation_entity WHERE COALESCE(last_message_date, created_date) < ? LIMIT ?) "
+                  + "RETURNING conversation_id), "
+                  + "messages AS (DELETE FROM conversation_message_entity "
+                  + "WHERE conversation_id IN (SELECT conversation_id FROM expired) RETURNING 1) "
+                  + "SELECT (SELECT count(*) FROM expired) AS conversations, (SELECT count(*) FROM messages) AS messages";
+  private static final int DELETE_BATCH = 1000;
+
+  private final ConversationDaoService conversationDaoService;
+  private final ConversationMessageDaoService conversationMessageDaoService;
+  private final Scheduler blockingScheduler;
+  private final JdbcTemplate jdbcTemplate;
+  private final TransactionTemplate transactionTemplate;
+  private final Duration retention;
+  private final Cache<String, Conversation> conversations;
+
+  public ConversationServiceImpl(ConversationDaoService conversationDaoService,
+                                 ConversationMessageDaoService conversationMessageDaoService,
+                                 Scheduler blockingScheduler,
+                                 JdbcTemplate jdbcTemplate,
+                                 PlatformTransactionManager transactionManager,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${chatai.conversations.max-bytes:134217728}") long maxBytes,
+                                 @Value("${chatai.conversations.idle-eviction:PT30M}") Duration idleEviction,
+                                 @Value("${chatai.conversations.retention:P90D}") Duration retention) {
+    this.conversationDaoService = conversationDaoService;
+    this.conversationMessageDaoService = conversationMessageDaoService;
+    this.blockingScheduler = blockingScheduler;
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.retention = retention;
+    this.conversations = Caffeine.newBuilder()
+            .maximumWeight(maxBytes)
+            .weigher((String id, Conversation conversation) -> conversation.getWeight())
+            .expireAfterAccess(idleEviction)
+            .recordStats()
+            .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, conversations, "chatai.conversations");
+  }
+
+  @Override
+  public Conversation start(String ownerKey, List<ContinueMessageResourcePost> messages) {
+    Conversation conversation = new Conversation(UUID.randomUUID().toString(), ownerKey, List.of(), false);
+    append(conversation, messages);
+    return conversation;
+  }
+
+  @Override
+  public Mono<Conversation> find(String conversationId, String ownerKey) {
+    Conversation conversation = conversations.getIfPresent(conversationId);
+    Mono<Conversation> found = conversation != null
+            ? Mono.just(conversation)
+            : Mono.fromCallable(() -> load(conversationId)).subscribeOn(blockingScheduler);
+    return found.filter(candidate -> candidate.getOwnerKey().equals(ownerKey));
+  }
+
+  @Override
+  public void append(Conversation conversation, List<ContinueMessageResourcePost> messages) {
+    conversation.append(messages);
+    // Put again so the cache weighs the conversation with its new messages
+    conversations.put(conversation.getId(), conversation);
+    Mono.fromRunnable(() -> persist(conversation, messages))
+            .subscribeOn(blockingScheduler)
+            .subscribe(null, e -> log.error("Failed to persist messages of conversation {}", conversation.getId(), e));
+  }
+
+  private Conversation load(String conversationId) {
+    ConversationEntity entity;
+    try {
+      entity = conversationDaoService.findOne(
+              Specification.where(ConversationSpecifications.withConversationId(conversationId)));
+    } catch (ResourceNotFoundException e) {
+      return null;
+    }
+    List<ContinueMessageResourcePost> messages = conversationMessageDaoService.findAll(
+                    Specification.where(ConversationSpecifications.messagesOf(conversationId)),
+                    Sort.by("position"))
+            .stream()
+            .map(message -> {
+              ContinueMessageResourcePost post = new ContinueMessageResourcePost();
+              post.setRole(message.getRole());
+              post.setContent(message.getContent());
+              return post;
+            })
+            .collect(Collectors.toList());
+    // Another request may have loaded it meanwhile: keep the instance already cached
+    return conversations.get(conversationId,
+            id -> new Conversation(id, entity.getOwnerKey(), messages, true));
+  }
+
+  /**
+   * Deletes the conversations past the retention, with their messages.
+   */
+  @Scheduled(fixedDelayString = "${chatai.conversations.cleanup-interval:PT1H}")
+  public void deleteExpired() {
+    LocalDateTime limit = LocalDateTime.now().minus(retention);
+    try {
+      long deleted;
+      do {
+        // Counted in conversations: some expired conversations may have no message
+        Map<String, Object> counts = jdbcTemplate.queryForMap(DELETE_EXPIRED_SQL, limit, DELETE_BATCH);
+        deleted = ((Number) counts.get("conversations")).longValue();
+        log.debug("Deleted {} conversations idle since {} and their {} messages", deleted, limit,
+                counts.get("messages"));
+      } while (deleted > 0);
+    } catch (Exception e) {
+      log.warn("Failed to delete the conversations idle since {}", limit, e);
+    }
+  }
+
+  private void persist(Conversation conversation, List<ContinueMessageResourcePost> messages) {
+    String conversationId = conversation.getId();
+    LocalDateTime now = LocalDateTime.now();
+    transactionTemplate.executeWithoutResult(status -> {
+      jdbcTemplate.queryForList(LOCK_SQL, conversationId);
+      // Not marked until committed: a failed first write is done again by the next append
+      Integer rows = conversation.isPersisted() ? 1 : jdbcTemplate.queryForObject(EXISTS_SQL, Integer.class,
+              conversationId);
+      if (rows == null || rows == 0) {
+        ConversationEntity entity = new ConversationEntity();
+        entity.setConversationId(conversationId);
+        entity.setOwnerKey(conversation.getOwnerKey());
+        entity.setCreatedDate(now);
+        entity.setLastMessageDate(now);
+        conversationDaoService.save(entity);
+      } else {
+        jdbcTemplate.update(TOUCH_SQL, now, conversationId);
+      }
+      // Other instances may have appended to the conversation: its memory tier does not know
+      Integer position = jdbcTemplate.queryForObject(NEXT_POSITION_SQL, Integer.class, conversationId);
+      List<ConversationMessageEntity> entities = new ArrayList<>(messages.size());
+      for (int i = 0; i < messages.size(); i++) {
+        ConversationMessageEntity entity = new ConversationMessageEntity();
+        entity.setConversationId(conversationId);
+        entity.setPosition((position == null ? 0 : position) + i);
+        entity.setRole(messages.get(i).getRole());
+        entity.setContent(messages.get(i).getContent());
+        entities.add(entity);
+      }
+      conversationMessageDaoService.saveAll(entities);
+    });
+    conversation.markPersisted();
+  }
+}
@@ -0,0 +1,64 @@
+package fr.fgroup.chatai.services.impl;
+
+import fr.fgroup.chatai.services.EmbeddingService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * LocalEmbeddingServiceImpl - Deterministic in-process embeddings.
+ *
+ * Feature hashing of the lower-cased words and of their character trigrams into a fixed
+ * number of dimensions. It only captures lexical similarity (shared words, small spelling
+ * differences), but needs no network and always gives the same vector for the same text,
+ * which makes it suitable for tests and local runs.
+ */
+@Service
+@ConditionalOnProperty(prefix = "chatai.semantic-cache", name = "embedder", havingValue = "local")
+public class LocalEmbeddingServiceImpl implements EmbeddingService {
+
+  private final int dimension;
+
+  public LocalEmbeddingServiceImpl(@Value("${chatai.semantic-cache.local-dimension:256}") int dimension) {
+    this.dimension = dimension;
+  }
+
+  @Override
+  public Mono<float[]> embed(String text) {
+    return Mono.fromSupplier(() -> embedNow(text));
+  }
+
+  private float[] embedNow(String text) {
+    float[] vector = new float[dimension];
+    for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+      if (word.isEmpty()) {
+        continue;
+      }
+      add(vector, word, 1f);
+      String padded = " " + word + " ";
+      for (int i = 0; i + 3 <= padded.length(); i++) {
+        add(vector, padded.substring(i, i + 3), 0.5f);
+      }
+    }
+    return vector;
+  }
+
+  private void add(float[] vector, String feature, float weight) {
+    int hash = fnv1a(feature);
+    // The sign bit spreads collisions around zero instead of piling them up
+    vector[Math.floorMod(hash, dimension)] += (hash & 0x80000000) == 0 ? weight : -weight;
+  }
+
+  private static int fnv1a(String feature) {
+    int hash = 0x811c9dc5;
+    for (byte b : feature.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xff;
+      hash *= 0x01000193;
+    }
+    return hash;
+  }
+}
@@ -0,0 +1,77 @@
+package fr.fgroup.chatai.services.impl;
+
+import fr.fgroup.chatai.entities.UserEntity;
+import fr.fgroup.chatai.models.TokenAccount;
+import fr.fgroup.chatai.services.QuotaCoordinatorService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * LocalQuotaCoordinatorServiceImpl - Quota of a single instance.
+ *
+ * The instance owns the whole quota of each user: the limit of an account is its
+ * {@code total_tokens_authorized} and there is nothing to claim or give back. Consumption is
+ * written as relative updates of {@code user_entity.total_tokens} in one JDBC batch, in one
+ * transaction.
+ */
+@Service
+@ConditionalOnProperty(prefix = "chatai.quota.cluster", name = "enabled", havingValue = "false", matchIfMissing = true)
+public class LocalQuotaCoordinatorServiceImpl implements QuotaCoordinatorService {
+
+  private static final String WRITE_SQL = "UPDATE user_entity SET total_tokens = total_tokens + ? WHERE id = ?";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final TransactionTemplate transactionTemplate;
+
+  public LocalQuotaCoordinatorServiceImpl(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+  }
+
+  @Override
+  public long initialLimit(UserEntity userEntity) {
+    return userEntity.getTotalTokensAuthorized();
+  }
+
+  @Override
+  public boolean refill(TokenAccount account, long tokens) {
+    return false;
+  }
+
+  @Override
+  public void onReserved(TokenAccount account) {
+    // The whole quota is already available
+  }
+
+  @Override
+  public void write(List<TokenAccount> accounts, List<Long> deltas) {
+    List<Object[]> args = new ArrayList<>(accounts.size());
+    for (int i = 0; i < accounts.size(); i++) {
+      args.add(new Object[]{deltas.get(i), accounts.get(i).getUserId()});
+    }
+    // All or nothing: the ledger gives every delta back if the write fails
+    transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(WRITE_SQL, args));
+  }
+
+  @Override
+  public Set<Long> takeReleaseRequests() {
+    return Set.of();
+  }
+
+  @Override
+  public void releaseUnused(TokenAccount account) {
+    // Nothing is leased
+  }
+
+  @Override
+  public void close(TokenAccount account) {
+    // Nothing is leased
+  }
+}
@@ -0,0 +1,199 @@
+package fr.fgroup.chatai.services.impl;
+
+import fr.fgroup.chatai.configs.IdSequenceMigration;
+import fr.fgroup.chatai.configs.LogStorageProperties;
+import fr.fgroup.chatai.services.LogPartitionService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * LogPartitionServiceImpl - Daily range partitions of {@code log_entity} on {@code received_date},
+ * with drop-based retention.
+ *
+ * At startup, once Hibernate has updated the schema, a plain {@code log_entity} is turned into a
+ * partitioned table: the existing table is renamed {@code log_entity_legacy} and attached as the
+ * partition of everything before the current day, so no row is copied. The partitions of the
+ * current day and of the next {@code days-ahead} days are then created, and again on every run
+ * of {@link #maintain()}.
+ *
+ * A partition whose upper bound is older than {@code retention} is detached and dropped, which
+ * costs nothing next to a DELETE of its rows (no dead tuples, no vacuum); the legacy partition
+ * goes the same way once the current day is past the retention.
+ *
+ * Instances run the migration and the maintenance under a transaction-scoped advisory lock.
+ *
+ * Metrics:
+ * - {@code chatai.logs.partitions.created}
+ * - {@code chatai.logs.partitions.dropped}
+ */
+@Slf4j
+@Service
+@DependsOn(IdSequenceMigration.BEAN)
+@ConditionalOnProperty(prefix = "chatai.logs.storage", name = "partitioned", havingValue = "true",
+        matchIfMissing = true)
+public class LogPartitionServiceImpl implements LogPartitionService {
+
+  private static final String TABLE = "log_entity";
+  private static final String LEGACY_TABLE = "log_entity_legacy";
+  private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd");
+  /** Upper bound in the partition bound expression, e.g. {@code TO ('2023-03-06 00:00:00')} */
+  private static final Pattern UPPER_BOUND = Pattern.compile("TO \\('([^']+)'\\)");
+
+  private static final String LOCK_SQL = "SELECT pg_advisory_xact_lock(hashtext(?))";
+  private static final String KIND_SQL = "SELECT c.relkind FROM pg_class c "
+          + "JOIN pg_namespace n ON n.oid = c.relnamespace WHERE n.nspname = current_schema() AND c.relname = ?";
+  private static final String PRIMARY_KEY_SQL = "SELECT conname FROM pg_constraint "
+          + "WHERE conrelid = ?::regclass AND contype = 'p'";
+  private static final String RENAME_SQL = "ALTER TABLE %s RENAME TO %s";
+  private static final String DROP_KEY_SQL = "ALTER TABLE %s DROP CONSTRAINT %s";
+  private static final String CREATE_PARENT_SQL = "CREATE TABLE %s (LIKE %s INCLUDING DEFAULTS) "
+          + "PARTITION BY RANGE (received_date)";
+  // The partition key has to be part of the primary key
+  private static final String PARENT_KEY_SQL = "ALTER TABLE %s ADD PRIMARY KEY (id, received_date)";
+  private static final String ATTACH_LEGACY_SQL = "ALTER TABLE %s ATTACH PARTITION %s "
+          + "FOR VALUES FROM (MINVALUE) TO ('%s')";
+  private static final String INDEX_SQL = "CREATE INDEX IF NOT EXISTS idx_log_entity_received_date "
+          + "ON log_entity (received_date)";
+  private static final String CREATE_PARTITION_SQL = "CREATE TABLE IF NOT EXISTS %s PARTITION OF %s "
+          + "FOR VALUES FROM ('%s') TO ('%s')";
+  private static final String PARTITIONS_SQL = "SELECT c.relname AS name, "
+          + "pg_get_expr(c.relpartbound, c.oid) AS bound FROM pg_inherits i "
+          + "JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = ?::regclass";
+  private static final String DETACH_SQL = "ALTER TABLE %s DETACH PARTITION %s";
+  private static final String DROP_SQL = "DROP TABLE %s";
+
+  private final LogStorageProperties properties;
+  private final JdbcTemplate jdbcTemplate;
+  private final TransactionTemplate transactionTemplate;
+  private final Counter created;
+  private final Counter dropped;
+
+  /**
+   * @param properties partitioning settings
+   * @param jdbcTemplate template running the DDL
+   * @param transactionManager transaction manager of the migration and of each maintenance
+   * @param entityManagerFactory entity manager factory, built (and the schema updated) before the migration
+   * @param meterRegistry registry of the partition metrics
+   */
+  public LogPartitionServiceImpl(LogStorageProperties properties,
+                                 JdbcTemplate jdbcTemplate,
+                                 PlatformTransactionManager transactionManager,
+                                 EntityManagerFactory entityManagerFactory,
+                                 MeterRegistry meterRegistry) {
+    this.properties = properties;
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.created = meterRegistry.counter("chatai.logs.partitions.created");
+    this.dropped = meterRegistry.counter("chatai.logs.partitions.dropped");
+  }
+
+  /**
+   * Partitions {@code log_entity} if it is not yet and creates the partitions of the coming days,
+   * in one transaction.
+   */
+  @PostConstruct
+  public void migrate() {
+    transactionTemplate.executeWithoutResult(status -> {
+      jdbcTemplate.queryForList(LOCK_SQL, TABLE);
+      List<String> kind = jdbcTemplate.queryForList(KIND_SQL, String.class, TABLE);
+      // 'r': plain table, 'p': already partitioned
+      if (!kind.isEmpty() && "r".equals(kind.get(0))) {
+        partition(today());
+      }
+      jdbcTemplate.execute(INDEX_SQL);
+      // Same transaction as the partitioning: no insert ever finds the table without a partition for it
+      maintain(today());
+    });
+  }
+
+  @Override
+  @Scheduled(fixedDelayString = "${chatai.logs.storage.maintenance-interval:PT1H}")
+  public void maintain() {
+    try {
+      transactionTemplate.executeWithoutResult(status -> {
+        jdbcTemplate.queryForList(LOCK_SQL, TABLE);
+        maintain(today());
+      });
+    } catch (RuntimeException e) {
+      // Partitions are created days ahead: the next run has time to retry
+      log.warn("Log partition maintenance failed", e);
+    }
+  }
+
+  private void maintain(LocalDate today) {
+    for (int day = 0; day <= properties.getDaysAhead(); day++) {
+      createPartition(today.plusDays(day));
+    }
+    dropExpired(LocalDateTime.now(ZoneOffset.UTC).minus(properties.getRetention()));
+  }
+
+  /**
+   * Turns the plain table into the partitioned one, the former table becoming the partition of
+   * the rows received before {@code firstDay}.
+   */
+  private void partition(LocalDate firstDay) {
+    List<String> primaryKey = jdbcTemplate.queryForList(PRIMARY_KEY_SQL, String.class, TABLE);
+    jdbcTemplate.execute(String.format(RENAME_SQL, TABLE, LEGACY_TABLE));
+    for (String key : primaryKey) {
+      // A partition has no primary key of its own: the attach builds the (id, received_date) one
+      // of the parent, and dropping the former key frees its <table>_pkey name for the parent
+      jdbcTemplate.execute(String.format(DROP_KEY_SQL, LEGACY_TABLE, key));
+    }
+    jdbcTemplate.execute(String.format(CREATE_PARENT_SQL, TABLE, LEGACY_TABLE));
+    jdbcTemplate.execute(String.format(PARENT_KEY_SQL, TABLE));
+    // Validated with one scan of the former table, its rows are not moved
+    jdbcTemplate.execute(String.format(ATTACH_LEGACY_SQL, TABLE, LEGACY_TABLE, firstDay.atStartOfDay()));
+    log.info("Partitioned {}, former rows kept in {} until {}", TABLE, LEGACY_TABLE,
+            firstDay.atStartOfDay().plus(properties.getRetention()));
+  }
+
+  private void createPartition(LocalDate day) {
+    String partition = TABLE + "_p" + PARTITION_SUFFIX.format(day);
+    List<String> kind = jdbcTemplate.queryForList(KIND_SQL, String.class, partition);
+    if (kind.isEmpty()) {
+      jdbcTemplate.execute(String.format(CREATE_PARTITION_SQL, partition, TABLE,
+              day.atStartOfDay(), day.plusDays(1).atStartOfDay()));
+      created.increment();
+      log.info("Created log partition {}", partition);
+    }
+  }
+
+  /**
+   * Drops the partitions holding only rows received before {@code limit}.
+   */
+  private void dropExpired(LocalDateTime limit) {
+    for (Map<String, Object> partition : jdbcTemplate.queryForList(PARTITIONS_SQL, TABLE)) {
+      String name = (String) partition.get("name");
+      Matcher upperBound = UPPER_BOUND.matcher(String.valueOf(partition.get("bound")));
+      if (upperBound.find() && !LocalDateTime.parse(upperBound.group(1).replace(' ', 'T')).isAfter(limit)) {
+        jdbcTemplate.execute(String.format(DETACH_SQL, TABLE, name));
+        jdbcTemplate.execute(String.format(DROP_SQL, name));
+        dropped.increment();
+        log.info("Dropped log partition {}, past the {} retention", name, properties.getRetention());
+      }
+    }
+  }
+
+  private static LocalDate today() {
+    return LocalDate.now(ZoneOffset.UTC);
+  }
+}
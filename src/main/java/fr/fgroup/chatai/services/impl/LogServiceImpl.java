@@ -2,43 +2,181 @@ package fr.fgroup.chatai.services.impl;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import fr.fgroup.chatai.dao.services.LogDaoService;
 import fr.fgroup.chatai.entities.LogEntity;
+import fr.fgroup.chatai.resources.BulkLogErrorResource;
+import fr.fgroup.chatai.resources.BulkLogResource;
 import fr.fgroup.chatai.resources.LogResource;
 import fr.fgroup.chatai.services.LogService;
+import fr.fgroup.chatai.services.UserKeyService;
 import fr.fgroup.chatai.utils.CryptUtil;
+import fr.fgroup.chatai.utils.UserContextHolder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * LogServiceImpl - Asynchronous ingestion of the encrypted system logs.
+ *
+ * {@code POST /chatai/system} only checks the payload and puts it in a bounded queue, then
+ * answers ACCEPTED: the request thread never decrypts, parses or touches the database.
+ * When the queue is full the client gets TOO_MANY_REQUESTS, so telemetry bursts are shed
+ * instead of piling up in memory or competing with chat traffic for database connections.
+ *
+ * {@code chatai.logs.workers} background threads take the queued payloads by batches of up to
+ * {@code chatai.logs.batch-size}, decrypt them with a key decoded once and a cipher per
+ * thread, parse them with a shared reader and insert them in JDBC batches. On shutdown the
+ * queue is drained for at most {@code chatai.logs.drain-timeout}.
+ *
+ * {@code POST /chatai/system/bulk} takes many records at once as NDJSON, optionally gzip
+ * compressed: lines are read and decompressed as a stream, each one being an encrypted record
+ * or a plain JSON one. Encrypted records are authenticated by the shared encryption key, plain
+ * records need a valid user key in the Authorization header. Records are parsed as they are read,
+ * so failed lines can be reported by number, and put in the same bounded queue: the request
+ * thread never touches the database. A full queue stops the upload with TOO_MANY_REQUESTS, the
+ * lines already queued being kept; the other failed lines do not stop it.
+ *
+ * Metrics:
+ * - {@code chatai.logs.queue.depth}: payloads waiting to be written
+ * - {@code chatai.logs.accepted}, {@code chatai.logs.rejected{reason=full|invalid}}
+ * - {@code chatai.logs.written}, {@code chatai.logs.dropped{reason=decrypt|parse|write}}
+ * - {@code chatai.logs.bulk.uploads}, {@code chatai.logs.bulk.lines}
+ *
+ * @author Tarik FAMIL (contact: tarikfamil@gmail.com)
+ * @version 1.0
+ * @since 2023-03-05
+ */
 @Slf4j
 @Service
-@Transactional
 public class LogServiceImpl implements LogService {
 
+  /** Retry delay suggested to a client whose log was refused because the queue is full */
+  private static final Duration FULL_RETRY_AFTER = Duration.ofSeconds(1);
+
+  /** Wait of an idle worker before checking whether the service is stopping */
+  private static final long POLL_TIMEOUT_MILLIS = 200;
+
+  private static final String SYSTEM_TYPE = "system";
+  private static final String FRONT_TYPE = "front";
+
   private final LogDaoService logDaoService;
-  @Value("${encryption.key}")
-  private String secretKey;
+  private final UserKeyService userKeyService;
+  private final ObjectReader logReader;
+  private final ObjectReader frontLogReader;
+  private final CryptUtil.Decryptor decryptor;
+  private final BlockingQueue<QueuedLog> queue;
+  private final int workerCount;
+  private final int batchSize;
+  private final int maxBytes;
+  private final Duration drainTimeout;
+  private final int bulkMaxLines;
+  private final int bulkMaxErrors;
+  private final List<Thread> workers = new ArrayList<>();
 
-  public LogServiceImpl(LogDaoService logDaoService) {
+  private final Counter accepted;
+  private final Counter rejectedFull;
+  private final Counter rejectedInvalid;
+  private final Counter written;
+  private final Counter droppedDecrypt;
+  private final Counter droppedParse;
+  private final Counter droppedWrite;
+  private final Counter bulkUploads;
+  private final Counter bulkLines;
+
+  private volatile boolean running = true;
+
+  public LogServiceImpl(LogDaoService logDaoService,
+                        UserKeyService userKeyService,
+                        ObjectMapper objectMapper,
+                        MeterRegistry meterRegistry,
+                        @Value("${encryption.key}") String secretKey,
+                        @Value("${chatai.logs.queue-capacity:10000}") int queueCapacity,
+                        @Value("${chatai.logs.workers:2}") int workerCount,
+                        @Value("${chatai.logs.batch-size:500}") int batchSize,
+                        @Value("${chatai.logs.max-bytes:65536}") int maxBytes,
+                        @Value("${chatai.logs.drain-timeout:PT10S}") Duration drainTimeout,
+                        @Value("${chatai.logs.bulk.max-lines:100000}") int bulkMaxLines,
+                        @Value("${chatai.logs.bulk.max-errors:100}") int bulkMaxErrors) {
     this.logDaoService = logDaoService;
+    this.userKeyService = userKeyService;
+    this.logReader = objectMapper.readerFor(LogEntity.class);
+    this.frontLogReader = objectMapper.readerFor(LogResource.class);
+    this.decryptor = CryptUtil.decryptor(CryptUtil.encodeKey(secretKey));
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    this.workerCount = Math.max(1, workerCount);
+    this.batchSize = Math.max(1, batchSize);
+    this.maxBytes = maxBytes;
+    this.drainTimeout = drainTimeout;
+    this.bulkMaxLines = bulkMaxLines;
+    this.bulkMaxErrors = bulkMaxErrors;
+    meterRegistry.gaugeCollectionSize("chatai.logs.queue.depth", Tags.empty(), queue);
+    this.accepted = meterRegistry.counter("chatai.logs.accepted");
+    this.rejectedFull = meterRegistry.counter("chatai.logs.rejected", "reason", "full");
+    this.rejectedInvalid = meterRegistry.counter("chatai.logs.rejected", "reason", "invalid");
+    this.written = meterRegistry.counter("chatai.logs.written");
+    this.droppedDecrypt = meterRegistry.counter("chatai.logs.dropped", "reason", "decrypt");
+    this.droppedParse = meterRegistry.counter("chatai.logs.dropped", "reason", "parse");
+    this.droppedWrite = meterRegistry.counter("chatai.logs.dropped", "reason", "write");
+    this.bulkUploads = meterRegistry.counter("chatai.logs.bulk.uploads");
+    this.bulkLines = meterRegistry.counter("chatai.logs.bulk.lines");
+  }
+
+  /**
+   * Starts the workers writing the queued logs.
+   */
+  @PostConstruct
+  public void start() {
+    for (int i = 0; i < workerCount; i++) {
+      Thread worker = new Thread(this::work, "chatai-log-writer-" + i);
+      worker.setDaemon(true);
+      worker.start();
+      workers.add(worker);
+    }
   }
 
   @Override
   public ResponseEntity<Void> create(String data) {
-    String encodedBase64Key = CryptUtil.encodeKey(secretKey);
-    String json = CryptUtil.decrypt(data, encodedBase64Key);
-    ObjectMapper objectMapper = new ObjectMapper();
-    try {
-      LogEntity logEntity = objectMapper.readValue(json, LogEntity.class);
-      logDaoService.save(logEntity);
-    } catch (JsonProcessingException e) {
-      log.error("json processing failed : ", e);
+    if (data == null || data.isBlank() || data.length() > maxBytes) {
+      rejectedInvalid.increment();
+      return new ResponseEntity<>(data == null || data.isBlank() ? HttpStatus.BAD_REQUEST
+              : HttpStatus.PAYLOAD_TOO_LARGE);
     }
-    return new ResponseEntity<>(HttpStatus.OK);
+    if (!running) {
+      return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+    }
+    if (!queue.offer(new QueuedLog(data.trim(), null))) {
+      rejectedFull.increment();
+      log.debug("Log queue full, rejecting log");
+      return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+              .header(HttpHeaders.RETRY_AFTER, String.valueOf(FULL_RETRY_AFTER.getSeconds()))
+              .build();
+    }
+    accepted.increment();
+    return new ResponseEntity<>(HttpStatus.ACCEPTED);
   }
 
   @Override
@@ -46,4 +184,247 @@ public class LogServiceImpl implements LogService {
     log.info("Front logs: {}", resource);
     return new ResponseEntity<>(HttpStatus.OK);
   }
+
+  @Override
+  public ResponseEntity<BulkLogResource> bulk(InputStream body, boolean gzip, String type) {
+    if (!SYSTEM_TYPE.equals(type) && !FRONT_TYPE.equals(type)) {
+      return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+    }
+    if (!running) {
+      return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+    }
+    bulkUploads.increment();
+    BulkUpload upload = new BulkUpload();
+    HttpStatus status = HttpStatus.ACCEPTED;
+    try (Reader reader = new BufferedReader(new InputStreamReader(
+            gzip ? new GZIPInputStream(body) : body, StandardCharsets.UTF_8))) {
+      StringBuilder line = new StringBuilder();
+      int lineNumber = 0;
+      long length;
+      while ((length = readLine(reader, line, maxBytes)) >= 0) {
+        lineNumber++;
+        if (line.toString().isBlank()) {
+          continue;
+        }
+        if (++upload.lines > bulkMaxLines) {
+          upload.lines--;
+          upload.fail(lineNumber, "More than " + bulkMaxLines + " lines, the rest of the upload is ignored");
+          status = HttpStatus.PAYLOAD_TOO_LARGE;
+          break;
+        }
+        if (length > maxBytes) {
+          droppedParse.increment();
+          upload.fail(lineNumber, "Line longer than " + maxBytes + " bytes");
+          continue;
+        }
+        if (FRONT_TYPE.equals(type)) {
+          readFrontLog(upload, lineNumber, line.toString().trim());
+        } else if (!queueSystemLog(upload, lineNumber, line.toString().trim())) {
+          upload.fail(lineNumber, "Log queue full, the rest of the upload is ignored");
+          status = HttpStatus.TOO_MANY_REQUESTS;
+          break;
+        }
+      }
+    } catch (IOException e) {
+      log.warn("Bulk log upload unreadable after {} lines : {}", upload.lines, e.getMessage());
+      upload.fail(upload.lines + 1, "Unreadable upload: " + e.getMessage());
+      status = HttpStatus.BAD_REQUEST;
+    } finally {
+      bulkLines.increment(upload.lines);
+    }
+    ResponseEntity.BodyBuilder response = ResponseEntity.status(status);
+    if (status == HttpStatus.TOO_MANY_REQUESTS) {
+      response.header(HttpHeaders.RETRY_AFTER, String.valueOf(FULL_RETRY_AFTER.getSeconds()));
+    }
+    return response.body(new BulkLogResource(upload.lines, upload.accepted, upload.failed, upload.errors));
+  }
+
+  /**
+   * Parses a system record and queues it for the workers.
+   *
+   * @return false if the queue is full
+   */
+  private boolean queueSystemLog(BulkUpload upload, int lineNumber, String line) {
+    // Plain records are JSON objects, encrypted ones the Base64 of their ciphertext
+    boolean plain = line.startsWith("{");
+    if (plain && !upload.isKeyValid()) {
+      rejectedInvalid.increment();
+      upload.fail(lineNumber, "Plain records need a valid key");
+      return true;
+    }
+    String json = plain ? line : decryptor.decrypt(line);
+    if (json == null) {
+      droppedDecrypt.increment();
+      upload.fail(lineNumber, "Cannot be decrypted");
+      return true;
+    }
+    LogEntity entity;
+    try {
+      entity = logReader.readValue(json);
+    } catch (JsonProcessingException e) {
+      droppedParse.increment();
+      upload.fail(lineNumber, "Invalid record: " + e.getOriginalMessage());
+      return true;
+    }
+    if (!queue.offer(new QueuedLog(null, entity))) {
+      rejectedFull.increment();
+      return false;
+    }
+    accepted.increment();
+    upload.accepted++;
+    return true;
+  }
+
+  private void readFrontLog(BulkUpload upload, int lineNumber, String line) {
+    try {
+      LogResource resource = frontLogReader.readValue(line);
+      log.info("Front logs: {}", resource);
+      upload.accepted++;
+    } catch (JsonProcessingException e) {
+      droppedParse.increment();
+      upload.fail(lineNumber, "Invalid record: " + e.getOriginalMessage());
+    }
+  }
+
+  /**
+   * Reads the next line, without keeping more than its first bytes in memory.
+   *
+   * @param reader the upload
+   * @param line receives the characters of the first {@code maxBytes} bytes of the line, without the line end
+   * @param maxBytes the bytes kept, counted in UTF-8
+   * @return the length of the whole line in UTF-8 bytes, or -1 at the end of the upload
+   * @throws IOException if the upload cannot be read
+   */
+  private static long readLine(Reader reader, StringBuilder line, int maxBytes) throws IOException {
+    line.setLength(0);
+    long length = 0;
+    boolean empty = true;
+    int c;
+    while ((c = reader.read()) >= 0 && c != '\n') {
+      empty = false;
+      if (c == '\r') {
+        continue;
+      }
+      // A surrogate pair is 4 bytes in UTF-8, 2 for each half
+      length += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate((char) c) ? 2 : 3;
+      if (length <= maxBytes) {
+        line.append((char) c);
+      }
+    }
+    return c < 0 && empty ? -1 : length;
+  }
+
+  /**
+   * Progress of a bulk upload.
+   */
+  private class BulkUpload {
+    private final List<BulkLogErrorResource> errors = new ArrayList<>();
+    private int lines;
+    private int accepted;
+    private int failed;
+    /** Whether the uploader's key is valid, checked on the first plain record */
+    private Boolean keyValid;
+
+    boolean isKeyValid() {
+      if (keyValid == null) {
+        keyValid = userKeyService.isValid(UserContextHolder.getContext().getKey());
+      }
+      return keyValid;
+    }
+
+    void fail(int lineNumber, String error) {
+      failed++;
+      if (errors.size() < bulkMaxErrors) {
+        errors.add(new BulkLogErrorResource(lineNumber, error));
+      }
+    }
+  }
+
+  /**
+   * Loop of a worker: takes the queued logs by batches and writes them, until the service
+   * stops and the queue is empty.
+   */
+  private void work() {
+    List<QueuedLog> batch = new ArrayList<>(batchSize);
+    while (running || !queue.isEmpty()) {
+      try {
+        QueuedLog first = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        queue.drainTo(batch, batchSize - 1);
+        write(batch);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Exception e) {
+        log.error("Log worker failed on a batch of {} logs", batch.size(), e);
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  private void write(List<QueuedLog> batch) {
+    List<LogEntity> entities = new ArrayList<>(batch.size());
+    for (QueuedLog queued : batch) {
+      if (queued.entity != null) {
+        entities.add(queued.entity);
+        continue;
+      }
+      String json = decryptor.decrypt(queued.data);
+      if (json == null) {
+        droppedDecrypt.increment();
+        continue;
+      }
+      try {
+        entities.add(logReader.readValue(json));
+      } catch (IOException e) {
+        log.error("json processing failed : ", e);
+        droppedParse.increment();
+      }
+    }
+    if (entities.isEmpty()) {
+      return;
+    }
+    try {
+      logDaoService.insertAll(entities);
+      written.increment(entities.size());
+    } catch (Exception e) {
+      log.error("Failed to write {} logs, dropping them", entities.size(), e);
+      droppedWrite.increment(entities.size());
+    }
+  }
+
+  /**
+   * A queued log: the encrypted payload of {@code /chatai/system}, or a record of a bulk upload
+   * already parsed on reception to report its errors.
+   */
+  @RequiredArgsConstructor
+  private static class QueuedLog {
+    private final String data;
+    private final LogEntity entity;
+  }
+
+  /**
+   * Stops accepting logs and writes the queued ones, within the drain timeout.
+   */
+  @PreDestroy
+  public void shutdown() {
+    running = false;
+    log.info("Draining {} queued logs before shutdown", queue.size());
+    long deadline = System.nanoTime() + drainTimeout.toNanos();
+    for (Thread worker : workers) {
+      try {
+        worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    if (!queue.isEmpty()) {
+      log.warn("Drain timeout reached, {} queued logs are lost", queue.size());
+    }
+  }
 }
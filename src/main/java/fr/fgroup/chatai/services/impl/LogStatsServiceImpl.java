@@ -0,0 +1,172 @@
+package fr.fgroup.chatai.services.impl;
+
+import fr.fgroup.chatai.configs.IdSequenceMigration;
+import fr.fgroup.chatai.configs.LogStorageProperties;
+import fr.fgroup.chatai.dao.services.LogRollupDaoService;
+import fr.fgroup.chatai.dao.specifications.LogRollupSpecifications;
+import fr.fgroup.chatai.entities.LogRollupEntity;
+import fr.fgroup.chatai.entities.base.AbstractBaseEntity;
+import fr.fgroup.chatai.resources.LogStatsResource;
+import fr.fgroup.chatai.services.LogStatsService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * LogStatsServiceImpl - Hourly rollups of the logs and the dashboard queries reading them.
+ *
+ * Every {@code rollup.interval}, the counts of the logs by hour, category, action type and action
+ * result are recomputed from {@code log_entity} for the hours touched since the previous run (the
+ * last {@code rollup.catch-up} at startup) and written to {@code log_rollup_entity}, only the
+ * changed counts being updated and only the new buckets taking ids. A whole
+ * hour is recomputed each time, so runs are idempotent: a run failing, or several instances
+ * running, never counts a log twice. Only one instance rolls up at a time (advisory lock), the
+ * others skip the run. The range read is bounded by {@code received_date}, so only the partitions
+ * of these hours are scanned.
+ *
+ * Stats queries never touch the logs: counts of the current hour lag by up to one interval, and
+ * counts outlive the logs themselves (kept {@code rollup.retention}). Logs received before the
+ * table was partitioned have no reception date and are not counted.
+ *
+ * Metrics:
+ * - {@code chatai.logs.rollup}: duration of the runs
+ * - {@code chatai.logs.rollup.failures}
+ */
+@Slf4j
+@Service
+@DependsOn(IdSequenceMigration.BEAN)
+public class LogStatsServiceImpl implements LogStatsService {
+
+  private static final String LOCK = "log_rollup_entity";
+  /** Time a log may take to be committed after being stamped, covered again by the next run */
+  private static final Duration SETTLE = Duration.ofMinutes(1);
+
+  private static final String TRY_LOCK_SQL = "SELECT pg_try_advisory_xact_lock(hashtext(?))";
+  private static final String BUCKET_MATCH = "r.hour_start = c.hour_start AND r.category = c.category "
+          + "AND r.action_type = c.action_type AND r.action_result = c.action_result";
+  /**
+   * Counts of the range, updated in place when they changed; the missing buckets are inserted with
+   * ids taken pooled-lo style, one sequence call per block of ids, so upserting the same hours
+   * every run never burns a block per bucket.
+   */
+  private static final String ROLLUP_SQL = "WITH counts AS ("
+          + "SELECT date_trunc('hour', received_date) AS hour_start, COALESCE(category, '') AS category, "
+          + "COALESCE(action_type, '') AS action_type, COALESCE(action_result, '') AS action_result, "
+          + "COUNT(*) AS event_count FROM log_entity WHERE received_date >= ? AND received_date < ? "
+          + "GROUP BY 1, 2, 3, 4), "
+          + "updated AS (UPDATE log_rollup_entity r SET event_count = c.event_count FROM counts c "
+          + "WHERE " + BUCKET_MATCH + " AND r.event_count <> c.event_count RETURNING r.id), "
+          + "missing AS (SELECT c.*, row_number() OVER () - 1 AS n FROM counts c "
+          + "WHERE NOT EXISTS (SELECT 1 FROM log_rollup_entity r WHERE " + BUCKET_MATCH + ")), "
+          + "blocks AS (SELECT b, nextval('log_rollup_entity_seq') AS first_id FROM generate_series(0, "
+          + "CEIL((SELECT COUNT(*) FROM missing) / " + AbstractBaseEntity.ID_ALLOCATION_SIZE + ".0)::int - 1) b), "
+          + "inserted AS (INSERT INTO log_rollup_entity "
+          + "(id, hour_start, category, action_type, action_result, event_count) "
+          + "SELECT first_id + n % " + AbstractBaseEntity.ID_ALLOCATION_SIZE
+          + ", hour_start, category, action_type, action_result, event_count "
+          + "FROM missing JOIN blocks ON b = n / " + AbstractBaseEntity.ID_ALLOCATION_SIZE + " RETURNING id) "
+          + "SELECT (SELECT COUNT(*) FROM updated) + (SELECT COUNT(*) FROM inserted)";
+  private static final String PURGE_SQL = "DELETE FROM log_rollup_entity WHERE hour_start < ?";
+
+  private static final Sort ORDER = Sort.by("hourStart", "category", "actionType", "actionResult");
+
+  private final LogStorageProperties properties;
+  private final LogRollupDaoService logRollupDaoService;
+  private final JdbcTemplate jdbcTemplate;
+  private final TransactionTemplate transactionTemplate;
+  private final Timer rollupTimer;
+  private final Counter failures;
+
+  /** Start of the last run, null before the first one */
+  private volatile LocalDateTime lastRun;
+
+  /**
+   * @param properties rollup settings
+   * @param logRollupDaoService reads of the rollups
+   * @param jdbcTemplate template running the rollups
+   * @param transactionManager transaction manager of each run
+   * @param meterRegistry registry of the rollup metrics
+   */
+  public LogStatsServiceImpl(LogStorageProperties properties,
+                             LogRollupDaoService logRollupDaoService,
+                             JdbcTemplate jdbcTemplate,
+                             PlatformTransactionManager transactionManager,
+                             MeterRegistry meterRegistry) {
+    this.properties = properties;
+    this.logRollupDaoService = logRollupDaoService;
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.rollupTimer = meterRegistry.timer("chatai.logs.rollup");
+    this.failures = meterRegistry.counter("chatai.logs.rollup.failures");
+  }
+
+  @Override
+  @Scheduled(fixedDelayString = "${chatai.logs.storage.rollup.interval:PT1M}")
+  public void rollup() {
+    LogStorageProperties.Rollup settings = properties.getRollup();
+    LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+    LocalDateTime earliest = now.minus(settings.getCatchUp());
+    LocalDateTime since = lastRun == null || lastRun.minus(SETTLE).isBefore(earliest)
+            ? earliest : lastRun.minus(SETTLE);
+    LocalDateTime from = since.truncatedTo(ChronoUnit.HOURS);
+    LocalDateTime to = now.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+    try {
+      rollupTimer.record(() -> transactionTemplate.executeWithoutResult(status -> {
+        if (!Boolean.TRUE.equals(jdbcTemplate.queryForObject(TRY_LOCK_SQL, Boolean.class, LOCK))) {
+          // Another instance is recomputing the same hours
+          return;
+        }
+        Long buckets = jdbcTemplate.queryForObject(ROLLUP_SQL, Long.class, from, to);
+        jdbcTemplate.update(PURGE_SQL, now.minus(settings.getRetention()));
+        log.debug("Rolled up the logs from {} to {}, {} counts changed", from, to, buckets);
+      }));
+      lastRun = now;
+    } catch (RuntimeException e) {
+      failures.increment();
+      log.warn("Log rollup from {} to {} failed", from, to, e);
+    }
+  }
+
+  @Override
+  public ResponseEntity<List<LogStatsResource>> stats(LocalDateTime from, LocalDateTime to, String category,
+                                                      String actionType, String actionResult) {
+    LocalDateTime end = to != null ? to : LocalDateTime.now(ZoneOffset.UTC);
+    // The hour holding the start of the range is included
+    LocalDateTime start = (from != null ? from : end.minusDays(1)).truncatedTo(ChronoUnit.HOURS);
+    if (!start.isBefore(end) || Duration.between(start, end).compareTo(properties.getRollup().getMaxRange()) > 0) {
+      return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+    }
+    Specification<LogRollupEntity> specification = Specification.where(LogRollupSpecifications.between(start, end))
+            .and(LogRollupSpecifications.withValue("category", category))
+            .and(LogRollupSpecifications.withValue("actionType", actionType))
+            .and(LogRollupSpecifications.withValue("actionResult", actionResult));
+    List<LogStatsResource> stats = logRollupDaoService.findAll(specification, ORDER).stream()
+            .map(rollup -> new LogStatsResource(rollup.getHourStart(), emptyToNull(rollup.getCategory()),
+                    emptyToNull(rollup.getActionType()), emptyToNull(rollup.getActionResult()),
+                    rollup.getEventCount()))
+            .collect(Collectors.toList());
+    return new ResponseEntity<>(stats, HttpStatus.OK);
+  }
+
+  private static String emptyToNull(String value) {
+    return value == null || value.isEmpty() ? null : value;
+  }
+}
@@ -0,0 +1,177 @@
+package fr.fgroup.chatai.services.impl;
+
+import fr.fgroup.chatai.configs.ModelRouterProperties;
+import fr.fgroup.chatai.exceptions.UpstreamUnavailableException;
+import fr.fgroup.chatai.models.ModelRoute;
+import fr.fgroup.chatai.models.TokenAccount;
+import fr.fgroup.chatai.services.ModelRouterService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ModelRouterServiceImpl - Rule-based model routing, aware of the observed model latencies.
+ *
+ * A completion gets the models of the first rule of {@code chatai.router.rules} it matches,
+ * on the client's tier ({@code X-Model-Tier} header, clamped to the tiers stored for the user),
+ * its prompt tokens and the tokens left on the user's quota, or the default model if none
+ * matches. Then:
+ * - models whose {@code context-window} cannot hold the prompt and the completion
+ *   allowance are dropped
+ * - models slower than their {@code max-latency} (moving average of the answered calls)
+ *   are moved behind the others
+ *
+ * The remaining models form the fallback chain: a call refused or rate limited on one
+ * model is sent to the next. A typical setup sends short prompts to a small, fast model
+ * and keeps the large context models for long prompts and premium tiers.
+ *
+ * Metrics:
+ * - {@code chatai.router.decisions{rule,model}}: preferred model of each routed completion
+ * - {@code chatai.router.fallbacks{from,to}}
+ * - {@code chatai.router.latency{model}}: moving average of the answered calls, in ms
+ */
+@Slf4j
+@Service
+public class ModelRouterServiceImpl implements ModelRouterService {
+
+  private static final String DEFAULT_RULE = "default";
+
+  private final ModelRouterProperties properties;
+  private final long completionReserve;
+  private final MeterRegistry meterRegistry;
+
+  /** Observed latency of each model */
+  private final Map<String, Latency> latencies = new ConcurrentHashMap<>();
+
+  public ModelRouterServiceImpl(ModelRouterProperties properties,
+                                @Value("${chatai.quota.completion-reserve:0}") long completionReserve,
+                                MeterRegistry meterRegistry) {
+    this.properties = properties;
+    this.completionReserve = completionReserve;
+    this.meterRegistry = meterRegistry;
+  }
+
+  @Override
+  public ModelRoute route(long promptTokens, TokenAccount account, String requestedTier) {
+    if (!properties.isEnabled()) {
+      return new ModelRoute(List.of(properties.getDefaultModel()), DEFAULT_RULE);
+    }
+    // The header is only a choice among the tiers the user is entitled to
+    String tier = account.tierOf(requestedTier);
+    long remainingTokens = account.getTotalTokensAuthorized() - account.getTotalTokens();
+    String rule = DEFAULT_RULE;
+    List<String> chain = List.of(properties.getDefaultModel());
+    for (int i = 0; i < properties.getRules().size(); i++) {
+      ModelRouterProperties.Rule candidate = properties.getRules().get(i);
+      if (matches(candidate, promptTokens, remainingTokens, tier) && !candidate.getModels().isEmpty()) {
+        rule = candidate.getName() != null ? candidate.getName() : "rule-" + i;
+        chain = candidate.getModels();
+        break;
+      }
+    }
+    List<String> models = order(fitting(chain, promptTokens + completionReserve));
+    meterRegistry.counter("chatai.router.decisions", "rule", rule, "model", models.get(0)).increment();
+    log.debug("Routed {} prompt tokens (tier {}) with rule {} to {}", promptTokens, tier, rule, models);
+    return new ModelRoute(models, rule);
+  }
+
+  @Override
+  public boolean isOverloaded(Throwable failure) {
+    if (failure instanceof UpstreamUnavailableException) {
+      return true;
+    }
+    if (failure instanceof WebClientResponseException) {
+      int status = ((WebClientResponseException) failure).getRawStatusCode();
+      return status == 429 || status == 503;
+    }
+    return false;
+  }
+
+  @Override
+  public void recordFallback(String from, String to) {
+    log.info("Model {} overloaded, falling back to {}", from, to);
+    meterRegistry.counter("chatai.router.fallbacks", "from", from, "to", to).increment();
+  }
+
+  @Override
+  public void recordLatency(String model, long nanos) {
+    latencies.computeIfAbsent(model, m -> {
+      Latency created = new Latency();
+      Gauge.builder("chatai.router.latency", created, l -> Math.max(0, l.millis))
+              .tag("model", m)
+              .register(meterRegistry);
+      return created;
+    }).record(nanos / 1_000_000.0, properties.getLatencySmoothing());
+  }
+
+  private static boolean matches(ModelRouterProperties.Rule rule, long promptTokens, long remainingTokens,
+                                 String tier) {
+    return (rule.getTier() == null || rule.getTier().equalsIgnoreCase(tier))
+            && promptTokens >= rule.getMinPromptTokens()
+            && (rule.getMaxPromptTokens() == null || promptTokens <= rule.getMaxPromptTokens())
+            && remainingTokens >= rule.getMinRemainingTokens();
+  }
+
+  /**
+   * Drops the models too small for the request; keeps the chain as is if none is large enough,
+   * the upstream answer then tells the client.
+   */
+  private List<String> fitting(List<String> chain, long requestTokens) {
+    List<String> fitting = new ArrayList<>(chain.size());
+    for (String model : chain) {
+      ModelRouterProperties.Model settings = properties.getModels().get(model);
+      if (settings == null || settings.getContextWindow() <= 0 || requestTokens <= settings.getContextWindow()) {
+        fitting.add(model);
+      }
+    }
+    return fitting.isEmpty() ? chain : fitting;
+  }
+
+  /**
+   * Moves the models slower than their maximum latency behind the others, keeping the
+   * configured order within each group.
+   */
+  private List<String> order(List<String> chain) {
+    List<String> fast = new ArrayList<>(chain.size());
+    List<String> slow = new ArrayList<>();
+    for (String model : chain) {
+      (isSlow(model) ? slow : fast).add(model);
+    }
+    fast.addAll(slow);
+    return fast;
+  }
+
+  private boolean isSlow(String model) {
+    ModelRouterProperties.Model settings = properties.getModels().get(model);
+    Latency latency = latencies.get(model);
+    if (settings == null || settings.getMaxLatency() == null || latency == null) {
+      return false;
+    }
+    // A model moved behind gets few calls: once its latency is stale it is tried first again
+    if (System.nanoTime() - latency.updatedAt > properties.getLatencyExpiry().toNanos()) {
+      return false;
+    }
+    return latency.millis > settings.getMaxLatency().toMillis();
+  }
+
+  /**
+   * Moving average of the latency of a model.
+   */
+  private static class Latency {
+    private volatile double millis = -1;
+    private volatile long updatedAt;
+
+    synchronized void record(double value, double smoothing) {
+      millis = millis < 0 ? value : millis + smoothing * (value - millis);
+      updatedAt = System.nanoTime();
+    }
+  }
+}
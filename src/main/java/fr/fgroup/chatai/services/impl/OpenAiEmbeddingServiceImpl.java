@@ -0,0 +1,47 @@
+package fr.fgroup.chatai.services.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.fgroup.chatai.clients.OpenAiClient;
+import fr.fgroup.chatai.exceptions.ExpectationFailedException;
+import fr.fgroup.chatai.services.EmbeddingService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+/**
+ * OpenAiEmbeddingServiceImpl - Embeddings computed by the OpenAI embedding endpoint.
+ */
+@Service
+@ConditionalOnProperty(prefix = "chatai.semantic-cache", name = "embedder", havingValue = "openai", matchIfMissing = true)
+public class OpenAiEmbeddingServiceImpl implements EmbeddingService {
+
+  private final OpenAiClient openAiClient;
+  private final ObjectMapper objectMapper;
+  private final String model;
+
+  public OpenAiEmbeddingServiceImpl(OpenAiClient openAiClient,
+                                    ObjectMapper objectMapper,
+                                    @Value("${chatai.semantic-cache.embedding-model:text-embedding-ada-002}") String model) {
+    this.openAiClient = openAiClient;
+    this.objectMapper = objectMapper;
+    this.model = model;
+  }
+
+  @Override
+  public Mono<float[]> embed(String text) {
+    String body;
+    try {
+      body = objectMapper.writeValueAsString(Map.of("model", model, "input", text));
+    } catch (JsonProcessingException e) {
+      return Mono.error(new ExpectationFailedException("Failed to serialize the embedding request", e));
+    }
+    return openAiClient.embeddings(model, body)
+            .flatMap(response -> response.getData() == null || response.getData().isEmpty()
+                    ? Mono.empty()
+                    : Mono.justOrEmpty(response.getData().get(0).getEmbedding()));
+  }
+}
@@ -0,0 +1,335 @@
+package fr.fgroup.chatai.services.impl;
+
+import fr.fgroup.chatai.configs.IdSequenceMigration;
+import fr.fgroup.chatai.entities.UserEntity;
+import fr.fgroup.chatai.models.TokenAccount;
+import fr.fgroup.chatai.services.QuotaCoordinatorService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.scheduler.Scheduler;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PostgresQuotaCoordinatorServiceImpl - Quotas shared by a cluster of instances through Postgres.
+ *
+ * Each instance leases blocks of {@code chatai.quota.cluster.block-size} tokens of a user's
+ * quota ({@code token_lease_entity}, one row per user and instance) and consumes them
+ * locally: the database is reached once per block, not once per request.
+ * - Claim: under a lock of the user row, a block is granted only if the consumption plus
+ *   the live leases of all instances stay within {@code total_tokens_authorized}
+ * - Consumption: each flush adds the consumed tokens to {@code user_entity.total_tokens} and
+ *   deducts them from the lease, in the same statement
+ * - Renewal: the leases of the instance are extended every
+ *   {@code chatai.quota.cluster.renew-interval}; the lease of a crashed instance stops
+ *   counting after {@code chatai.quota.cluster.lease-ttl}, and a node restarted with the same
+ *   id drops its former leases
+ * - Return: the lease of an account dropped from memory is deleted, and all leases of the
+ *   instance on shutdown
+ *
+ * A block is claimed in the background when an account's remaining share falls below a
+ * quarter of a block, so requests rarely wait for a claim. When a claim cannot be fully
+ * granted because other instances hold the rest of the quota, a {@code NOTIFY} on
+ * {@code chatai_quota} asks them to give back their unused share ({@code LISTEN} on a
+ * dedicated connection, disabled with {@code chatai.quota.cluster.notify: false}).
+ *
+ * Timestamps are compared in UTC on the database clock, so instances need not agree on time.
+ *
+ * Metrics: {@code chatai.quota.cluster.claims{result=granted|partial|refused}}
+ */
+@Slf4j
+@Service
+@DependsOn(IdSequenceMigration.BEAN)
+@ConditionalOnProperty(prefix = "chatai.quota.cluster", name = "enabled", havingValue = "true")
+public class PostgresQuotaCoordinatorServiceImpl implements QuotaCoordinatorService {
+
+  private static final String CHANNEL = "chatai_quota";
+  private static final String NOW = "(now() AT TIME ZONE 'UTC')";
+
+  private static final String LOCK_SQL =
+          "SELECT total_tokens_authorized - total_tokens FROM user_entity WHERE id = ? FOR UPDATE";
+  private static final String LEASED_SQL =
+          "SELECT COALESCE(SUM(tokens), 0) FROM token_lease_entity "
+                  + "WHERE user_id = ? AND expires_at > " + NOW;
+  private static final String CLAIM_SQL =
+          "INSERT INTO token_lease_entity (user_id, node_id, tokens, expires_at) "
+                  + "VALUES (?, ?, ?, " + NOW + " + make_interval(secs => ?)) "
+                  + "ON CONFLICT (user_id, node_id) DO UPDATE "
+                  + "SET tokens = token_lease_entity.tokens + EXCLUDED.tokens, expires_at = EXCLUDED.expires_at";
+  private static final String WRITE_SQL =
+          "WITH consumed AS (UPDATE user_entity SET total_tokens = total_tokens + ? WHERE id = ? RETURNING id) "
+                  + "UPDATE token_lease_entity SET tokens = GREATEST(tokens - ?, 0) "
+                  + "WHERE user_id IN (SELECT id FROM consumed) AND node_id = ?";
+  private static final String SHRINK_SQL =
+          "UPDATE token_lease_entity SET tokens = ? WHERE user_id = ? AND node_id = ?";
+  private static final String RENEW_SQL =
+          "UPDATE token_lease_entity SET expires_at = " + NOW + " + make_interval(secs => ?) WHERE node_id = ?";
+  private static final String DELETE_SQL = "DELETE FROM token_lease_entity WHERE user_id = ? AND node_id = ?";
+  private static final String DELETE_NODE_SQL = "DELETE FROM token_lease_entity WHERE node_id = ?";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final TransactionTemplate transactionTemplate;
+  private final DataSource dataSource;
+  private final Scheduler blockingScheduler;
+  private final String nodeId;
+  private final long blockSize;
+  private final Duration leaseTtl;
+  private final boolean notify;
+  private final Set<Long> releaseRequests = ConcurrentHashMap.newKeySet();
+
+  private final Counter grantedClaims;
+  private final Counter partialClaims;
+  private final Counter refusedClaims;
+
+  private volatile boolean running = true;
+  private Thread listener;
+
+  public PostgresQuotaCoordinatorServiceImpl(JdbcTemplate jdbcTemplate,
+                                             PlatformTransactionManager transactionManager,
+                                             DataSource dataSource,
+                                             Scheduler blockingScheduler,
+                                             MeterRegistry meterRegistry,
+                                             @Value("${chatai.quota.cluster.node-id:${random.uuid}}") String nodeId,
+                                             @Value("${chatai.quota.cluster.block-size:2000}") long blockSize,
+                                             @Value("${chatai.quota.cluster.lease-ttl:PT5M}") Duration leaseTtl,
+                                             @Value("${chatai.quota.cluster.notify:true}") boolean notify) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.dataSource = dataSource;
+    this.blockingScheduler = blockingScheduler;
+    this.nodeId = nodeId;
+    this.blockSize = blockSize;
+    this.leaseTtl = leaseTtl;
+    this.notify = notify;
+    this.grantedClaims = meterRegistry.counter("chatai.quota.cluster.claims", "result", "granted");
+    this.partialClaims = meterRegistry.counter("chatai.quota.cluster.claims", "result", "partial");
+    this.refusedClaims = meterRegistry.counter("chatai.quota.cluster.claims", "result", "refused");
+  }
+
+  /**
+   * Drops the leases left by a previous run of this node, then starts listening to the release
+   * requests of the other instances.
+   */
+  @PostConstruct
+  public void start() {
+    log.info("Sharing quotas with the cluster as node {}", nodeId);
+    // A restart with the same node id begins again from total_tokens: a lease left by a crash
+    // would otherwise keep its tokens out of reach, renewed with the new leases
+    int stale = jdbcTemplate.update(DELETE_NODE_SQL, nodeId);
+    if (stale > 0) {
+      log.info("Dropped {} quota leases left by a previous run of node {}", stale, nodeId);
+    }
+    if (notify) {
+      listener = new Thread(this::listen, "chatai-quota-listener");
+      listener.setDaemon(true);
+      listener.start();
+    }
+  }
+
+  @Override
+  public long initialLimit(UserEntity userEntity) {
+    // Nothing leased yet: the first reservation claims a block
+    return userEntity.getTotalTokens();
+  }
+
+  @Override
+  public boolean refill(TokenAccount account, long tokens) {
+    synchronized (account) {
+      long missing = tokens - account.getRemainingTokens();
+      if (missing <= 0) {
+        // Refilled by another request meanwhile
+        return true;
+      }
+      long granted = claim(account, Math.max(blockSize, missing));
+      if (granted < missing) {
+        requestRelease(account);
+      }
+      return granted > 0;
+    }
+  }
+
+  @Override
+  public void onReserved(TokenAccount account) {
+    if (account.getRemainingTokens() >= blockSize / 4 || !account.getRefilling().compareAndSet(false, true)) {
+      return;
+    }
+    blockingScheduler.schedule(() -> {
+      try {
+        synchronized (account) {
+          if (account.getRemainingTokens() < blockSize / 4) {
+            claim(account, blockSize);
+          }
+        }
+      } catch (Exception e) {
+        log.warn("Failed to claim quota ahead for user {}", account.getUserId(), e);
+      } finally {
+        account.getRefilling().set(false);
+      }
+    });
+  }
+
+  @Override
+  public void write(List<TokenAccount> accounts, List<Long> deltas) {
+    List<Object[]> args = new ArrayList<>(accounts.size());
+    for (int i = 0; i < accounts.size(); i++) {
+      TokenAccount account = accounts.get(i);
+      args.add(new Object[]{deltas.get(i), account.getUserId(), deltas.get(i), nodeId});
+    }
+    // All or nothing: the ledger gives every delta back if the write fails
+    transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(WRITE_SQL, args));
+  }
+
+  @Override
+  public Set<Long> takeReleaseRequests() {
+    if (releaseRequests.isEmpty()) {
+      return Set.of();
+    }
+    Set<Long> userIds = new HashSet<>(releaseRequests);
+    releaseRequests.removeAll(userIds);
+    return userIds;
+  }
+
+  @Override
+  public void releaseUnused(TokenAccount account) {
+    synchronized (account) {
+      long limit = account.revokeUnused();
+      // The lease keeps the consumption not flushed yet and the reservations in flight
+      long kept = Math.max(limit - account.getPersistedTokens().get(), 0);
+      jdbcTemplate.update(SHRINK_SQL, kept, account.getUserId(), nodeId);
+      log.debug("Released the unused quota of user {}, keeping {} tokens", account.getUserId(), kept);
+    }
+  }
+
+  @Override
+  public void close(TokenAccount account) {
+    jdbcTemplate.update(DELETE_SQL, account.getUserId(), nodeId);
+  }
+
+  /**
+   * Extends the leases of this instance, so they keep counting while it is alive.
+   */
+  @Scheduled(fixedDelayString = "${chatai.quota.cluster.renew-interval:PT1M}")
+  public void renew() {
+    int renewed = jdbcTemplate.update(RENEW_SQL, leaseTtl.toMillis() / 1000d, nodeId);
+    log.debug("Renewed {} quota leases", renewed);
+  }
+
+  /**
+   * Gives back every lease of this instance on shutdown, once the ledger is flushed.
+   */
+  @PreDestroy
+  public void shutdown() {
+    running = false;
+    if (listener != null) {
+      listener.interrupt();
+    }
+    try {
+      jdbcTemplate.update(DELETE_NODE_SQL, nodeId);
+    } catch (Exception e) {
+      log.warn("Failed to give back the quota leases of node {}, they will expire", nodeId, e);
+    }
+  }
+
+  /**
+   * Leases more of a user's quota, within what the other instances leave.
+   *
+   * @return the tokens granted, also added to the account's limit
+   */
+  private long claim(TokenAccount account, long wanted) {
+    Long granted = transactionTemplate.execute(status -> {
+      Long free = jdbcTemplate.queryForObject(LOCK_SQL, Long.class, account.getUserId());
+      Long leased = jdbcTemplate.queryForObject(LEASED_SQL, Long.class, account.getUserId());
+      long grant = Math.min(wanted, (free == null ? 0 : free) - (leased == null ? 0 : leased));
+      if (grant <= 0) {
+        return 0L;
+      }
+      jdbcTemplate.update(CLAIM_SQL, account.getUserId(), nodeId, grant, leaseTtl.toMillis() / 1000d);
+      return grant;
+    });
+    long tokens = granted == null ? 0 : granted;
+    if (tokens <= 0) {
+      refusedClaims.increment();
+      return 0;
+    }
+    (tokens < wanted ? partialClaims : grantedClaims).increment();
+    account.grant(tokens);
+    return tokens;
+  }
+
+  private void requestRelease(TokenAccount account) {
+    if (!notify) {
+      return;
+    }
+    try {
+      // The user id, not the key: listeners and the server logs see the payload
+      jdbcTemplate.queryForList("SELECT pg_notify(?, ?)", CHANNEL, nodeId + ":" + account.getUserId());
+    } catch (Exception e) {
+      log.warn("Failed to ask the cluster to release the quota of user {}", account.getUserId(), e);
+    }
+  }
+
+  private void listen() {
+    while (running) {
+      try (Connection connection = dataSource.getConnection()) {
+        try (Statement statement = connection.createStatement()) {
+          statement.execute("LISTEN " + CHANNEL);
+        }
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        while (running) {
+          PGNotification[] notifications = pgConnection.getNotifications(1000);
+          if (notifications == null) {
+            continue;
+          }
+          for (PGNotification notification : notifications) {
+            onNotification(notification.getParameter());
+          }
+        }
+      } catch (SQLException e) {
+        if (!running) {
+          return;
+        }
+        log.warn("Quota notification listener failed, reconnecting", e);
+        try {
+          Thread.sleep(5000);
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  private void onNotification(String payload) {
+    int separator = payload.indexOf(':');
+    // Our own requests are answered by the other instances
+    if (separator > 0 && !payload.substring(0, separator).equals(nodeId)) {
+      try {
+        releaseRequests.add(Long.parseLong(payload.substring(separator + 1)));
+      } catch (NumberFormatException e) {
+        log.debug("Ignoring quota notification {}", payload);
+      }
+    }
+  }
+}
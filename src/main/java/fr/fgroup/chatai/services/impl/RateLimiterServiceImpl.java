@@ -0,0 +1,129 @@
+package fr.fgroup.chatai.services.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import fr.fgroup.chatai.entities.UserEntity;
+import fr.fgroup.chatai.models.KeyRateLimiter;
+import fr.fgroup.chatai.models.RateLimitPermit;
+import fr.fgroup.chatai.models.TokenAccount;
+import fr.fgroup.chatai.services.RateLimiterService;
+import fr.fgroup.chatai.services.TokenLedgerService;
+import fr.fgroup.chatai.services.UserKeyService;
+import fr.fgroup.chatai.utils.TokenBucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+
+/**
+ * RateLimiterServiceImpl - In-memory per-key rate limiter.
+ *
+ * Each key gets a {@link KeyRateLimiter} on its first request, with the limits of its
+ * UserEntity ({@code requestsPerSecond}, {@code tokensPerMinute}, {@code maxInFlight}) or,
+ * when a column is null, the defaults of {@code chatai.rate-limit.*}. The UserEntity is the
+ * snapshot cached with the key by UserKeyService, so no query is added. A limit set to 0
+ * is disabled. Limiters idle for {@code chatai.rate-limit.idle-eviction} are dropped, so
+ * changed limits are picked up after that, once the snapshot has been refreshed too.
+ *
+ * A request is checked against the in-flight limit first, then the requests per second,
+ * then the tokens per minute, whose bucket is charged with the consumption recorded by the
+ * token ledger since the previous request of the key.
+ *
+ * A batch is admitted as one request, then charged its other prompts with {@link #charge(String, int)},
+ * so a large batch delays the next requests of the key instead of passing as a single request.
+ *
+ * Rejections are counted in {@code chatai.rate-limit.rejected{limit=in-flight|requests|tokens}}.
+ */
+@Slf4j
+@Service
+public class RateLimiterServiceImpl implements RateLimiterService {
+
+  /** Retry delay suggested to a key rejected for having too many requests in flight */
+  private static final Duration IN_FLIGHT_RETRY_AFTER = Duration.ofSeconds(1);
+
+  private final UserKeyService userKeyService;
+  private final TokenLedgerService tokenLedgerService;
+  private final double requestsPerSecond;
+  private final long requestsBurst;
+  private final long tokensPerMinute;
+  private final int maxInFlight;
+  private final Cache<String, KeyRateLimiter> limiters;
+
+  private final Counter inFlightRejections;
+  private final Counter requestsRejections;
+  private final Counter tokensRejections;
+
+  public RateLimiterServiceImpl(UserKeyService userKeyService,
+                                TokenLedgerService tokenLedgerService,
+                                MeterRegistry meterRegistry,
+                                @Value("${chatai.rate-limit.requests-per-second:5}") double requestsPerSecond,
+                                @Value("${chatai.rate-limit.requests-burst:10}") long requestsBurst,
+                                @Value("${chatai.rate-limit.tokens-per-minute:40000}") long tokensPerMinute,
+                                @Value("${chatai.rate-limit.max-in-flight:4}") int maxInFlight,
+                                @Value("${chatai.rate-limit.idle-eviction:PT10M}") Duration idleEviction) {
+    this.userKeyService = userKeyService;
+    this.tokenLedgerService = tokenLedgerService;
+    this.requestsPerSecond = requestsPerSecond;
+    this.requestsBurst = requestsBurst;
+    this.tokensPerMinute = tokensPerMinute;
+    this.maxInFlight = maxInFlight;
+    this.limiters = Caffeine.newBuilder()
+            .expireAfterAccess(idleEviction)
+            .build();
+    this.inFlightRejections = meterRegistry.counter("chatai.rate-limit.rejected", "limit", "in-flight");
+    this.requestsRejections = meterRegistry.counter("chatai.rate-limit.rejected", "limit", "requests");
+    this.tokensRejections = meterRegistry.counter("chatai.rate-limit.rejected", "limit", "tokens");
+  }
+
+  @Override
+  public RateLimitPermit tryAcquire(String key) {
+    KeyRateLimiter limiter = limiters.get(key, this::create);
+    if (!limiter.tryEnter()) {
+      inFlightRejections.increment();
+      return RateLimitPermit.rejected("in-flight", IN_FLIGHT_RETRY_AFTER);
+    }
+    long wait = limiter.tryAcquireRequest();
+    if (wait > 0) {
+      limiter.exit();
+      requestsRejections.increment();
+      return RateLimitPermit.rejected("requests", Duration.ofNanos(wait));
+    }
+    TokenAccount account = tokenLedgerService.getCachedAccount(key);
+    wait = account == null ? 0 : limiter.tokensWaitTime(account.getTotalTokens());
+    if (wait > 0) {
+      limiter.exit();
+      tokensRejections.increment();
+      return RateLimitPermit.rejected("tokens", Duration.ofNanos(wait));
+    }
+    return RateLimitPermit.granted(limiter);
+  }
+
+  @Override
+  public void charge(String key, int requests) {
+    KeyRateLimiter limiter = limiters.getIfPresent(key);
+    if (limiter != null) {
+      limiter.consumeRequests(requests);
+    }
+  }
+
+  private KeyRateLimiter create(String key) {
+    // The cached snapshot of the user, loaded when the key was validated
+    UserEntity userEntity = userKeyService.getUser(key);
+    if (userEntity == null) {
+      log.warn("No user loaded for key {}, using the default rate limits", key);
+    }
+    double rps = userEntity != null && userEntity.getRequestsPerSecond() != null
+            ? userEntity.getRequestsPerSecond() : requestsPerSecond;
+    long tpm = userEntity != null && userEntity.getTokensPerMinute() != null
+            ? userEntity.getTokensPerMinute() : tokensPerMinute;
+    int inFlight = userEntity != null && userEntity.getMaxInFlight() != null
+            ? userEntity.getMaxInFlight() : maxInFlight;
+    return new KeyRateLimiter(
+            rps > 0 ? new TokenBucket(rps, Math.max(requestsBurst, (long) Math.ceil(rps))) : null,
+            tpm > 0 ? new TokenBucket(tpm / 60d, tpm) : null,
+            inFlight);
+  }
+}
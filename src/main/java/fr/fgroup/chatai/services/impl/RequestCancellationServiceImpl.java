@@ -0,0 +1,151 @@
+package fr.fgroup.chatai.services.impl;
+
+import fr.fgroup.chatai.services.RequestCancellationService;
+import fr.fgroup.chatai.utils.UserContext;
+import fr.fgroup.chatai.utils.UserContextHolder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.DeferredResultProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * RequestCancellationServiceImpl - Cancels the upstream calls of the requests whose client
+ * is gone or whose deadline has expired.
+ *
+ * Spring MVC only cancels the subscription to a returned Mono or Flux when the async
+ * request times out ({@code spring.mvc.async.request-timeout}). A client closing the
+ * connection is reported by the servlet container as an async error, which this service
+ * turns into a cancellation of the call: the WebClient exchange is aborted, the reservation
+ * is released and nothing is parsed or billed for an answer nobody reads.
+ *
+ * Clients may also send an {@code X-Request-Timeout} header (milliseconds): once it
+ * expires the call is cancelled the same way and the client gets GATEWAY_TIMEOUT.
+ *
+ * Metrics:
+ * - {@code chatai.requests.cancelled{reason=disconnect|deadline}}
+ * - {@code chatai.requests.cancelled.tokens}: reserved tokens cancelled requests left unbilled
+ */
+@Slf4j
+@Service
+public class RequestCancellationServiceImpl implements RequestCancellationService {
+
+  private static final String INTERCEPTOR_KEY = RequestCancellationServiceImpl.class.getName();
+
+  private final Counter disconnects;
+  private final Counter deadlines;
+  private final Counter savedTokens;
+
+  public RequestCancellationServiceImpl(MeterRegistry meterRegistry) {
+    this.disconnects = meterRegistry.counter("chatai.requests.cancelled", "reason", DISCONNECT);
+    this.deadlines = meterRegistry.counter("chatai.requests.cancelled", "reason", DEADLINE);
+    this.savedTokens = meterRegistry.counter("chatai.requests.cancelled.tokens");
+  }
+
+  @Override
+  public <T> Mono<ResponseEntity<T>> bind(Mono<ResponseEntity<T>> call) {
+    Instant deadline = deadline();
+    Mono<ResponseEntity<T>> bound = call.takeUntilOther(disconnected());
+    if (deadline == null) {
+      return bound;
+    }
+    Duration timeLeft = Duration.between(Instant.now(), deadline);
+    if (timeLeft.isNegative() || timeLeft.isZero()) {
+      deadlines.increment();
+      return Mono.just(new ResponseEntity<>(HttpStatus.GATEWAY_TIMEOUT));
+    }
+    return bound.timeout(timeLeft, Mono.fromSupplier(() -> {
+      log.debug("Request deadline expired, cancelling the upstream call");
+      deadlines.increment();
+      return new ResponseEntity<>(HttpStatus.GATEWAY_TIMEOUT);
+    }));
+  }
+
+  @Override
+  public <T> Flux<T> bind(Flux<T> events) {
+    Instant deadline = deadline();
+    Flux<T> bound = events.takeUntilOther(disconnected());
+    if (deadline == null) {
+      return bound;
+    }
+    Duration timeLeft = Duration.between(Instant.now(), deadline);
+    if (timeLeft.isNegative() || timeLeft.isZero()) {
+      deadlines.increment();
+      return Flux.empty();
+    }
+    return bound.takeUntilOther(Mono.delay(timeLeft).doOnNext(tick -> deadlines.increment()));
+  }
+
+  @Override
+  public Duration timeLeft(Duration max) {
+    Instant deadline = deadline();
+    if (deadline == null) {
+      return max;
+    }
+    Duration timeLeft = Duration.between(Instant.now(), deadline);
+    if (timeLeft.isNegative()) {
+      return Duration.ZERO;
+    }
+    return timeLeft.compareTo(max) < 0 ? timeLeft : max;
+  }
+
+  @Override
+  public void recordCancelled(String reason) {
+    (DEADLINE.equals(reason) ? deadlines : disconnects).increment();
+  }
+
+  @Override
+  public void recordSavedTokens(long tokens) {
+    if (tokens > 0) {
+      savedTokens.increment(tokens);
+    }
+  }
+
+  private static Instant deadline() {
+    UserContext context = UserContextHolder.getContext();
+    return context == null ? null : context.getDeadline();
+  }
+
+  /**
+   * Signal emitted when the servlet container reports that the client of the current
+   * request is gone.
+   *
+   * The listener is registered on the async manager of the request, which runs it once the
+   * returned Mono or Flux is being processed asynchronously.
+   *
+   * @return a Mono emitting once the client disconnected, never emitting outside a request
+   */
+  private Mono<Boolean> disconnected() {
+    RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+    if (!(attributes instanceof ServletRequestAttributes)) {
+      return Mono.never();
+    }
+    Sinks.One<Boolean> disconnected = Sinks.one();
+    WebAsyncUtils.getAsyncManager(((ServletRequestAttributes) attributes).getRequest())
+            .registerDeferredResultInterceptor(INTERCEPTOR_KEY, new DeferredResultProcessingInterceptor() {
+              @Override
+              public <T> boolean handleError(NativeWebRequest request, DeferredResult<T> deferredResult,
+                                             Throwable t) {
+                log.debug("Client disconnected : {}", t.getMessage());
+                disconnected.tryEmitValue(true);
+                return true;
+              }
+            });
+    // Only counted while the call is still running, i.e. when the disconnect cancels it
+    return disconnected.asMono().doOnNext(gone -> disconnects.increment());
+  }
+}
@@ -0,0 +1,250 @@
+package fr.fgroup.chatai.services.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import fr.fgroup.chatai.resources.MessageResource;
+import fr.fgroup.chatai.resources.post.ContinueMessageResourcePost;
+import fr.fgroup.chatai.services.ResponseCacheService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * ResponseCacheServiceImpl - Two-tier exact-match cache of assistant answers.
+ *
+ * Keys are the SHA-256 of the model and of the normalized messages (role in lower case,
+ * content trimmed with unified line endings), so byte-identical prompts, and prompts that
+ * only differ by surrounding whitespace, share an entry.
+ *
+ * Tiers:
+ * - Memory: a Caffeine cache bounded by an estimate of the retained bytes (size-aware
+ *   eviction: one long answer weighs as much as many short ones) with a TTL
+ * - Disk (optional, {@code chatai.response-cache.disk.path}): one JSON file per entry,
+ *   written in the background; a memory miss falls back to it and promotes the entry.
+ *   Files older than the TTL are purged, and the oldest ones are dropped when the directory
+ *   exceeds {@code chatai.response-cache.disk.max-bytes}. Temporary files left by writes
+ *   interrupted by a crash are purged once older than {@code chatai.response-cache.disk.temp-max-age}
+ *
+ * Disk access always runs on the blocking scheduler.
+ */
+@Slf4j
+@Service
+public class ResponseCacheServiceImpl implements ResponseCacheService {
+
+  /** Fixed per-entry overhead added to the weight of the content */
+  private static final int ENTRY_OVERHEAD = 128;
+
+  private static final String FILE_SUFFIX = ".json";
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private final Cache<String, MessageResource> memory;
+  private final Duration ttl;
+  private final Path diskPath;
+  private final long diskMaxBytes;
+  private final Duration tempMaxAge;
+  private final long cachedTokens;
+  private final ObjectMapper objectMapper;
+  private final ObjectReader messageReader;
+  private final Scheduler blockingScheduler;
+  private final Counter diskHits;
+
+  public ResponseCacheServiceImpl(@Value("${chatai.response-cache.max-bytes:67108864}") long maxBytes,
+                                  @Value("${chatai.response-cache.ttl:PT1H}") Duration ttl,
+                                  @Value("${chatai.response-cache.disk.path:}") String diskPath,
+                                  @Value("${chatai.response-cache.disk.max-bytes:1073741824}") long diskMaxBytes,
+                                  @Value("${chatai.response-cache.disk.temp-max-age:PT1H}") Duration tempMaxAge,
+                                  @Value("${chatai.response-cache.cached-tokens:10}") long cachedTokens,
+                                  ObjectMapper objectMapper,
+                                  Scheduler blockingScheduler,
+                                  MeterRegistry meterRegistry) throws IOException {
+    this.ttl = ttl;
+    this.memory = Caffeine.newBuilder()
+            .maximumWeight(maxBytes)
+            .weigher((String key, MessageResource message) -> weightOf(message))
+            .expireAfterWrite(ttl)
+            .recordStats()
+            .build();
+    this.diskPath = StringUtils.hasText(diskPath) ? Paths.get(diskPath) : null;
+    if (this.diskPath != null) {
+      Files.createDirectories(this.diskPath);
+      log.info("Response cache disk tier enabled in {}", this.diskPath.toAbsolutePath());
+    }
+    this.diskMaxBytes = diskMaxBytes;
+    this.tempMaxAge = tempMaxAge;
+    this.cachedTokens = cachedTokens;
+    this.objectMapper = objectMapper;
+    this.messageReader = objectMapper.readerFor(MessageResource.class);
+    this.blockingScheduler = blockingScheduler;
+    this.diskHits = meterRegistry.counter("chatai.response-cache.disk.hits");
+    CaffeineCacheMetrics.monitor(meterRegistry, memory, "chatai.response-cache");
+  }
+
+  @Override
+  public String keyOf(String model, List<ContinueMessageResourcePost> messages) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(model.getBytes(StandardCharsets.UTF_8));
+      for (ContinueMessageResourcePost message : messages) {
+        // Separators keep ("ab", "c") and ("a", "bc") apart
+        digest.update((byte) 0);
+        digest.update(message.getRole().toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(normalize(message.getContent()).getBytes(StandardCharsets.UTF_8));
+      }
+      return String.format("%064x", new BigInteger(1, digest.digest()));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  @Override
+  public Mono<MessageResource> get(String key) {
+    MessageResource message = memory.getIfPresent(key);
+    if (message != null || diskPath == null) {
+      return Mono.justOrEmpty(message);
+    }
+    return Mono.fromCallable(() -> readFromDisk(key))
+            .subscribeOn(blockingScheduler)
+            .doOnNext(stored -> {
+              diskHits.increment();
+              memory.put(key, stored);
+            });
+  }
+
+  @Override
+  public void put(String key, MessageResource message) {
+    memory.put(key, message);
+    if (diskPath != null) {
+      Mono.fromRunnable(() -> writeToDisk(key, message))
+              .subscribeOn(blockingScheduler)
+              .subscribe();
+    }
+  }
+
+  @Override
+  public long getCachedTokens() {
+    return cachedTokens;
+  }
+
+  /**
+   * Purges expired files and orphaned temporary files, and keeps the disk tier under its size limit.
+   */
+  @Scheduled(fixedDelayString = "${chatai.response-cache.disk.cleanup-interval:PT10M}")
+  public void cleanupDisk() {
+    if (diskPath == null) {
+      return;
+    }
+    long expiredBefore = System.currentTimeMillis() - ttl.toMillis();
+    // A write takes milliseconds: an older temporary file was left by a crash
+    long orphanedBefore = System.currentTimeMillis() - tempMaxAge.toMillis();
+    try (Stream<Path> files = Files.list(diskPath)) {
+      List<Path> paths = files.collect(Collectors.toList());
+      List<Path> entries = new ArrayList<>(paths.size());
+      for (Path path : paths) {
+        if (path.toString().endsWith(FILE_SUFFIX)) {
+          entries.add(path);
+        } else if (path.toString().endsWith(TEMP_SUFFIX) && lastModified(path) < orphanedBefore) {
+          log.debug("Deleting orphaned response cache file {}", path);
+          Files.deleteIfExists(path);
+        }
+      }
+      entries.sort(Comparator.comparingLong(this::lastModified).reversed());
+      long retained = 0;
+      for (Path entry : entries) {
+        long size;
+        try {
+          size = Files.size(entry);
+        } catch (NoSuchFileException e) {
+          // Deleted meanwhile, e.g. by a read finding it expired
+          continue;
+        }
+        if (lastModified(entry) < expiredBefore || retained + size > diskMaxBytes) {
+          Files.deleteIfExists(entry);
+        } else {
+          retained += size;
+        }
+      }
+    } catch (IOException e) {
+      log.error("Failed to clean the response cache directory {}", diskPath, e);
+    }
+  }
+
+  private MessageResource readFromDisk(String key) {
+    Path file = diskPath.resolve(key + FILE_SUFFIX);
+    try {
+      if (!Files.exists(file)) {
+        return null;
+      }
+      if (lastModified(file) < System.currentTimeMillis() - ttl.toMillis()) {
+        Files.deleteIfExists(file);
+        return null;
+      }
+      return messageReader.readValue(file.toFile());
+    } catch (IOException e) {
+      log.warn("Unreadable response cache entry {}", file, e);
+      return null;
+    }
+  }
+
+  private void writeToDisk(String key, MessageResource message) {
+    try {
+      // Written aside then moved, so readers never see a partial file
+      Path temp = Files.createTempFile(diskPath, key, TEMP_SUFFIX);
+      try {
+        objectMapper.writeValue(temp.toFile(), message);
+        Files.move(temp, diskPath.resolve(key + FILE_SUFFIX),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    } catch (IOException e) {
+      log.warn("Failed to write response cache entry {}", key, e);
+    }
+  }
+
+  private long lastModified(Path path) {
+    try {
+      FileTime time = Files.getLastModifiedTime(path);
+      return time.toMillis();
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  private static int weightOf(MessageResource message) {
+    int length = message.getContent() == null ? 0 : message.getContent().length();
+    return ENTRY_OVERHEAD + 2 * length;
+  }
+
+  private static String normalize(String content) {
+    return content == null ? "" : content.replace("\r\n", "\n").strip();
+  }
+}
@@ -0,0 +1,125 @@
+package fr.fgroup.chatai.services.impl;
+
+import fr.fgroup.chatai.models.SemanticCacheLookup;
+import fr.fgroup.chatai.resources.MessageResource;
+import fr.fgroup.chatai.services.EmbeddingService;
+import fr.fgroup.chatai.services.SemanticCacheService;
+import fr.fgroup.chatai.utils.HnswIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SemanticCacheServiceImpl - Answers near-duplicate prompts from an in-process vector index.
+ *
+ * Each prompt is embedded by the configured {@link EmbeddingService} and searched in an
+ * {@link HnswIndex} (one per model). The cached answer is returned when the cosine
+ * similarity reaches {@code chatai.semantic-cache.similarity-threshold}. Each index keeps
+ * at most {@code chatai.semantic-cache.max-entries} answers and evicts the oldest ones.
+ *
+ * The cache never fails a request: when the prompt cannot be embedded the lookup is empty
+ * and the request goes upstream. Answers are indexed on the blocking scheduler.
+ *
+ * Metrics:
+ * - {@code chatai.semantic-cache.lookups{result=hit|miss}}
+ * - {@code chatai.semantic-cache.embedding}: latency of the embedding calls
+ * - {@code chatai.semantic-cache.search}: latency of the index searches
+ * - {@code chatai.semantic-cache.entries}: number of cached answers
+ */
+@Slf4j
+@Service
+public class SemanticCacheServiceImpl implements SemanticCacheService {
+
+  private final EmbeddingService embeddingService;
+  private final boolean enabled;
+  private final double similarityThreshold;
+  private final int maxEntries;
+  private final int m;
+  private final int efConstruction;
+  private final int efSearch;
+  private final Scheduler blockingScheduler;
+  private final Map<String, HnswIndex<MessageResource>> indexes = new ConcurrentHashMap<>();
+
+  private final Counter hits;
+  private final Counter misses;
+  private final Timer embeddingTimer;
+  private final Timer searchTimer;
+
+  public SemanticCacheServiceImpl(EmbeddingService embeddingService,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${chatai.semantic-cache.enabled:false}") boolean enabled,
+                                  @Value("${chatai.semantic-cache.similarity-threshold:0.95}") double similarityThreshold,
+                                  @Value("${chatai.semantic-cache.max-entries:10000}") int maxEntries,
+                                  @Value("${chatai.semantic-cache.hnsw.m:16}") int m,
+                                  @Value("${chatai.semantic-cache.hnsw.ef-construction:100}") int efConstruction,
+                                  @Value("${chatai.semantic-cache.hnsw.ef-search:50}") int efSearch,
+                                  Scheduler blockingScheduler) {
+    this.embeddingService = embeddingService;
+    this.enabled = enabled;
+    this.similarityThreshold = similarityThreshold;
+    this.maxEntries = maxEntries;
+    this.m = m;
+    this.efConstruction = efConstruction;
+    this.efSearch = efSearch;
+    this.blockingScheduler = blockingScheduler;
+    this.hits = meterRegistry.counter("chatai.semantic-cache.lookups", "result", "hit");
+    this.misses = meterRegistry.counter("chatai.semantic-cache.lookups", "result", "miss");
+    this.embeddingTimer = meterRegistry.timer("chatai.semantic-cache.embedding");
+    this.searchTimer = meterRegistry.timer("chatai.semantic-cache.search");
+    meterRegistry.gauge("chatai.semantic-cache.entries", indexes,
+            map -> map.values().stream().mapToInt(HnswIndex::size).sum());
+  }
+
+  @Override
+  public Mono<SemanticCacheLookup> lookup(String model, String prompt) {
+    if (!enabled) {
+      return Mono.empty();
+    }
+    return Mono.defer(() -> {
+              long start = System.nanoTime();
+              return embeddingService.embed(prompt)
+                      .doOnNext(embedding -> embeddingTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+            })
+            .map(embedding -> search(model, embedding))
+            .onErrorResume(e -> {
+              log.warn("Semantic cache lookup skipped, the prompt could not be embedded", e);
+              return Mono.empty();
+            });
+  }
+
+  @Override
+  public void put(SemanticCacheLookup lookup, MessageResource message) {
+    // An insertion may rebuild the whole index, it never runs on the caller's event loop
+    Mono.fromRunnable(() -> indexes
+                    .computeIfAbsent(lookup.getModel(), model -> new HnswIndex<>(m, efConstruction, efSearch, maxEntries))
+                    .add(lookup.getEmbedding(), message))
+            .subscribeOn(blockingScheduler)
+            .subscribe(null, e -> log.warn("Semantic cache insertion failed", e));
+  }
+
+  private SemanticCacheLookup search(String model, float[] embedding) {
+    HnswIndex<MessageResource> index = indexes.get(model);
+    HnswIndex.Match<MessageResource> match = null;
+    if (index != null) {
+      long start = System.nanoTime();
+      match = index.nearest(embedding);
+      searchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+    if (match != null && match.getSimilarity() >= similarityThreshold) {
+      hits.increment();
+      log.debug("Semantic cache hit, similarity {}", match.getSimilarity());
+      return new SemanticCacheLookup(model, embedding, match.getValue());
+    }
+    misses.increment();
+    return new SemanticCacheLookup(model, embedding, null);
+  }
+}
@@ -0,0 +1,193 @@
+package fr.fgroup.chatai.services.impl;
+
+import fr.fgroup.chatai.dao.services.UserDaoService;
+import fr.fgroup.chatai.dao.specifications.UserSpecifications;
+import fr.fgroup.chatai.entities.UserEntity;
+import fr.fgroup.chatai.models.TokenAccount;
+import fr.fgroup.chatai.models.TokenReservation;
+import fr.fgroup.chatai.services.QuotaCoordinatorService;
+import fr.fgroup.chatai.services.TokenLedgerService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * TokenLedgerServiceImpl - Write-behind token ledger.
+ *
+ * Each key is loaded once from {@code user_entity} into a {@link TokenAccount}; afterwards
+ * quota checks and charges never reach the database. A scheduled flush writes the pending
+ * deltas of all accounts in a single JDBC batch of relative updates
+ * ({@code total_tokens = total_tokens + ?}) through the {@link QuotaCoordinatorService}.
+ *
+ * Relative updates make the flush safe against any other writer of the row, and a failed
+ * batch gives its deltas back to the accounts so the next flush retries them. The ledger
+ * is flushed one last time on shutdown.
+ *
+ * The limit of each account comes from the coordinator: the whole quota on a single
+ * instance, or the share leased by this instance when the quota is shared by a cluster
+ * ({@code chatai.quota.cluster.enabled}). The flush also gives back the unused share other
+ * instances asked for.
+ *
+ * Accounts idle for longer than {@code chatai.ledger.idle-eviction} with nothing pending are
+ * dropped from memory, so a quota raised in the database is picked up on the next load.
+ */
+@Slf4j
+@Service
+public class TokenLedgerServiceImpl implements TokenLedgerService {
+
+  private final UserDaoService userDaoService;
+  private final QuotaCoordinatorService quotaCoordinatorService;
+  private final Duration idleEviction;
+  private final Map<String, TokenAccount> accounts = new ConcurrentHashMap<>();
+
+  public TokenLedgerServiceImpl(UserDaoService userDaoService,
+                                QuotaCoordinatorService quotaCoordinatorService,
+                                @Value("${chatai.ledger.idle-eviction:PT10M}") Duration idleEviction) {
+    this.userDaoService = userDaoService;
+    this.quotaCoordinatorService = quotaCoordinatorService;
+    this.idleEviction = idleEviction;
+  }
+
+  @Override
+  public TokenAccount getCachedAccount(String key) {
+    TokenAccount account = key == null ? null : accounts.get(key);
+    if (account != null) {
+      account.touch();
+    }
+    return account;
+  }
+
+  @Override
+  public TokenAccount getAccount(String key) {
+    TokenAccount account = getCachedAccount(key);
+    if (account != null) {
+      return account;
+    }
+    // Loaded outside of the map lock; a concurrent load of the same key keeps the first one
+    UserEntity userEntity = userDaoService.findOne(Specification.where(UserSpecifications.withKey(key)));
+    TokenAccount loaded = new TokenAccount(userEntity.getId(), userEntity.getKey(),
+            userEntity.getTotalTokensAuthorized(), userEntity.getTotalTokens(),
+            quotaCoordinatorService.initialLimit(userEntity), modelTiers(userEntity.getModelTiers()));
+    account = accounts.putIfAbsent(key, loaded);
+    return account != null ? account : loaded;
+  }
+
+  @Override
+  public void charge(TokenAccount account, long tokens) {
+    if (tokens > 0) {
+      account.charge(tokens);
+    }
+  }
+
+  @Override
+  public TokenReservation reserve(TokenAccount account, long tokens) {
+    if (!account.tryReserve(tokens)) {
+      return null;
+    }
+    quotaCoordinatorService.onReserved(account);
+    return new TokenReservation(account, tokens);
+  }
+
+  @Override
+  public TokenReservation reserveWithRefill(TokenAccount account, long tokens) {
+    TokenReservation reservation = reserve(account, tokens);
+    if (reservation != null || !quotaCoordinatorService.refill(account, tokens)) {
+      return reservation;
+    }
+    return reserve(account, tokens);
+  }
+
+  @Override
+  @Scheduled(fixedDelayString = "${chatai.ledger.flush-interval:PT5S}")
+  public synchronized void flush() {
+    List<TokenAccount> flushed = new ArrayList<>();
+    List<Long> deltas = new ArrayList<>();
+    for (TokenAccount account : accounts.values()) {
+      long delta = account.drain();
+      if (delta > 0) {
+        flushed.add(account);
+        deltas.add(delta);
+      }
+    }
+    if (!deltas.isEmpty()) {
+      try {
+        quotaCoordinatorService.write(flushed, deltas);
+        log.debug("Flushed token usage of {} users", deltas.size());
+      } catch (Exception e) {
+        log.error("Failed to flush token usage of {} users, will retry", deltas.size(), e);
+        for (int i = 0; i < flushed.size(); i++) {
+          flushed.get(i).restore(deltas.get(i));
+        }
+      }
+    }
+    releaseRequestedQuota();
+    evictIdleAccounts();
+  }
+
+  private void releaseRequestedQuota() {
+    Set<Long> userIds = quotaCoordinatorService.takeReleaseRequests();
+    if (userIds.isEmpty()) {
+      return;
+    }
+    for (TokenAccount account : accounts.values()) {
+      if (userIds.contains(account.getUserId())) {
+        try {
+          quotaCoordinatorService.releaseUnused(account);
+        } catch (Exception e) {
+          log.warn("Failed to release the unused quota of user {}", account.getUserId(), e);
+        }
+      }
+    }
+  }
+
+  private static List<String> modelTiers(String modelTiers) {
+    if (!StringUtils.hasText(modelTiers)) {
+      return List.of();
+    }
+    return Arrays.stream(modelTiers.split(","))
+            .map(String::trim)
+            .filter(StringUtils::hasText)
+            .map(tier -> tier.toLowerCase(Locale.ROOT))
+            .distinct()
+            .collect(Collectors.toList());
+  }
+
+  private void evictIdleAccounts() {
+    long idleSince = System.currentTimeMillis() - idleEviction.toMillis();
+    for (TokenAccount account : accounts.values()) {
+      if (account.getLastAccess() < idleSince && account.getPendingTokens().sum() == 0
+              && account.getReservedTokens().get() == 0
+              && accounts.remove(account.getKey(), account)) {
+        // A charge may have landed between the check and the removal
+        long late = account.drain();
+        if (late > 0) {
+          quotaCoordinatorService.write(List.of(account), List.of(late));
+        }
+        quotaCoordinatorService.close(account);
+      }
+    }
+  }
+
+  /**
+   * Writes the usage still pending when the application stops.
+   */
+  @PreDestroy
+  public void shutdown() {
+    log.info("Flushing token ledger before shutdown");
+    flush();
+  }
+}
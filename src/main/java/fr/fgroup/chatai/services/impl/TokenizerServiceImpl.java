@@ -0,0 +1,145 @@
+package fr.fgroup.chatai.services.impl;
+
+import fr.fgroup.chatai.resources.post.ContinueMessageResourcePost;
+import fr.fgroup.chatai.services.TokenizerService;
+import fr.fgroup.chatai.utils.BytePairEncoding;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * TokenizerServiceImpl - In-process tokenizer compatible with the gpt-3.5 encoding (cl100k_base).
+ *
+ * The text is split with the cl100k pre-tokenization pattern and every piece is encoded
+ * with the byte-level BPE merge table of {@code chatai.tokenizer.ranks} (the
+ * {@code cl100k_base.tiktoken} file published by OpenAI), loaded once at startup.
+ *
+ * The table is not shipped with the sources. When the default one is missing the service
+ * still starts, with a conservative estimate of one token per 4 bytes of each piece, and logs
+ * an error; a table configured elsewhere that is missing or unreadable fails the startup.
+ *
+ * Chat framing follows the gpt-3.5-turbo format: 3 tokens per message plus 3 tokens priming
+ * the answer.
+ *
+ * Counting time is published as {@code chatai.tokenizer.count}.
+ */
+@Slf4j
+@Service
+public class TokenizerServiceImpl implements TokenizerService {
+
+  /** Merge table used when {@code chatai.tokenizer.ranks} is not set */
+  static final String DEFAULT_RANKS = "classpath:tokenizer/cl100k_base.tiktoken";
+
+  /** Pre-tokenization pattern of cl100k_base */
+  static final Pattern PIECES = Pattern.compile(
+          "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}{1,3}"
+                  + "| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+");
+
+  private static final int TOKENS_PER_MESSAGE = 3;
+  private static final int TOKENS_PER_REPLY = 3;
+
+  private final BytePairEncoding encoding;
+  private final Timer countTimer;
+
+  public TokenizerServiceImpl(@Value("${chatai.tokenizer.ranks:" + DEFAULT_RANKS + "}") String ranks,
+                              ResourceLoader resourceLoader,
+                              MeterRegistry meterRegistry) {
+    this.encoding = load(ranks, resourceLoader.getResource(ranks));
+    this.countTimer = meterRegistry.timer("chatai.tokenizer.count");
+  }
+
+  @Override
+  public int countTokens(String text) {
+    long start = System.nanoTime();
+    int tokens = count(text);
+    countTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    return tokens;
+  }
+
+  @Override
+  public int countTokens(List<ContinueMessageResourcePost> messages) {
+    long start = System.nanoTime();
+    int tokens = TOKENS_PER_REPLY;
+    for (ContinueMessageResourcePost message : messages) {
+      tokens += TOKENS_PER_MESSAGE + count(message.getRole()) + count(message.getContent());
+    }
+    countTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    return tokens;
+  }
+
+  private int count(String text) {
+    if (text == null || text.isEmpty()) {
+      return 0;
+    }
+    // Reused for every piece of the text; a piece needs at most 4 bytes per char
+    byte[] buffer = new byte[64];
+    int tokens = 0;
+    Matcher matcher = PIECES.matcher(text);
+    while (matcher.find()) {
+      int start = matcher.start();
+      int end = matcher.end();
+      if (buffer.length < 4 * (end - start)) {
+        buffer = new byte[4 * (end - start)];
+      }
+      int length = encodeUtf8(text, start, end, buffer);
+      tokens += encoding != null ? encoding.countTokens(buffer, length) : Math.max(1, (length + 3) / 4);
+    }
+    return tokens;
+  }
+
+  private static int encodeUtf8(String text, int start, int end, byte[] out) {
+    int length = 0;
+    for (int i = start; i < end; i++) {
+      int c = text.charAt(i);
+      if (Character.isHighSurrogate((char) c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+        c = Character.toCodePoint((char) c, text.charAt(++i));
+      }
+      if (c < 0x80) {
+        out[length++] = (byte) c;
+      } else if (c < 0x800) {
+        out[length++] = (byte) (0xc0 | (c >> 6));
+        out[length++] = (byte) (0x80 | (c & 0x3f));
+      } else if (c < 0x10000) {
+        out[length++] = (byte) (0xe0 | (c >> 12));
+        out[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        out[length++] = (byte) (0x80 | (c & 0x3f));
+      } else {
+        out[length++] = (byte) (0xf0 | (c >> 18));
+        out[length++] = (byte) (0x80 | ((c >> 12) & 0x3f));
+        out[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        out[length++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+    return length;
+  }
+
+  private static BytePairEncoding load(String location, Resource ranks) {
+    if (!ranks.exists()) {
+      if (!DEFAULT_RANKS.equals(location)) {
+        throw new IllegalStateException("Tokenizer merge table " + location + " (chatai.tokenizer.ranks) not found");
+      }
+      log.error("Tokenizer merge table {} not found: quotas are enforced on an estimate of one token per 4 bytes, "
+              + "not on the tokens OpenAI bills. Download cl100k_base.tiktoken (see the README) "
+              + "or set chatai.tokenizer.ranks", location);
+      return null;
+    }
+    try (InputStream in = ranks.getInputStream()) {
+      BytePairEncoding encoding = BytePairEncoding.load(in);
+      log.info("Tokenizer merge table loaded from {} ({} tokens)", location, encoding.size());
+      return encoding;
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to load the tokenizer merge table " + location, e);
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package fr.fgroup.chatai.services.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import fr.fgroup.chatai.dao.services.UserDaoService;
+import fr.fgroup.chatai.dao.specifications.UserSpecifications;
+import fr.fgroup.chatai.entities.UserEntity;
+import fr.fgroup.chatai.exceptions.ResourceNotFoundException;
+import fr.fgroup.chatai.services.UserKeyService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.regex.Pattern;
+
+/**
+ * UserKeyServiceImpl - Cached validation of user keys.
+ *
+ * A key is checked in three steps, the database being the last resort:
+ * 1. Format: keys are SHA-256 hex digests, anything else is rejected without any lookup
+ * 2. Caches: a bounded cache of valid keys and a bounded negative cache of unknown keys,
+ *    both with a TTL
+ * 3. Database lookup, whose result fills one of the caches
+ *
+ * Repeated invalid keys therefore cost one query per TTL instead of one per request, and
+ * malformed keys never reach Postgres. Database failures are not cached.
+ *
+ * The valid keys cache the user they were looked up with, so the snapshot of a user's quota
+ * and limits is read from Postgres at most once per {@code chatai.keys.valid.ttl}, whatever
+ * the traffic of the key.
+ *
+ * Hit, miss and eviction counts of both caches are published through Micrometer
+ * ({@code cache.*} meters tagged {@code cache=chatai.keys.valid|chatai.keys.invalid}).
+ */
+@Slf4j
+@Service
+public class UserKeyServiceImpl implements UserKeyService {
+
+  /** Format of the keys produced by HasherUtil */
+  private static final Pattern KEY_FORMAT = Pattern.compile("[0-9a-f]{64}");
+
+  private final UserDaoService userDaoService;
+
+  /** Valid keys, mapped to a snapshot of their user (quota, limits, tiers) */
+  private final Cache<String, UserEntity> validKeys;
+
+  /** Keys known to belong to no user */
+  private final Cache<String, Boolean> invalidKeys;
+
+  public UserKeyServiceImpl(UserDaoService userDaoService,
+                            MeterRegistry meterRegistry,
+                            @Value("${chatai.keys.valid.max-size:100000}") long validMaxSize,
+                            @Value("${chatai.keys.valid.ttl:PT30M}") Duration validTtl,
+                            @Value("${chatai.keys.invalid.max-size:100000}") long invalidMaxSize,
+                            @Value("${chatai.keys.invalid.ttl:PT10M}") Duration invalidTtl) {
+    this.userDaoService = userDaoService;
+    this.validKeys = Caffeine.newBuilder()
+            .maximumSize(validMaxSize)
+            .expireAfterWrite(validTtl)
+            .recordStats()
+            .build();
+    this.invalidKeys = Caffeine.newBuilder()
+            .maximumSize(invalidMaxSize)
+            .expireAfterWrite(invalidTtl)
+            .recordStats()
+            .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, validKeys, "chatai.keys.valid");
+    CaffeineCacheMetrics.monitor(meterRegistry, invalidKeys, "chatai.keys.invalid");
+  }
+
+  @Override
+  public boolean isValid(String key) {
+    if (key == null || !KEY_FORMAT.matcher(key).matches()) {
+      return false;
+    }
+    if (validKeys.getIfPresent(key) != null) {
+      return true;
+    }
+    if (invalidKeys.getIfPresent(key) != null) {
+      return false;
+    }
+    try {
+      return load(key) != null;
+    } catch (Exception e) {
+      // Do not cache a database failure, let the request reach the service
+      log.error("Failed to validate key : {}", key, e);
+      return true;
+    }
+  }
+
+  @Override
+  public UserEntity getUser(String key) {
+    if (key == null || !KEY_FORMAT.matcher(key).matches() || invalidKeys.getIfPresent(key) != null) {
+      return null;
+    }
+    UserEntity userEntity = validKeys.getIfPresent(key);
+    if (userEntity != null) {
+      return userEntity;
+    }
+    try {
+      return load(key);
+    } catch (Exception e) {
+      log.error("Failed to load the user of key : {}", key, e);
+      return null;
+    }
+  }
+
+  @Override
+  public void register(String key, UserEntity userEntity) {
+    invalidKeys.invalidate(key);
+    validKeys.put(key, userEntity);
+  }
+
+  /**
+   * Looks a key up in the database and fills the cache matching the answer.
+   *
+   * @return the user of the key, or null if there is none
+   */
+  private UserEntity load(String key) {
+    try {
+      UserEntity userEntity = userDaoService.findOne(Specification.where(UserSpecifications.withKey(key)));
+      validKeys.put(key, userEntity);
+      return userEntity;
+    } catch (ResourceNotFoundException e) {
+      log.debug("Unknown key : {}", key);
+      invalidKeys.put(key, Boolean.TRUE);
+      return null;
+    }
+  }
+}
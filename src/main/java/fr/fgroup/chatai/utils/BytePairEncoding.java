@@ -0,0 +1,176 @@
+package fr.fgroup.chatai.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * BytePairEncoding - Byte-level BPE merge table, as used by the OpenAI tokenizers.
+ *
+ * The table is read from a {@code .tiktoken} file (one {@code <base64 token> <rank>} pair per
+ * line, e.g. {@code cl100k_base.tiktoken} for gpt-3.5/gpt-4) into an open-addressing hash
+ * table. Lookups hash a byte range in place, so counting the tokens of a piece never copies
+ * the candidate pairs: the only allocations are two int arrays per piece.
+ *
+ * Instances are immutable once loaded and safe to share between threads.
+ */
+public final class BytePairEncoding {
+
+  private static final int EMPTY = -1;
+
+  private final byte[][] tokens;
+  private final int[] ranks;
+  private final int[] hashes;
+  /** Open-addressing slots holding indexes into tokens/ranks, EMPTY when free */
+  private final int[] slots;
+  private final int mask;
+
+  private BytePairEncoding(List<byte[]> tokens, List<Integer> ranks) {
+    int size = tokens.size();
+    this.tokens = tokens.toArray(new byte[0][]);
+    this.ranks = new int[size];
+    this.hashes = new int[size];
+    int capacity = Integer.highestOneBit(Math.max(size, 1) * 2 - 1) << 1;
+    this.slots = new int[capacity];
+    this.mask = capacity - 1;
+    Arrays.fill(slots, EMPTY);
+    for (int i = 0; i < size; i++) {
+      this.ranks[i] = ranks.get(i);
+      this.hashes[i] = hash(this.tokens[i], 0, this.tokens[i].length);
+      int slot = hashes[i] & mask;
+      while (slots[slot] != EMPTY) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = i;
+    }
+  }
+
+  /**
+   * Reads a {@code .tiktoken} merge table.
+   *
+   * @param in the table, closed by the caller
+   * @return the loaded table
+   * @throws IOException if the table cannot be read or is malformed
+   */
+  public static BytePairEncoding load(InputStream in) throws IOException {
+    List<byte[]> tokens = new ArrayList<>(100_000);
+    List<Integer> ranks = new ArrayList<>(100_000);
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+    Base64.Decoder decoder = Base64.getDecoder();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.isEmpty()) {
+        continue;
+      }
+      int space = line.indexOf(' ');
+      if (space < 0) {
+        throw new IOException("Malformed merge table line: " + line);
+      }
+      tokens.add(decoder.decode(line.substring(0, space)));
+      ranks.add(Integer.parseInt(line.substring(space + 1).trim()));
+    }
+    return new BytePairEncoding(tokens, ranks);
+  }
+
+  /**
+   * @return the number of tokens of the table
+   */
+  public int size() {
+    return tokens.length;
+  }
+
+  /**
+   * Counts the tokens a piece (one match of the pre-tokenization pattern) is encoded into.
+   *
+   * @param piece buffer holding the UTF-8 bytes of the piece
+   * @param length number of bytes of the piece
+   * @return the number of tokens
+   */
+  public int countTokens(byte[] piece, int length) {
+    if (length == 0) {
+      return 0;
+    }
+    if (length == 1 || rank(piece, 0, length) != EMPTY) {
+      return 1;
+    }
+    // starts[i] is the first byte of part i; pairRanks[i] is the rank of parts i and i + 1 merged
+    int[] starts = new int[length + 1];
+    int[] pairRanks = new int[length];
+    int parts = length;
+    for (int i = 0; i <= length; i++) {
+      starts[i] = i;
+    }
+    for (int i = 0; i < parts - 1; i++) {
+      pairRanks[i] = rank(piece, starts[i], starts[i + 2]);
+    }
+    while (parts > 1) {
+      int best = EMPTY;
+      int bestRank = Integer.MAX_VALUE;
+      for (int i = 0; i < parts - 1; i++) {
+        int r = pairRanks[i];
+        if (r != EMPTY && r < bestRank) {
+          bestRank = r;
+          best = i;
+        }
+      }
+      if (best == EMPTY) {
+        break;
+      }
+      // Merge parts best and best + 1: drop the start of best + 1
+      System.arraycopy(starts, best + 2, starts, best + 1, parts - best - 1);
+      System.arraycopy(pairRanks, best + 2, pairRanks, best + 1, Math.max(parts - best - 3, 0));
+      parts--;
+      if (best < parts - 1) {
+        pairRanks[best] = rank(piece, starts[best], starts[best + 2]);
+      }
+      if (best > 0) {
+        pairRanks[best - 1] = rank(piece, starts[best - 1], starts[best + 1]);
+      }
+    }
+    return parts;
+  }
+
+  /**
+   * @return the rank of the token made of bytes [from, to) of buffer, or -1 if it is not a token
+   */
+  private int rank(byte[] buffer, int from, int to) {
+    int h = hash(buffer, from, to);
+    int slot = h & mask;
+    int index;
+    while ((index = slots[slot]) != EMPTY) {
+      if (hashes[index] == h && equals(tokens[index], buffer, from, to)) {
+        return ranks[index];
+      }
+      slot = (slot + 1) & mask;
+    }
+    return EMPTY;
+  }
+
+  private static boolean equals(byte[] token, byte[] buffer, int from, int to) {
+    if (token.length != to - from) {
+      return false;
+    }
+    for (int i = 0; i < token.length; i++) {
+      if (token[i] != buffer[from + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int hash(byte[] buffer, int from, int to) {
+    int h = 0x811c9dc5;
+    for (int i = from; i < to; i++) {
+      h ^= buffer[i] & 0xff;
+      h *= 0x01000193;
+    }
+    // Spread the high bits into the low bits used by the mask
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,162 @@
+package fr.fgroup.chatai.utils;
+
+import java.time.Duration;
+
+/**
+ * CircuitBreaker - Count-based circuit breaker.
+ *
+ * - CLOSED: every call is permitted; the outcomes of the last {@code windowSize} calls are
+ *   kept in a ring, and the circuit opens when at least {@code minimumCalls} are recorded
+ *   and the failure rate reaches the threshold
+ * - OPEN: calls are refused until {@code openDuration} has elapsed
+ * - HALF_OPEN: up to {@code halfOpenCalls} trial calls are permitted; the circuit closes
+ *   when they all succeed and opens again on the first failure
+ *
+ * A permitted call must end with exactly one of {@link #onSuccess()}, {@link #onFailure()}
+ * or {@link #onIgnored()} (cancelled, or failed for a reason unrelated to the upstream health).
+ *
+ * State changes are rare and cheap next to the calls they guard, so the breaker is simply
+ * synchronized.
+ */
+public class CircuitBreaker {
+
+  /** States of the circuit */
+  public enum State { CLOSED, OPEN, HALF_OPEN }
+
+  private final int failureRateThreshold;
+  private final int minimumCalls;
+  private final long openNanos;
+  private final int halfOpenCalls;
+
+  /** Outcomes of the last calls, true for a failure */
+  private final boolean[] outcomes;
+  private int next;
+  private int recorded;
+  private int failures;
+
+  private State state = State.CLOSED;
+  private long openedAt;
+  private int trialsStarted;
+  private int trialsSucceeded;
+
+  /**
+   * @param failureRateThreshold failure rate, in percent, opening the circuit
+   * @param windowSize number of last calls the failure rate is computed on
+   * @param minimumCalls calls needed in the window before the failure rate is evaluated
+   * @param openDuration time the circuit stays open
+   * @param halfOpenCalls trial calls permitted while half-open
+   */
+  public CircuitBreaker(int failureRateThreshold, int windowSize, int minimumCalls, Duration openDuration,
+                        int halfOpenCalls) {
+    this.failureRateThreshold = failureRateThreshold;
+    this.outcomes = new boolean[Math.max(1, windowSize)];
+    this.minimumCalls = Math.min(Math.max(1, minimumCalls), outcomes.length);
+    this.openNanos = openDuration.toNanos();
+    this.halfOpenCalls = Math.max(1, halfOpenCalls);
+  }
+
+  /**
+   * Asks for the permission to call.
+   *
+   * @return true if the call may proceed
+   */
+  public synchronized boolean tryAcquirePermission() {
+    if (state == State.OPEN) {
+      if (System.nanoTime() - openedAt < openNanos) {
+        return false;
+      }
+      state = State.HALF_OPEN;
+      trialsStarted = 0;
+      trialsSucceeded = 0;
+    }
+    if (state == State.HALF_OPEN) {
+      if (trialsStarted >= halfOpenCalls) {
+        return false;
+      }
+      trialsStarted++;
+    }
+    return true;
+  }
+
+  /**
+   * Records a permitted call that succeeded.
+   */
+  public synchronized void onSuccess() {
+    if (state == State.HALF_OPEN) {
+      if (++trialsSucceeded >= halfOpenCalls) {
+        close();
+      }
+      return;
+    }
+    record(false);
+  }
+
+  /**
+   * Records a permitted call that failed.
+   */
+  public synchronized void onFailure() {
+    if (state == State.HALF_OPEN) {
+      open();
+      return;
+    }
+    if (state == State.CLOSED) {
+      record(true);
+      if (recorded >= minimumCalls && failures * 100 >= failureRateThreshold * recorded) {
+        open();
+      }
+    }
+  }
+
+  /**
+   * Gives back the permission of a call whose outcome says nothing about the upstream.
+   */
+  public synchronized void onIgnored() {
+    if (state == State.HALF_OPEN && trialsStarted > trialsSucceeded) {
+      trialsStarted--;
+    }
+  }
+
+  /**
+   * @return the current state, OPEN turning HALF_OPEN only on the next permission request
+   */
+  public synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * @return the time left before an open circuit lets trial calls through, zero otherwise
+   */
+  public synchronized Duration getRemainingOpenTime() {
+    if (state != State.OPEN) {
+      return Duration.ZERO;
+    }
+    return Duration.ofNanos(Math.max(0, openNanos - (System.nanoTime() - openedAt)));
+  }
+
+  private void record(boolean failure) {
+    if (recorded == outcomes.length) {
+      if (outcomes[next]) {
+        failures--;
+      }
+    } else {
+      recorded++;
+    }
+    outcomes[next] = failure;
+    if (failure) {
+      failures++;
+    }
+    next = (next + 1) % outcomes.length;
+  }
+
+  private void open() {
+    state = State.OPEN;
+    openedAt = System.nanoTime();
+  }
+
+  private void close() {
+    state = State.CLOSED;
+    next = 0;
+    recorded = 0;
+    failures = 0;
+  }
+}
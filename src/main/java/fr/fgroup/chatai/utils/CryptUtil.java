@@ -36,4 +36,62 @@ public class CryptUtil {
     byte[] encoded = Base64.getEncoder().encode(str.getBytes());
     return new String(encoded);
   }
+
+  /**
+   * Creates a decryptor bound to a key, for callers decrypting many values with the same secret.
+   *
+   * @param secret the Base64 encoded key, as given to {@link #decrypt(String, String)}
+   * @return the decryptor
+   */
+  public static Decryptor decryptor(String secret) {
+    return new Decryptor(secret);
+  }
+
+  /**
+   * Decryptor built once per key: the key is decoded once and each thread reuses its own
+   * initialized cipher, a Cipher being neither thread-safe nor cheap to create.
+   */
+  public static final class Decryptor {
+
+    private final Key key;
+    private final ThreadLocal<Cipher> ciphers;
+
+    private Decryptor(String secret) {
+      Key decoded = null;
+      try {
+        decoded = generateKey(secret);
+      } catch (IllegalArgumentException e) {
+        log.error("Invalid decryption key, nothing will be decrypted : {}", e.getMessage());
+      }
+      this.key = decoded;
+      this.ciphers = ThreadLocal.withInitial(() -> {
+        try {
+          Cipher cipher = Cipher.getInstance(ALGO);
+          cipher.init(Cipher.DECRYPT_MODE, key);
+          return cipher;
+        } catch (Exception e) {
+          throw new IllegalStateException("Cannot initialize the " + ALGO + " cipher", e);
+        }
+      });
+    }
+
+    /**
+     * @param strToDecrypt the Base64 encoded encrypted value
+     * @return the decrypted value, or null if it cannot be decrypted
+     */
+    public String decrypt(String strToDecrypt) {
+      if (key == null) {
+        return null;
+      }
+      try {
+        // doFinal resets the cipher to its initialized state, ready for the next value
+        return new String(ciphers.get().doFinal(Base64.getDecoder().decode(strToDecrypt)));
+      } catch (Exception e) {
+        // A failed cipher is not reused
+        ciphers.remove();
+        log.error("Error while decrypting: ", e);
+      }
+      return null;
+    }
+  }
 }
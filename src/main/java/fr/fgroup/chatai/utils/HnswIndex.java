@@ -0,0 +1,398 @@
+package fr.fgroup.chatai.utils;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * HnswIndex - In-process approximate nearest neighbour index (Hierarchical Navigable Small World).
+ *
+ * Vectors are kept as primitive {@code float[]}, normalized on insertion, and compared by
+ * cosine similarity (a dot product once normalized). Each node is linked to its {@code m}
+ * closest neighbours on every layer it belongs to ({@code 2 * m} on the bottom layer); a
+ * search descends greedily from the top layer and explores {@code efSearch} candidates on
+ * the bottom one.
+ *
+ * The index holds at most {@code maxEntries} live vectors. When full, the oldest entry is
+ * evicted: it is only marked as deleted (it keeps routing searches but is never returned),
+ * and the graph is rebuilt from the live entries once deleted nodes fill the spare slots,
+ * so the memory footprint stays bounded.
+ *
+ * Searches run concurrently under a read lock, insertions take the write lock. Insertions
+ * are serialized; the rebuild is done into a new graph outside the write lock, so searches
+ * keep running on the old graph meanwhile, and is swapped in once complete.
+ *
+ * @param <T> type of the value attached to each vector
+ */
+public class HnswIndex<T> {
+
+  private final int m;
+  private final int efConstruction;
+  private final int efSearch;
+  private final int maxEntries;
+  private final double levelMultiplier;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  /** Serializes the insertions, which may rebuild the graph without holding the write lock */
+  private final Lock insertLock = new ReentrantLock();
+
+  private Graph graph;
+  private int dimension = -1;
+
+  /**
+   * @param m number of neighbours per node on the upper layers
+   * @param efConstruction candidates explored when linking a new node
+   * @param efSearch candidates explored by a search
+   * @param maxEntries maximum number of live vectors
+   */
+  public HnswIndex(int m, int efConstruction, int efSearch, int maxEntries) {
+    if (m < 2 || maxEntries < 1) {
+      throw new IllegalArgumentException("m must be at least 2 and maxEntries at least 1");
+    }
+    this.m = m;
+    this.efConstruction = Math.max(efConstruction, m);
+    this.efSearch = Math.max(efSearch, 1);
+    this.maxEntries = maxEntries;
+    this.levelMultiplier = 1 / Math.log(m);
+    this.graph = new Graph();
+  }
+
+  /**
+   * A search result.
+   *
+   * @param <T> type of the value
+   */
+  public static final class Match<T> {
+    private final T value;
+    private final double similarity;
+
+    Match(T value, double similarity) {
+      this.value = value;
+      this.similarity = similarity;
+    }
+
+    public T getValue() {
+      return value;
+    }
+
+    /**
+     * @return the cosine similarity to the query, in [-1, 1]
+     */
+    public double getSimilarity() {
+      return similarity;
+    }
+  }
+
+  /**
+   * Adds a vector, evicting the oldest one if the index is full.
+   *
+   * May rebuild the graph, which is slow on a large index: call it off the event loop.
+   *
+   * @param vector the vector, copied and normalized
+   * @param value the value attached to the vector
+   * @throws IllegalArgumentException if the vector does not have the dimension of the index
+   */
+  public void add(float[] vector, T value) {
+    float[] normalized = normalize(vector);
+    insertLock.lock();
+    try {
+      lock.writeLock().lock();
+      try {
+        if (dimension < 0) {
+          dimension = normalized.length;
+        } else if (dimension != normalized.length) {
+          throw new IllegalArgumentException("Expected a vector of dimension " + dimension
+                  + ", got " + normalized.length);
+        }
+        if (graph.liveCount == maxEntries) {
+          graph.evictOldest();
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+      if (graph.isFull()) {
+        // Only insertions change the graph and they are serialized: it can be read without the lock
+        Graph rebuilt = graph.rebuild();
+        lock.writeLock().lock();
+        try {
+          graph = rebuilt;
+        } finally {
+          lock.writeLock().unlock();
+        }
+      }
+      lock.writeLock().lock();
+      try {
+        graph.insert(normalized, value);
+      } finally {
+        lock.writeLock().unlock();
+      }
+    } finally {
+      insertLock.unlock();
+    }
+  }
+
+  /**
+   * Finds the entry closest to a vector.
+   *
+   * @param vector the query vector
+   * @return the closest live entry, or null if the index is empty
+   */
+  public Match<T> nearest(float[] vector) {
+    float[] query = normalize(vector);
+    lock.readLock().lock();
+    try {
+      if (query.length != dimension) {
+        return null;
+      }
+      return graph.nearest(query);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return the number of live entries
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return graph.liveCount;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private int maxLinks(int level) {
+    return level == 0 ? 2 * m : m;
+  }
+
+  private int randomLevel() {
+    double random = 1 - ThreadLocalRandom.current().nextDouble();
+    return (int) Math.floor(-Math.log(random) * levelMultiplier);
+  }
+
+  private static float distance(float[] a, float[] b) {
+    float dot = 0;
+    for (int i = 0; i < a.length; i++) {
+      dot += a[i] * b[i];
+    }
+    return 1 - dot;
+  }
+
+  private static float[] normalize(float[] vector) {
+    double norm = 0;
+    for (float v : vector) {
+      norm += v * v;
+    }
+    norm = Math.sqrt(norm);
+    float[] normalized = new float[vector.length];
+    if (norm > 0) {
+      for (int i = 0; i < vector.length; i++) {
+        normalized[i] = (float) (vector[i] / norm);
+      }
+    }
+    return normalized;
+  }
+
+  private static List<Candidate> closest(PriorityQueue<Candidate> found, int count) {
+    List<Candidate> sorted = new ArrayList<>(found);
+    sorted.sort(Comparator.comparingDouble(c -> c.distance));
+    return sorted.subList(0, Math.min(count, sorted.size()));
+  }
+
+  /**
+   * The nodes and links of the index.
+   */
+  private final class Graph {
+    private final float[][] vectors;
+    private final Object[] values;
+    /** links[node][level] = {count, neighbour ids...} */
+    private final int[][][] links;
+    private final BitSet deleted;
+    private int nextId;
+    private int oldestId;
+    private int liveCount;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    private Graph() {
+      // Spare slots let deleted nodes accumulate before a rebuild
+      int slots = maxEntries + Math.max(maxEntries / 2, 1);
+      vectors = new float[slots][];
+      values = new Object[slots];
+      links = new int[slots][][];
+      deleted = new BitSet(slots);
+    }
+
+    private boolean isFull() {
+      return nextId == vectors.length;
+    }
+
+    /**
+     * @return a new graph of the live entries, inserted in their original order
+     */
+    @SuppressWarnings("unchecked")
+    private Graph rebuild() {
+      Graph rebuilt = new Graph();
+      for (int id = 0; id < nextId; id++) {
+        if (!deleted.get(id)) {
+          rebuilt.insert(vectors[id], (T) values[id]);
+        }
+      }
+      return rebuilt;
+    }
+
+    private Match<T> nearest(float[] query) {
+      if (entryPoint < 0) {
+        return null;
+      }
+      int current = entryPoint;
+      for (int level = maxLevel; level > 0; level--) {
+        current = searchLayer(query, current, 1, level).peek().id;
+      }
+      PriorityQueue<Candidate> results = searchLayer(query, current, efSearch, 0);
+      Candidate best = null;
+      for (Candidate candidate : results) {
+        if (!deleted.get(candidate.id) && (best == null || candidate.distance < best.distance)) {
+          best = candidate;
+        }
+      }
+      return best == null ? null : new Match<>(valueOf(best.id), 1 - best.distance);
+    }
+
+    private void insert(float[] vector, T value) {
+      int id = nextId++;
+      int level = randomLevel();
+      vectors[id] = vector;
+      values[id] = value;
+      links[id] = new int[level + 1][];
+      for (int l = 0; l <= level; l++) {
+        links[id][l] = new int[maxLinks(l) + 1];
+      }
+      liveCount++;
+
+      if (entryPoint < 0) {
+        entryPoint = id;
+        maxLevel = level;
+        return;
+      }
+
+      int current = entryPoint;
+      for (int l = maxLevel; l > level; l--) {
+        current = searchLayer(vector, current, 1, l).peek().id;
+      }
+      for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+        PriorityQueue<Candidate> found = searchLayer(vector, current, efConstruction, l);
+        List<Candidate> closest = closest(found, maxLinks(l));
+        for (Candidate neighbour : closest) {
+          link(id, neighbour.id, l);
+          link(neighbour.id, id, l);
+        }
+        current = closest.get(0).id;
+      }
+      if (level > maxLevel) {
+        entryPoint = id;
+        maxLevel = level;
+      }
+    }
+
+    /**
+     * Adds a directed link, dropping the farthest neighbour if the node is already full.
+     */
+    private void link(int from, int to, int level) {
+      int[] neighbours = links[from][level];
+      int count = neighbours[0];
+      if (count < neighbours.length - 1) {
+        neighbours[count + 1] = to;
+        neighbours[0] = count + 1;
+        return;
+      }
+      int farthest = -1;
+      float farthestDistance = distance(vectors[from], vectors[to]);
+      for (int i = 1; i <= count; i++) {
+        float d = distance(vectors[from], vectors[neighbours[i]]);
+        if (d > farthestDistance) {
+          farthestDistance = d;
+          farthest = i;
+        }
+      }
+      if (farthest > 0) {
+        neighbours[farthest] = to;
+      }
+    }
+
+    /**
+     * Best-first search of one layer.
+     *
+     * @return the (at most) ef closest nodes found, farthest first
+     */
+    private PriorityQueue<Candidate> searchLayer(float[] query, int start, int ef, int level) {
+      BitSet visited = new BitSet(nextId);
+      PriorityQueue<Candidate> candidates = new PriorityQueue<>(Comparator.comparingDouble(c -> c.distance));
+      PriorityQueue<Candidate> results = new PriorityQueue<>(
+              Comparator.comparingDouble((Candidate c) -> c.distance).reversed());
+      Candidate first = new Candidate(start, distance(query, vectors[start]));
+      visited.set(start);
+      candidates.add(first);
+      results.add(first);
+      while (!candidates.isEmpty()) {
+        Candidate candidate = candidates.poll();
+        if (candidate.distance > results.peek().distance && results.size() >= ef) {
+          break;
+        }
+        int[][] nodeLinks = links[candidate.id];
+        if (level >= nodeLinks.length) {
+          continue;
+        }
+        int[] neighbours = nodeLinks[level];
+        for (int i = 1; i <= neighbours[0]; i++) {
+          int neighbour = neighbours[i];
+          if (visited.get(neighbour)) {
+            continue;
+          }
+          visited.set(neighbour);
+          float d = distance(query, vectors[neighbour]);
+          if (results.size() < ef || d < results.peek().distance) {
+            Candidate next = new Candidate(neighbour, d);
+            candidates.add(next);
+            results.add(next);
+            if (results.size() > ef) {
+              results.poll();
+            }
+          }
+        }
+      }
+      return results;
+    }
+
+    private void evictOldest() {
+      while (deleted.get(oldestId)) {
+        oldestId++;
+      }
+      deleted.set(oldestId);
+      values[oldestId] = null;
+      liveCount--;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T valueOf(int id) {
+      return (T) values[id];
+    }
+  }
+
+  private static final class Candidate {
+    private final int id;
+    private final float distance;
+
+    private Candidate(int id, float distance) {
+      this.id = id;
+      this.distance = distance;
+    }
+  }
+}
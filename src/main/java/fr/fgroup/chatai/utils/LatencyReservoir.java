@@ -0,0 +1,64 @@
+package fr.fgroup.chatai.utils;
+
+import java.util.Arrays;
+
+/**
+ * LatencyReservoir - Percentile of the most recent latencies.
+ *
+ * The last {@code windowSize} latencies are kept in a ring; the percentile is recomputed
+ * from a sorted copy every {@code windowSize / 10} records and read without locking in
+ * between, so reading it on every call costs nothing.
+ */
+public class LatencyReservoir {
+
+  private final double percentile;
+  private final int minSamples;
+  private final int refreshEvery;
+
+  private final long[] samples;
+  private int next;
+  private int count;
+  private int sinceRefresh;
+
+  /** Last computed percentile in nanoseconds, -1 until enough samples are recorded */
+  private volatile long percentileNanos = -1;
+
+  /**
+   * @param percentile the percentile, between 0 and 100
+   * @param windowSize number of recent latencies kept
+   * @param minSamples latencies needed before the percentile is available
+   */
+  public LatencyReservoir(double percentile, int windowSize, int minSamples) {
+    this.percentile = Math.min(Math.max(percentile, 0), 100);
+    this.samples = new long[Math.max(1, windowSize)];
+    this.minSamples = Math.min(Math.max(1, minSamples), samples.length);
+    this.refreshEvery = Math.max(1, samples.length / 10);
+  }
+
+  /**
+   * Records a latency.
+   *
+   * @param nanos the latency in nanoseconds
+   */
+  public synchronized void record(long nanos) {
+    samples[next] = nanos;
+    next = (next + 1) % samples.length;
+    if (count < samples.length) {
+      count++;
+    }
+    if (count >= minSamples && (++sinceRefresh >= refreshEvery || percentileNanos < 0)) {
+      sinceRefresh = 0;
+      long[] sorted = Arrays.copyOf(samples, count);
+      Arrays.sort(sorted);
+      int rank = (int) Math.ceil(percentile / 100 * count) - 1;
+      percentileNanos = sorted[Math.min(Math.max(rank, 0), count - 1)];
+    }
+  }
+
+  /**
+   * @return the percentile of the recent latencies in nanoseconds, -1 if not enough were recorded
+   */
+  public long getPercentileNanos() {
+    return percentileNanos;
+  }
+}
@@ -0,0 +1,78 @@
+package fr.fgroup.chatai.utils;
+
+import org.springframework.util.Assert;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.context.Context;
+
+import java.util.concurrent.Callable;
+
+/**
+ * ReactiveUserContextHolder - Reactor equivalent of {@link UserContextHolder}.
+ *
+ * A reactive pipeline hops between threads, so a ThreadLocal set by the
+ * JwtAuthenticationFilter is not visible once the pipeline has left the servlet thread.
+ * The user context is instead stored in the Reactor {@link Context} of the subscription:
+ * - Controllers write it with {@link #withContext(UserContext)}
+ * - Services read it with {@link #getContext()}
+ *
+ * Blocking code that still relies on the thread-local holder (JPA auditing for instance)
+ * is run through {@link #fromCallable(Callable, Scheduler)}, which restores the
+ * ThreadLocal around the call on the worker thread.
+ */
+public class ReactiveUserContextHolder {
+
+    /**
+     * Private constructor to prevent instantiation of utility class.
+     */
+    private ReactiveUserContextHolder() {
+    }
+
+    /** Key of the user context in the Reactor context */
+    private static final Class<UserContext> CONTEXT_KEY = UserContext.class;
+
+    /**
+     * Retrieves the user context of the current subscription.
+     *
+     * Emits an empty context when none was written, mirroring {@link UserContextHolder#getContext()}.
+     *
+     * @return a Mono emitting the current UserContext
+     */
+    public static Mono<UserContext> getContext() {
+        return Mono.deferContextual(context -> Mono.just(
+                context.getOrDefault(CONTEXT_KEY, UserContextHolder.createEmptyContext())));
+    }
+
+    /**
+     * Creates a Reactor context holding the given user context, for use with
+     * {@code contextWrite}.
+     *
+     * @param context the UserContext to propagate (must not be null)
+     * @return a Reactor Context holding the user context
+     * @throws IllegalArgumentException if context is null
+     */
+    public static Context withContext(UserContext context) {
+        Assert.notNull(context, "Only non-null UserContext instances are permitted");
+        return Context.of(CONTEXT_KEY, context);
+    }
+
+    /**
+     * Runs a blocking call on the given scheduler with the user context of the current
+     * subscription exposed through {@link UserContextHolder}.
+     *
+     * @param callable the blocking call
+     * @param scheduler the scheduler dedicated to blocking work
+     * @param <T> the result type
+     * @return a Mono emitting the result of the call
+     */
+    public static <T> Mono<T> fromCallable(Callable<T> callable, Scheduler scheduler) {
+        return getContext().flatMap(context -> Mono.fromCallable(() -> {
+            UserContextHolder.setContext(context);
+            try {
+                return callable.call();
+            } finally {
+                UserContextHolder.clear();
+            }
+        }).subscribeOn(scheduler));
+    }
+}
@@ -0,0 +1,77 @@
+package fr.fgroup.chatai.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * SingleFlight - Coalesces concurrent identical calls into a single one.
+ *
+ * The first caller of a key (the leader) starts the call; callers arriving with the same key
+ * while it is in flight (the followers) subscribe to the same call and receive the same
+ * result or error. The key is forgotten as soon as the call terminates, so later callers
+ * start a new one: this is not a cache.
+ *
+ * The shared call is reference counted: a caller cancelling (e.g. the leader's client
+ * disconnecting) only unsubscribes itself, and the call is cancelled only when every caller
+ * is gone.
+ *
+ * Published meters:
+ * - {@code <name>.calls{role=leader|follower}}
+ * - {@code <name>.in-flight}: number of calls in flight
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the results
+ */
+public class SingleFlight<K, V> {
+
+  private final Map<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+  private final Counter leaders;
+  private final Counter followers;
+
+  /**
+   * @param name prefix of the published meters
+   * @param meterRegistry registry the meters are published to
+   */
+  public SingleFlight(String name, MeterRegistry meterRegistry) {
+    this.leaders = meterRegistry.counter(name + ".calls", "role", "leader");
+    this.followers = meterRegistry.counter(name + ".calls", "role", "follower");
+    meterRegistry.gaugeMapSize(name + ".in-flight", Tags.empty(), inFlight);
+  }
+
+  /**
+   * Runs a call, or joins the identical call already in flight.
+   *
+   * @param key the key identifying identical calls
+   * @param call supplier of the call, only invoked by the leader
+   * @return a Mono emitting the result of the shared call
+   */
+  public Mono<V> execute(K key, Supplier<Mono<V>> call) {
+    return Mono.defer(() -> {
+      boolean[] leader = {false};
+      Mono<V> shared = inFlight.computeIfAbsent(key, k -> {
+        leader[0] = true;
+        return share(k, call.get());
+      });
+      (leader[0] ? leaders : followers).increment();
+      return shared;
+    });
+  }
+
+  private Mono<V> share(K key, Mono<V> call) {
+    @SuppressWarnings("unchecked")
+    Mono<V>[] self = new Mono[1];
+    self[0] = call
+            .doFinally(signal -> inFlight.remove(key, self[0]))
+            .flux()
+            .publish()
+            .refCount()
+            .singleOrEmpty();
+    return self[0];
+  }
+}
@@ -0,0 +1,72 @@
+package fr.fgroup.chatai.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TokenBucket - Lock-free token bucket, implemented as a generic cell rate algorithm.
+ *
+ * The whole state is one {@link AtomicLong}: the theoretical time at which the bucket would
+ * be full again. Taking permits pushes that time forward by their cost; the bucket refuses
+ * permits that would push it more than {@code capacity} permits ahead of now. Every
+ * operation is a single compare-and-set loop, without any lock or background refill.
+ */
+public final class TokenBucket {
+
+  /** Time needed to refill one permit */
+  private final long nanosPerPermit;
+
+  /** How far ahead of now the full time may be, i.e. the capacity expressed as a duration */
+  private final long tolerance;
+
+  /** Time at which the bucket is full, in {@link System#nanoTime()} units */
+  private final AtomicLong fullAt = new AtomicLong(System.nanoTime());
+
+  /**
+   * @param permitsPerSecond refill rate
+   * @param capacity maximum number of permits available at once (burst)
+   */
+  public TokenBucket(double permitsPerSecond, long capacity) {
+    this.nanosPerPermit = Math.max(1, (long) (1_000_000_000d / permitsPerSecond));
+    this.tolerance = Math.max(1, capacity) * nanosPerPermit;
+  }
+
+  /**
+   * Takes permits if they are available.
+   *
+   * @param permits the number of permits
+   * @return 0 if the permits were taken, otherwise the nanoseconds to wait before they are
+   */
+  public long tryAcquire(long permits) {
+    long now = System.nanoTime();
+    while (true) {
+      long current = fullAt.get();
+      long next = Math.max(current - now, 0) + now + permits * nanosPerPermit;
+      long ahead = next - now - tolerance;
+      if (ahead > 0) {
+        return ahead;
+      }
+      if (fullAt.compareAndSet(current, next)) {
+        return 0;
+      }
+    }
+  }
+
+  /**
+   * Takes permits unconditionally, possibly putting the bucket in debt (e.g. to charge a
+   * consumption known only afterwards).
+   *
+   * @param permits the number of permits
+   */
+  public void consume(long permits) {
+    long now = System.nanoTime();
+    fullAt.getAndUpdate(current -> Math.max(current - now, 0) + now + permits * nanosPerPermit);
+  }
+
+  /**
+   * @return 0 if at least one permit is available, otherwise the nanoseconds to wait for one
+   */
+  public long waitTime() {
+    long now = System.nanoTime();
+    return Math.max(0, Math.max(fullAt.get() - now, 0) + nanosPerPermit - tolerance);
+  }
+}
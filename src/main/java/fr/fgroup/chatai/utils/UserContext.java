@@ -4,6 +4,8 @@ import fr.fgroup.chatai.enums.AuthorityEnum;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.time.Instant;
+
 /**
  * @author tarik.famil (contact: tarikfamil@gmail.com)
  *
@@ -25,5 +27,9 @@ public class UserContext {
   private AuthorityEnum authority;
   private String role;
   private boolean isAdmin;
+  /** Model tier requested by the client, see {@code X-Model-Tier}; not trusted, see the model router */
+  private String modelTier;
+  /** Instant after which the client no longer waits for the answer, see {@code X-Request-Timeout} */
+  private Instant deadline;
 
 }
@@ -0,0 +1,55 @@
+package fr.fgroup.chatai.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * VirtualThreads - Factory of virtual-thread executors.
+ *
+ * Virtual threads are a preview API in Java 19/20 and final from Java 21. The project is
+ * compiled without {@code --enable-preview}, so the API is reached through reflection:
+ * the same artifact runs on a platform-thread JVM and enables virtual threads when the JVM
+ * allows them ({@code --enable-preview} on 19/20, nothing on 21+).
+ *
+ * Virtual threads keep supporting {@link ThreadLocal}, so {@link UserContextHolder} and
+ * Spring's SecurityContextHolder behave exactly as on platform threads: the request is
+ * handled from start to end by the same (virtual) thread.
+ */
+@Slf4j
+public class VirtualThreads {
+
+  /**
+   * Private constructor to prevent instantiation of utility class.
+   */
+  private VirtualThreads() {
+  }
+
+  /**
+   * Creates an executor starting a new virtual thread for each task.
+   *
+   * @param namePrefix prefix of the thread names, followed by a counter
+   * @return the executor
+   * @throws IllegalStateException if the running JVM does not provide virtual threads
+   */
+  public static ExecutorService newVirtualThreadPerTaskExecutor(String namePrefix) {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> ofVirtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+      builder = ofVirtual.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+      ThreadFactory factory = (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+              .getMethod("factory").invoke(builder);
+      log.info("Virtual threads enabled for '{}'", namePrefix);
+      return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+              .invoke(null, factory);
+    } catch (InvocationTargetException e) {
+      throw new IllegalStateException("Virtual threads are not enabled on this JVM "
+              + "(Java 19/20 requires --enable-preview)", e.getCause());
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Virtual threads are not available on this JVM (Java 19+ required)", e);
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package fr.fgroup.chatai.services.impl;
+
+import fr.fgroup.chatai.models.TokenAccount;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * PostgresQuotaCoordinatorServiceImplTest - Leases of several nodes against a real Postgres.
+ *
+ * Runs against the database of {@code CHATAI_TEST_DATABASE_URL} (with {@code CHATAI_TEST_DATABASE_USER}
+ * and {@code CHATAI_TEST_DATABASE_PASSWORD}), in a schema of its own dropped afterwards, e.g.
+ * {@code CHATAI_TEST_DATABASE_URL=jdbc:postgresql://localhost:5432/chatai mvn test}.
+ * Skipped when the variable is not set.
+ */
+@EnabledIfEnvironmentVariable(named = "CHATAI_TEST_DATABASE_URL", matches = ".+")
+class PostgresQuotaCoordinatorServiceImplTest {
+
+  private static final String SCHEMA = "chatai_quota_test";
+  private static final long USER_ID = 1L;
+  private static final long QUOTA = 5000;
+  private static final long BLOCK = 2000;
+
+  private DriverManagerDataSource dataSource;
+  private JdbcTemplate jdbcTemplate;
+
+  @BeforeEach
+  void createSchema() {
+    DriverManagerDataSource admin = dataSource(null);
+    new JdbcTemplate(admin).execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+    new JdbcTemplate(admin).execute("CREATE SCHEMA " + SCHEMA);
+    dataSource = dataSource(SCHEMA);
+    jdbcTemplate = new JdbcTemplate(dataSource);
+    jdbcTemplate.execute("CREATE TABLE user_entity (id BIGINT PRIMARY KEY, "
+            + "total_tokens BIGINT NOT NULL, total_tokens_authorized BIGINT NOT NULL)");
+    jdbcTemplate.execute("CREATE SEQUENCE token_lease_entity_seq INCREMENT BY 50");
+    jdbcTemplate.execute("CREATE TABLE token_lease_entity ("
+            + "id BIGINT PRIMARY KEY DEFAULT nextval('token_lease_entity_seq'), user_id BIGINT NOT NULL, "
+            + "node_id VARCHAR(64) NOT NULL, tokens BIGINT NOT NULL, expires_at TIMESTAMP NOT NULL)");
+    jdbcTemplate.execute("CREATE UNIQUE INDEX idx_token_lease_entity_user_node "
+            + "ON token_lease_entity (user_id, node_id)");
+    jdbcTemplate.update("INSERT INTO user_entity (id, total_tokens, total_tokens_authorized) VALUES (?, 0, ?)",
+            USER_ID, QUOTA);
+  }
+
+  @AfterEach
+  void dropSchema() {
+    new JdbcTemplate(dataSource(null)).execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+  }
+
+  @Test
+  void nodesNeverLeaseMoreThanTheQuota() {
+    PostgresQuotaCoordinatorServiceImpl first = coordinator("node-1", Duration.ofMinutes(5));
+    PostgresQuotaCoordinatorServiceImpl second = coordinator("node-2", Duration.ofMinutes(5));
+    TokenAccount onFirst = account();
+    TokenAccount onSecond = account();
+
+    assertThat(first.refill(onFirst, 1)).isTrue();
+    assertThat(second.refill(onSecond, 1)).isTrue();
+    assertThat(onFirst.getRemainingTokens()).isEqualTo(BLOCK);
+    assertThat(onSecond.getRemainingTokens()).isEqualTo(BLOCK);
+
+    // Only the last 1000 tokens are left for the next block
+    assertThat(first.refill(onFirst, BLOCK + 1)).isTrue();
+    assertThat(onFirst.getRemainingTokens()).isEqualTo(QUOTA - BLOCK);
+    assertThat(second.refill(onSecond, BLOCK + 1)).isFalse();
+    assertThat(leased()).isEqualTo(QUOTA);
+  }
+
+  @Test
+  void flushMovesConsumptionFromTheLeaseToTheUser() {
+    PostgresQuotaCoordinatorServiceImpl coordinator = coordinator("node-1", Duration.ofMinutes(5));
+    TokenAccount account = account();
+    coordinator.refill(account, 1);
+    account.charge(1500);
+
+    coordinator.write(List.of(account), List.of(account.drain()));
+
+    assertThat(jdbcTemplate.queryForObject("SELECT total_tokens FROM user_entity WHERE id = ?", Long.class,
+            USER_ID)).isEqualTo(1500L);
+    assertThat(leased()).isEqualTo(BLOCK - 1500);
+  }
+
+  @Test
+  void expiredLeasesOfOtherNodesStopCounting() {
+    PostgresQuotaCoordinatorServiceImpl crashed = coordinator("node-1", Duration.ZERO);
+    crashed.refill(account(), QUOTA);
+
+    PostgresQuotaCoordinatorServiceImpl alive = coordinator("node-2", Duration.ofMinutes(5));
+    TokenAccount account = account();
+    assertThat(alive.refill(account, QUOTA)).isTrue();
+    assertThat(account.getRemainingTokens()).isEqualTo(QUOTA);
+  }
+
+  @Test
+  void restartWithTheSameNodeIdDropsTheFormerLeases() {
+    coordinator("node-1", Duration.ofMinutes(5)).refill(account(), QUOTA);
+
+    // Crash without shutdown, then restart under the same id: the whole quota is available again
+    PostgresQuotaCoordinatorServiceImpl restarted = coordinator("node-1", Duration.ofMinutes(5));
+    TokenAccount account = account();
+    assertThat(leased()).isZero();
+    assertThat(restarted.refill(account, QUOTA)).isTrue();
+    assertThat(account.getRemainingTokens()).isEqualTo(QUOTA);
+  }
+
+  @Test
+  void shutdownGivesTheLeasesBack() {
+    PostgresQuotaCoordinatorServiceImpl coordinator = coordinator("node-1", Duration.ofMinutes(5));
+    coordinator.refill(account(), 1);
+
+    coordinator.shutdown();
+
+    assertThat(leased()).isZero();
+  }
+
+  private PostgresQuotaCoordinatorServiceImpl coordinator(String nodeId, Duration leaseTtl) {
+    PostgresQuotaCoordinatorServiceImpl coordinator = new PostgresQuotaCoordinatorServiceImpl(jdbcTemplate,
+            new DataSourceTransactionManager(dataSource), dataSource, Schedulers.immediate(),
+            new SimpleMeterRegistry(), nodeId, BLOCK, leaseTtl, false);
+    coordinator.start();
+    return coordinator;
+  }
+
+  /**
+   * An account as the ledger loads it in cluster mode: nothing leased yet.
+   */
+  private static TokenAccount account() {
+    return new TokenAccount(USER_ID, "key", QUOTA, 0, 0);
+  }
+
+  private long leased() {
+    Long leased = jdbcTemplate.queryForObject("SELECT COALESCE(SUM(tokens), 0) FROM token_lease_entity "
+            + "WHERE expires_at > now() AT TIME ZONE 'UTC'", Long.class);
+    return leased == null ? 0 : leased;
+  }
+
+  private static DriverManagerDataSource dataSource(String schema) {
+    DriverManagerDataSource dataSource = new DriverManagerDataSource(System.getenv("CHATAI_TEST_DATABASE_URL"),
+            System.getenv().getOrDefault("CHATAI_TEST_DATABASE_USER", "postgres"),
+            System.getenv().getOrDefault("CHATAI_TEST_DATABASE_PASSWORD", "postgres"));
+    if (schema != null) {
+      Properties properties = new Properties();
+      properties.setProperty("currentSchema", schema);
+      dataSource.setConnectionProperties(properties);
+    }
+    return dataSource;
+  }
+}
@@ -0,0 +1,182 @@
+package fr.fgroup.chatai.services.impl;
+
+import fr.fgroup.chatai.resources.post.ContinueMessageResourcePost;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * TokenizerServiceImplTest - Token counts of the tokenizer against known cl100k_base encodings.
+ *
+ * The counts of the real merge table are checked only when it is available, from
+ * {@code CHATAI_TOKENIZER_RANKS} or the default location (see the README). The throughput
+ * benchmark runs when {@code CHATAI_BENCHMARK=true}, e.g.
+ * {@code CHATAI_BENCHMARK=true mvn test -Dtest=TokenizerServiceImplTest}.
+ */
+class TokenizerServiceImplTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void splitsTextLikeCl100k() {
+    assertThat(pieces("hello world")).containsExactly("hello", " world");
+    assertThat(pieces("tiktoken is great!")).containsExactly("tiktoken", " is", " great", "!");
+    assertThat(pieces("2 + 2 = 4")).containsExactly("2", " +", " ", "2", " =", " ", "4");
+    assertThat(pieces("I'm 12345")).containsExactly("I", "'m", " ", "123", "45");
+    assertThat(pieces("  hello")).containsExactly(" ", " hello");
+    assertThat(pieces("line\n\nnext")).containsExactly("line", "\n\n", "next");
+  }
+
+  @Test
+  void countsEveryPieceWithTheMergeTable() throws IOException {
+    TokenizerServiceImpl tokenizer = tokenizer(table("he", "ll", "hell", "hello", "or", " w", " wor", "ld", " world"));
+
+    assertThat(tokenizer.countTokens("hello world")).isEqualTo(2);
+    // " worlds": or, " w", " wor", ld, " world", then s
+    assertThat(tokenizer.countTokens("hello worlds")).isEqualTo(3);
+    assertThat(tokenizer.countTokens("")).isZero();
+    // 3 tokens priming the answer, 3 per message, "user" is not merged
+    assertThat(tokenizer.countTokens(List.of(message("user", "hello world")))).isEqualTo(3 + 3 + 4 + 2);
+  }
+
+  @Test
+  void estimatesFromTheSizeWithoutTheDefaultTable() {
+    assumeFalse(new DefaultResourceLoader().getResource(TokenizerServiceImpl.DEFAULT_RANKS).exists());
+    TokenizerServiceImpl tokenizer = tokenizer(TokenizerServiceImpl.DEFAULT_RANKS);
+
+    // "hello" and " world", one token per 4 bytes
+    assertThat(tokenizer.countTokens("hello world")).isEqualTo(4);
+  }
+
+  @Test
+  void failsWhenTheConfiguredTableIsMissing() {
+    String missing = directory.resolve("missing.tiktoken").toUri().toString();
+
+    assertThatThrownBy(() -> tokenizer(missing)).isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  void countsLikeCl100k() {
+    TokenizerServiceImpl tokenizer = cl100k();
+
+    assertThat(tokenizer.countTokens("hello world")).isEqualTo(2);
+    assertThat(tokenizer.countTokens("tiktoken is great!")).isEqualTo(6);
+    assertThat(tokenizer.countTokens("2 + 2 = 4")).isEqualTo(7);
+    assertThat(tokenizer.countTokens("antidisestablishmentarianism")).isEqualTo(6);
+    assertThat(tokenizer.countTokens("お誕生日おめでとう")).isEqualTo(9);
+    assertThat(tokenizer.countTokens(List.of(message("user", "hello world")))).isEqualTo(3 + 3 + 1 + 2);
+  }
+
+  @Test
+  @EnabledIfEnvironmentVariable(named = "CHATAI_BENCHMARK", matches = "true")
+  void measureThroughput() {
+    TokenizerServiceImpl tokenizer = cl100k();
+    String text = corpus(new Random(42), 1 << 20);
+    for (int i = 0; i < 5; i++) {
+      tokenizer.countTokens(text);
+    }
+
+    int rounds = 20;
+    long tokens = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < rounds; i++) {
+      tokens += tokenizer.countTokens(text);
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("Tokenizer: %.0f tokens/s, %.1f MB/s (%d tokens per round)%n",
+            tokens / seconds, rounds * (double) text.length() / seconds / (1 << 20), tokens / rounds);
+    assertThat(tokens).isPositive();
+  }
+
+  private static List<String> pieces(String text) {
+    List<String> pieces = new ArrayList<>();
+    Matcher matcher = TokenizerServiceImpl.PIECES.matcher(text);
+    while (matcher.find()) {
+      pieces.add(matcher.group());
+    }
+    return pieces;
+  }
+
+  private static TokenizerServiceImpl tokenizer(String ranks) {
+    return new TokenizerServiceImpl(ranks, new DefaultResourceLoader(), new SimpleMeterRegistry());
+  }
+
+  private TokenizerServiceImpl tokenizer(byte[] table) throws IOException {
+    Path file = Files.write(directory.resolve("ranks.tiktoken"), table);
+    return tokenizer(file.toUri().toString());
+  }
+
+  /**
+   * @return the tokenizer of the real cl100k_base table, the test being skipped when it is not available
+   */
+  private static TokenizerServiceImpl cl100k() {
+    String ranks = System.getenv().getOrDefault("CHATAI_TOKENIZER_RANKS", TokenizerServiceImpl.DEFAULT_RANKS);
+    assumeTrue(new DefaultResourceLoader().getResource(ranks).exists(), "cl100k_base.tiktoken is not available");
+    return tokenizer(ranks);
+  }
+
+  /**
+   * @param merges the multi-byte tokens, lowest rank first
+   * @return the {@code .tiktoken} file of the 256 single bytes and the given tokens
+   */
+  private static byte[] table(String... merges) {
+    Base64.Encoder encoder = Base64.getEncoder();
+    StringBuilder table = new StringBuilder();
+    int rank = 0;
+    for (int b = 0; b < 256; b++) {
+      table.append(encoder.encodeToString(new byte[] {(byte) b})).append(' ').append(rank++).append('\n');
+    }
+    for (String merge : merges) {
+      table.append(encoder.encodeToString(merge.getBytes(StandardCharsets.UTF_8)))
+              .append(' ').append(rank++).append('\n');
+    }
+    return table.toString().getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private static ContinueMessageResourcePost message(String role, String content) {
+    ContinueMessageResourcePost message = new ContinueMessageResourcePost();
+    message.setRole(role);
+    message.setContent(content);
+    return message;
+  }
+
+  /**
+   * @return prose-like text: words, numbers, punctuation and line breaks
+   */
+  private static String corpus(Random random, int length) {
+    String[] words = {"the", "quota", "of", "tokens", "is", "reserved", "before", "each", "call", "answer",
+            "conversation", "model", "streaming", "été", "naïve", "日本語"};
+    StringBuilder text = new StringBuilder(length + 32);
+    while (text.length() < length) {
+      int pick = random.nextInt(20);
+      if (pick < words.length) {
+        text.append(' ').append(words[pick]);
+      } else if (pick == 17) {
+        text.append(' ').append(random.nextInt(100_000));
+      } else if (pick == 18) {
+        text.append(random.nextBoolean() ? ", " : ".\n");
+      } else {
+        text.append(" (").append(words[random.nextInt(words.length)]).append(")");
+      }
+    }
+    return text.toString();
+  }
+}
@@ -0,0 +1,105 @@
+package fr.fgroup.chatai.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * BytePairEncodingTest - Merge loop of the byte-level BPE on small tables whose encodings are known.
+ *
+ * Each table holds the 256 single bytes (ranks 0 to 255) followed by the given merges, ranked in
+ * order, the way a {@code .tiktoken} file lists them.
+ */
+class BytePairEncodingTest {
+
+  @Test
+  void mergesTheLowestRankedPairFirst() throws IOException {
+    BytePairEncoding encoding = table("bc", "ab", "cd");
+
+    // bc is merged first, then neither abc nor bcd is a token: a, bc, d
+    assertThat(count(encoding, "abcd")).isEqualTo(3);
+    assertThat(count(encoding, "abd")).isEqualTo(2);
+    assertThat(count(encoding, "acd")).isEqualTo(2);
+  }
+
+  @Test
+  void mergesEqualPairsFromTheLeft() throws IOException {
+    BytePairEncoding encoding = table("aa", "aaaa");
+
+    assertThat(count(encoding, "aaa")).isEqualTo(2);
+    assertThat(count(encoding, "aaaa")).isEqualTo(1);
+    // aa, a, a, a -> aa, aa, a -> aaaa, a
+    assertThat(count(encoding, "aaaaa")).isEqualTo(2);
+    assertThat(count(encoding, "aaaaaaaa")).isEqualTo(2);
+  }
+
+  @Test
+  void mergedPartsAreMergedAgain() throws IOException {
+    BytePairEncoding encoding = table("he", "ll", "hell", "hello");
+
+    assertThat(count(encoding, "hello")).isEqualTo(1);
+    // he, ll, o -> hell, o -> hello, x
+    assertThat(count(encoding, "hellox")).isEqualTo(2);
+    assertThat(count(encoding, "xhello")).isEqualTo(2);
+    assertThat(count(encoding, "helo")).isEqualTo(3);
+  }
+
+  @Test
+  void countsEveryByteOfAMultiByteCharacter() throws IOException {
+    BytePairEncoding encoding = table();
+
+    assertThat(count(encoding, "é")).isEqualTo(2);
+    assertThat(count(encoding, "日")).isEqualTo(3);
+    assertThat(encoding.countTokens(new byte[8], 0)).isZero();
+  }
+
+  @Test
+  void loadsEveryTokenOfTheTable() throws IOException {
+    assertThat(table("ab", "cd").size()).isEqualTo(258);
+  }
+
+  @Test
+  void rejectsAMalformedTable() {
+    byte[] table = "YQ==0\n".getBytes(StandardCharsets.US_ASCII);
+
+    assertThatThrownBy(() -> BytePairEncoding.load(new ByteArrayInputStream(table)))
+            .isInstanceOf(IOException.class);
+  }
+
+  private static int count(BytePairEncoding encoding, String piece) {
+    byte[] bytes = piece.getBytes(StandardCharsets.UTF_8);
+    return encoding.countTokens(bytes, bytes.length);
+  }
+
+  /**
+   * @param merges the multi-byte tokens, lowest rank first
+   * @return a table of the single bytes and the given tokens
+   */
+  private static BytePairEncoding table(String... merges) throws IOException {
+    return BytePairEncoding.load(new ByteArrayInputStream(tiktoken(merges)));
+  }
+
+  /**
+   * @param merges the multi-byte tokens, lowest rank first
+   * @return the {@code .tiktoken} file of the single bytes and the given tokens
+   */
+  private static byte[] tiktoken(String... merges) {
+    Base64.Encoder encoder = Base64.getEncoder();
+    StringBuilder table = new StringBuilder();
+    int rank = 0;
+    for (int b = 0; b < 256; b++) {
+      table.append(encoder.encodeToString(new byte[] {(byte) b})).append(' ').append(rank++).append('\n');
+    }
+    for (String merge : merges) {
+      table.append(encoder.encodeToString(merge.getBytes(StandardCharsets.UTF_8)))
+              .append(' ').append(rank++).append('\n');
+    }
+    return table.toString().getBytes(StandardCharsets.US_ASCII);
+  }
+}
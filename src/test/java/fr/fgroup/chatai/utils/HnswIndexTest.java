@@ -0,0 +1,135 @@
+package fr.fgroup.chatai.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * HnswIndexTest - Recall of the index against a brute force search, and its bounded footprint.
+ *
+ * Vectors come from a seeded random source; the levels of the graph do not, so recall is
+ * checked with a margin rather than exactly.
+ */
+class HnswIndexTest {
+
+  private static final int DIMENSION = 32;
+  private static final int ENTRIES = 2000;
+  private static final int QUERIES = 200;
+
+  @Test
+  void nearestMatchesBruteForceOnRandomVectors() {
+    Random random = new Random(42);
+    float[][] vectors = randomVectors(random, ENTRIES);
+    HnswIndex<Integer> index = new HnswIndex<>(16, 100, 50, ENTRIES);
+    for (int i = 0; i < vectors.length; i++) {
+      index.add(vectors[i], i);
+    }
+
+    int found = 0;
+    for (int q = 0; q < QUERIES; q++) {
+      float[] query = randomVector(random);
+      HnswIndex.Match<Integer> match = index.nearest(query);
+      assertThat(match).isNotNull();
+      if (match.getValue() == bruteForceNearest(vectors, query, 0)) {
+        found++;
+      }
+    }
+    assertThat((double) found / QUERIES).isGreaterThanOrEqualTo(0.95);
+  }
+
+  @Test
+  void indexedVectorIsItsOwnNearest() {
+    Random random = new Random(7);
+    float[][] vectors = randomVectors(random, 500);
+    HnswIndex<Integer> index = new HnswIndex<>(16, 100, 50, 500);
+    for (int i = 0; i < vectors.length; i++) {
+      index.add(vectors[i], i);
+    }
+
+    int found = 0;
+    for (int i = 0; i < vectors.length; i++) {
+      HnswIndex.Match<Integer> match = index.nearest(vectors[i]);
+      if (match.getValue() == i) {
+        found++;
+        assertThat(match.getSimilarity()).isCloseTo(1.0, within(1e-4));
+      }
+    }
+    assertThat((double) found / vectors.length).isGreaterThanOrEqualTo(0.99);
+  }
+
+  @Test
+  void evictedVectorsAreNeverReturned() {
+    Random random = new Random(11);
+    int maxEntries = 300;
+    float[][] vectors = randomVectors(random, 1000);
+    HnswIndex<Integer> index = new HnswIndex<>(16, 100, 50, maxEntries);
+    for (int i = 0; i < vectors.length; i++) {
+      index.add(vectors[i], i);
+    }
+
+    assertThat(index.size()).isEqualTo(maxEntries);
+    int oldestLive = vectors.length - maxEntries;
+    int found = 0;
+    for (int q = 0; q < QUERIES; q++) {
+      float[] query = randomVector(random);
+      HnswIndex.Match<Integer> match = index.nearest(query);
+      assertThat(match.getValue()).isGreaterThanOrEqualTo(oldestLive);
+      if (match.getValue() == bruteForceNearest(vectors, query, oldestLive)) {
+        found++;
+      }
+    }
+    assertThat((double) found / QUERIES).isGreaterThanOrEqualTo(0.95);
+  }
+
+  @Test
+  void emptyIndexFindsNothing() {
+    HnswIndex<Integer> index = new HnswIndex<>(16, 100, 50, 10);
+
+    assertThat(index.nearest(new float[DIMENSION])).isNull();
+    assertThat(index.size()).isZero();
+  }
+
+  private static int bruteForceNearest(float[][] vectors, float[] query, int from) {
+    int best = -1;
+    double bestSimilarity = Double.NEGATIVE_INFINITY;
+    for (int i = from; i < vectors.length; i++) {
+      double similarity = cosine(vectors[i], query);
+      if (similarity > bestSimilarity) {
+        bestSimilarity = similarity;
+        best = i;
+      }
+    }
+    return best;
+  }
+
+  private static double cosine(float[] a, float[] b) {
+    double dot = 0;
+    double normA = 0;
+    double normB = 0;
+    for (int i = 0; i < a.length; i++) {
+      dot += a[i] * b[i];
+      normA += a[i] * a[i];
+      normB += b[i] * b[i];
+    }
+    return dot / Math.sqrt(normA * normB);
+  }
+
+  private static float[][] randomVectors(Random random, int count) {
+    float[][] vectors = new float[count][];
+    for (int i = 0; i < count; i++) {
+      vectors[i] = randomVector(random);
+    }
+    return vectors;
+  }
+
+  private static float[] randomVector(Random random) {
+    float[] vector = new float[DIMENSION];
+    for (int i = 0; i < DIMENSION; i++) {
+      vector[i] = (float) random.nextGaussian();
+    }
+    return vector;
+  }
+}
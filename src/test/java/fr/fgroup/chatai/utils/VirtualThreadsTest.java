@@ -0,0 +1,106 @@
+package fr.fgroup.chatai.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * VirtualThreadsTest - Virtual-thread executors, and their in-flight capacity against the
+ * platform-thread pool of Tomcat.
+ *
+ * Skipped when the JVM does not provide virtual threads (Java 19/20 without {@code --enable-preview}).
+ * The capacity benchmark runs when {@code CHATAI_BENCHMARK=true}, e.g.
+ * {@code CHATAI_BENCHMARK=true mvn test -Dtest=VirtualThreadsTest -DargLine=--enable-preview} on Java 19/20.
+ */
+class VirtualThreadsTest {
+
+  /** Default size of the Tomcat worker pool (server.tomcat.threads.max) */
+  private static final int TOMCAT_THREADS = 200;
+
+  /** Requests in flight at once, each blocked for the latency of the upstream */
+  private static final int REQUESTS = 2000;
+  private static final long UPSTREAM_LATENCY_MS = 200;
+
+  @Test
+  void runsEachTaskOnANewVirtualThread() throws Exception {
+    ExecutorService executor = virtualExecutor();
+    try {
+      Thread first = executor.submit(Thread::currentThread).get();
+      Thread second = executor.submit(Thread::currentThread).get();
+
+      assertThat(isVirtual(first)).isTrue();
+      assertThat(first.getName()).startsWith("test-virtual-");
+      assertThat(second).isNotSameAs(first);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  @EnabledIfEnvironmentVariable(named = "CHATAI_BENCHMARK", matches = "true")
+  void measureInFlightCapacity() throws Exception {
+    ExecutorService virtual = virtualExecutor();
+    ExecutorService platform = Executors.newFixedThreadPool(TOMCAT_THREADS);
+    try {
+      // Warm up both executors
+      run(virtual, TOMCAT_THREADS);
+      run(platform, TOMCAT_THREADS);
+
+      long platformMs = run(platform, REQUESTS);
+      long virtualMs = run(virtual, REQUESTS);
+      System.out.printf("%d requests blocked %d ms each: platform pool of %d threads %d ms (%.0f req/s), "
+                      + "virtual threads %d ms (%.0f req/s)%n", REQUESTS, UPSTREAM_LATENCY_MS, TOMCAT_THREADS,
+              platformMs, REQUESTS * 1000.0 / platformMs, virtualMs, REQUESTS * 1000.0 / virtualMs);
+
+      // The pool runs the requests in waves of its size, virtual threads all at once
+      assertThat(virtualMs).isLessThan(platformMs);
+    } finally {
+      virtual.shutdown();
+      platform.shutdown();
+    }
+  }
+
+  /**
+   * Submits requests that each block for the upstream latency and waits for all of them.
+   *
+   * @return the elapsed milliseconds
+   */
+  private static long run(ExecutorService executor, int requests) throws Exception {
+    long start = System.nanoTime();
+    List<Future<?>> futures = new ArrayList<>(requests);
+    for (int i = 0; i < requests; i++) {
+      futures.add(executor.submit(() -> {
+        Thread.sleep(UPSTREAM_LATENCY_MS);
+        return null;
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get(1, TimeUnit.MINUTES);
+    }
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+  }
+
+  private static ExecutorService virtualExecutor() {
+    ExecutorService executor = null;
+    try {
+      executor = VirtualThreads.newVirtualThreadPerTaskExecutor("test-virtual-");
+    } catch (IllegalStateException e) {
+      // Not provided by this JVM
+    }
+    assumeTrue(executor != null, "Virtual threads are not available on this JVM");
+    return executor;
+  }
+
+  private static boolean isVirtual(Thread thread) throws ReflectiveOperationException {
+    return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+  }
+}